@@ -0,0 +1,25 @@
+package com.dtssv.security.benchmark;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * 压测入口 支持jmh的全部命令行参数 并固定开启gc profiler输出分配速率
+ * java -jar security-benchmarks/target/benchmarks.jar [jmh参数] [benchmark正则]
+ * @author dtssv
+ * @date 2020/12/23 15:00
+ **/
+public class BenchmarkRunner {
+
+    public static void main(String[] args) throws Exception {
+        CommandLineOptions commandLineOptions = new CommandLineOptions(args);
+        Options options = new OptionsBuilder()
+                .parent(commandLineOptions)
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+}
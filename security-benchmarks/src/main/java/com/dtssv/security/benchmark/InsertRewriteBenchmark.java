@@ -0,0 +1,95 @@
+package com.dtssv.security.benchmark;
+
+import com.dtssv.security.benchmark.support.BenchmarkFixtures;
+import com.dtssv.security.mybatis.config.SecurityInterceptorConfig;
+import com.dtssv.security.mybatis.handler.BaseSecurityHandler;
+import com.dtssv.security.mybatis.plan.SqlRewritePlan;
+import com.dtssv.security.mybatis.plan.SqlRewritePlanCompiler;
+import com.dtssv.security.mybatis.reflection.StatementHandlerAccessor;
+import com.google.common.collect.Lists;
+import org.apache.ibatis.mapping.BoundSql;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.mapping.SqlCommandType;
+import org.apache.ibatis.session.Configuration;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 单行和多行insert的改写开销 覆盖processExpression
+ * 参数与foreach生成的参数一致 放在boundSql的附加参数中
+ * @author dtssv
+ * @date 2020/12/23 11:20
+ **/
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InsertRewriteBenchmark {
+    /**
+     * 插入行数
+     */
+    @Param({"1", "10", "100"})
+    public int rows;
+    /**
+     * 加密处理器
+     */
+    @Param({"noop", "aes"})
+    public String handler;
+
+    private Configuration configuration;
+    private BaseSecurityHandler securityHandler;
+    private SqlRewritePlanCompiler compiler;
+    private MappedStatement mappedStatement;
+    private BoundSql boundSql;
+    private Map<String, Object> additionalParameters;
+    private SqlRewritePlan plan;
+    private String sql;
+
+    @Setup
+    public void setup() {
+        configuration = new Configuration();
+        securityHandler = BenchmarkFixtures.handler(handler);
+        SecurityInterceptorConfig config = BenchmarkFixtures.interceptorConfig(securityHandler);
+        compiler = BenchmarkFixtures.compiler(config);
+        StringBuilder sb = new StringBuilder("insert into t_user (id, phone, id_card, name) values ");
+        List<String> properties = Lists.newArrayList();
+        for (int i = 0; i < rows; i++) {
+            if (i > 0) {
+                sb.append(", ");
+            }
+            sb.append('(').append(BenchmarkFixtures.placeholders(4)).append(')');
+            String item = "__frch_item_" + i;
+            properties.add(item + ".id");
+            properties.add(item + ".phone");
+            properties.add(item + ".idCard");
+            properties.add(item + ".name");
+        }
+        sql = sb.toString();
+        mappedStatement = BenchmarkFixtures.mappedStatement(configuration, "bench.insert" + rows, SqlCommandType.INSERT,
+                sql, BenchmarkFixtures.parameterMappings(configuration, properties), Map.class);
+        boundSql = mappedStatement.getBoundSql(BenchmarkFixtures.user(0));
+        for (int i = 0; i < rows; i++) {
+            boundSql.setAdditionalParameter("__frch_item_" + i, BenchmarkFixtures.user(i));
+        }
+        additionalParameters = StatementHandlerAccessor.getAdditionalParameters(boundSql);
+        plan = compiler.compile(mappedStatement, sql, boundSql.getParameterMappings());
+        if (!plan.isRewritten()) {
+            throw new IllegalStateException("statement not rewritten: " + sql);
+        }
+    }
+
+    @Benchmark
+    public SqlRewritePlan compile() {
+        return compiler.compile(mappedStatement, sql, boundSql.getParameterMappings());
+    }
+
+    @Benchmark
+    public BoundSql apply() {
+        return plan.apply(configuration, boundSql, additionalParameters, securityHandler);
+    }
+}
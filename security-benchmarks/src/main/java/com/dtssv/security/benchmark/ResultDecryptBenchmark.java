@@ -0,0 +1,129 @@
+package com.dtssv.security.benchmark;
+
+import com.dtssv.security.benchmark.support.BenchmarkFixtures;
+import com.dtssv.security.mybatis.handler.BaseSecurityHandler;
+import com.dtssv.security.mybatis.result.ResultDecryptor;
+import com.google.common.collect.Maps;
+import org.apache.ibatis.session.Configuration;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 查询结果解密的开销 按行数 加密处理器和并行度对比
+ * 解密会修改结果 每次调用前重新填入密文 行数较少时填充本身的开销不可忽略
+ * @author dtssv
+ * @date 2020/12/23 14:00
+ **/
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ResultDecryptBenchmark {
+    /**
+     * 结果行数
+     */
+    @Param({"10", "1000", "10000"})
+    public int rows;
+    /**
+     * 加密处理器
+     */
+    @Param({"noop", "aes"})
+    public String handler;
+    /**
+     * 并行度 大于1时行数达到1000开始并行解密
+     */
+    @Param({"1", "4"})
+    public int parallelism;
+
+    private Configuration configuration;
+    private ResultDecryptor resultDecryptor;
+    private Map<String, String> columnPropertyMap;
+    private List<UserRow> result;
+    private String[] phones;
+    private String[] idCards;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        configuration = new Configuration();
+        BaseSecurityHandler securityHandler = BenchmarkFixtures.handler(handler);
+        resultDecryptor = new ResultDecryptor(securityHandler, parallelism > 1 ? 1000 : 0, parallelism, null);
+        columnPropertyMap = Maps.newHashMap();
+        columnPropertyMap.put("phone", "phone");
+        columnPropertyMap.put("id_card", "idCard");
+        phones = new String[rows];
+        idCards = new String[rows];
+        result = new ArrayList<>(rows);
+        for (int i = 0; i < rows; i++) {
+            Map<String, Object> user = BenchmarkFixtures.user(i);
+            phones[i] = securityHandler.encrypt(user.get("phone"));
+            idCards[i] = securityHandler.encrypt(user.get("idCard"));
+            UserRow row = new UserRow();
+            row.setId((Long) user.get("id"));
+            row.setName((String) user.get("name"));
+            result.add(row);
+        }
+    }
+
+    @Setup(Level.Invocation)
+    public void fill() {
+        for (int i = 0; i < rows; i++) {
+            UserRow row = result.get(i);
+            row.setPhone(phones[i]);
+            row.setIdCard(idCards[i]);
+        }
+    }
+
+    @Benchmark
+    public List<UserRow> decrypt() {
+        resultDecryptor.decrypt(configuration, result, columnPropertyMap);
+        return result;
+    }
+
+    /**
+     * 查询结果
+     */
+    public static class UserRow {
+        private Long id;
+        private String phone;
+        private String idCard;
+        private String name;
+
+        public Long getId() {
+            return id;
+        }
+
+        public void setId(Long id) {
+            this.id = id;
+        }
+
+        public String getPhone() {
+            return phone;
+        }
+
+        public void setPhone(String phone) {
+            this.phone = phone;
+        }
+
+        public String getIdCard() {
+            return idCard;
+        }
+
+        public void setIdCard(String idCard) {
+            this.idCard = idCard;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public void setName(String name) {
+            this.name = name;
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package com.dtssv.security.benchmark;
+
+import com.dtssv.security.benchmark.support.BenchmarkFixtures;
+import com.dtssv.security.mybatis.handler.BaseSecurityHandler;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 单个值的加密 解密和索引计算开销
+ * aes为每次调用创建Cipher和Mac的常见实现(AES-CBC) gcm为内置的AesGcmHmacSecurityHandler envelope为带密钥编号信封的gcm
+ * 多线程下的竞争可以通过jmh参数-t观察
+ * @author dtssv
+ * @date 2020/12/30 11:00
+ **/
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SecurityHandlerBenchmark {
+    /**
+     * 加密处理器
+     */
+    @Param({"aes", "gcm", "envelope"})
+    public String handler;
+    /**
+     * 明文长度
+     */
+    @Param({"11", "128"})
+    public int length;
+
+    private BaseSecurityHandler securityHandler;
+    private String plain;
+    private String cipher;
+
+    @Setup
+    public void setup() {
+        securityHandler = BenchmarkFixtures.handler(handler);
+        StringBuilder builder = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            builder.append((char) ('0' + i % 10));
+        }
+        plain = builder.toString();
+        cipher = securityHandler.encrypt(plain);
+    }
+
+    @Benchmark
+    public String encrypt() {
+        return securityHandler.encrypt(plain);
+    }
+
+    @Benchmark
+    public String decrypt() {
+        return securityHandler.decrypt(cipher);
+    }
+
+    @Benchmark
+    public String index() {
+        return securityHandler.index(plain);
+    }
+}
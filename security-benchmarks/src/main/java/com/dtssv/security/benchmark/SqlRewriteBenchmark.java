@@ -0,0 +1,106 @@
+package com.dtssv.security.benchmark;
+
+import com.dtssv.security.benchmark.support.BenchmarkFixtures;
+import com.dtssv.security.mybatis.config.SecurityInterceptorConfig;
+import com.dtssv.security.mybatis.handler.BaseSecurityHandler;
+import com.dtssv.security.mybatis.plan.SqlRewritePlan;
+import com.dtssv.security.mybatis.plan.SqlRewritePlanCompiler;
+import com.google.common.collect.Lists;
+import net.sf.jsqlparser.JSQLParserException;
+import net.sf.jsqlparser.parser.CCJSqlParserUtil;
+import net.sf.jsqlparser.statement.Statement;
+import org.apache.ibatis.mapping.BoundSql;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.mapping.SqlCommandType;
+import org.apache.ibatis.session.Configuration;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 各类型语句的改写开销
+ * parse只解析sql compile为未命中改写计划缓存时的解析和改写 apply为命中缓存后每次执行时计算加密值和索引值
+ * @author dtssv
+ * @date 2020/12/23 11:00
+ **/
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SqlRewriteBenchmark {
+    /**
+     * 语句类型
+     */
+    @Param({"INSERT", "UPDATE", "SELECT", "DELETE"})
+    public SqlCommandType statement;
+    /**
+     * 加密处理器
+     */
+    @Param({"noop", "aes"})
+    public String handler;
+
+    private Configuration configuration;
+    private BaseSecurityHandler securityHandler;
+    private SqlRewritePlanCompiler compiler;
+    private MappedStatement mappedStatement;
+    private BoundSql boundSql;
+    private SqlRewritePlan plan;
+    private String sql;
+
+    @Setup
+    public void setup() {
+        configuration = new Configuration();
+        configuration.setMapUnderscoreToCamelCase(true);
+        securityHandler = BenchmarkFixtures.handler(handler);
+        SecurityInterceptorConfig config = BenchmarkFixtures.interceptorConfig(securityHandler);
+        compiler = BenchmarkFixtures.compiler(config);
+        List<String> properties;
+        switch (statement) {
+            case INSERT:
+                sql = "insert into t_user (id, phone, id_card, name) values (?, ?, ?, ?)";
+                properties = Lists.newArrayList("id", "phone", "idCard", "name");
+                break;
+            case UPDATE:
+                sql = "update t_user set phone = ?, name = ? where id_card = ?";
+                properties = Lists.newArrayList("phone", "name", "idCard");
+                break;
+            case SELECT:
+                sql = "select id, phone, id_card, name from t_user where phone = ? and name = ?";
+                properties = Lists.newArrayList("phone", "name");
+                break;
+            case DELETE:
+                sql = "delete from t_user where phone = ?";
+                properties = Lists.newArrayList("phone");
+                break;
+            default:
+                throw new IllegalArgumentException(statement.name());
+        }
+        mappedStatement = BenchmarkFixtures.mappedStatement(configuration, "bench." + statement.name().toLowerCase(),
+                statement, sql, BenchmarkFixtures.parameterMappings(configuration, properties), Map.class);
+        boundSql = mappedStatement.getBoundSql(BenchmarkFixtures.user(1));
+        plan = compiler.compile(mappedStatement, sql, boundSql.getParameterMappings());
+        if (!plan.isRewritten()) {
+            throw new IllegalStateException("statement not rewritten: " + sql);
+        }
+    }
+
+    @Benchmark
+    public Statement parse() throws JSQLParserException {
+        return CCJSqlParserUtil.parse(sql);
+    }
+
+    @Benchmark
+    public SqlRewritePlan compile() {
+        return compiler.compile(mappedStatement, sql, boundSql.getParameterMappings());
+    }
+
+    @Benchmark
+    public BoundSql apply() {
+        return plan.apply(configuration, boundSql, Collections.emptyMap(), securityHandler);
+    }
+}
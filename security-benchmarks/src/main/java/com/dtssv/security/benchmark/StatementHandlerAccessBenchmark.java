@@ -0,0 +1,132 @@
+package com.dtssv.security.benchmark;
+
+import com.dtssv.security.mybatis.reflection.ProxyTargetResolver;
+import com.dtssv.security.mybatis.reflection.StatementHandlerAccessor;
+import org.apache.ibatis.builder.StaticSqlSource;
+import org.apache.ibatis.executor.Executor;
+import org.apache.ibatis.executor.statement.BaseStatementHandler;
+import org.apache.ibatis.executor.statement.StatementHandler;
+import org.apache.ibatis.mapping.BoundSql;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.mapping.SqlCommandType;
+import org.apache.ibatis.plugin.Interceptor;
+import org.apache.ibatis.plugin.Intercepts;
+import org.apache.ibatis.plugin.Invocation;
+import org.apache.ibatis.plugin.Plugin;
+import org.apache.ibatis.plugin.Signature;
+import org.apache.ibatis.reflection.MetaObject;
+import org.apache.ibatis.reflection.SystemMetaObject;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.RowBounds;
+import org.apache.ibatis.transaction.jdbc.JdbcTransaction;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 拦截器访问StatementHandler内部字段的开销
+ * reflection为改用MethodHandle之前的实现 每次调用都反射查找字段并通过SystemMetaObject按路径读写
+ * methodHandle为当前ProxyTargetResolver和StatementHandlerAccessor的实现
+ * StatementHandler外面包了两层插件代理
+ * @author dtssv
+ * @date 2020/12/23 14:30
+ **/
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StatementHandlerAccessBenchmark {
+
+    private StatementHandler statementHandler;
+    private Field additionalParametersField;
+
+    @Setup
+    public void setup() throws NoSuchFieldException {
+        Configuration configuration = new Configuration();
+        configuration.addInterceptor(new PassThroughInterceptor());
+        configuration.addInterceptor(new PassThroughInterceptor());
+        MappedStatement mappedStatement = new MappedStatement.Builder(configuration, "bench.access",
+                new StaticSqlSource(configuration, "select 1"), SqlCommandType.SELECT).build();
+        Executor executor = configuration.newExecutor(new JdbcTransaction((Connection) null));
+        BoundSql boundSql = mappedStatement.getBoundSql(null);
+        statementHandler = configuration.newStatementHandler(executor, mappedStatement, null, RowBounds.DEFAULT,
+                null, boundSql);
+        if (!Proxy.isProxyClass(statementHandler.getClass())) {
+            throw new IllegalStateException("statementHandler is not proxied");
+        }
+        additionalParametersField = BoundSql.class.getDeclaredField("additionalParameters");
+        additionalParametersField.setAccessible(true);
+    }
+
+    @Benchmark
+    public void reflection(Blackhole blackhole) throws Exception {
+        Object target = realTarget(statementHandler);
+        MetaObject metaObject = SystemMetaObject.forObject(target);
+        blackhole.consume(metaObject.getValue("delegate.mappedStatement"));
+        blackhole.consume(metaObject.getValue("delegate.configuration"));
+        BoundSql boundSql = ((StatementHandler) target).getBoundSql();
+        Field sqlField = boundSql.getClass().getDeclaredField("sql");
+        sqlField.setAccessible(true);
+        sqlField.set(boundSql, "select 1");
+        blackhole.consume(additionalParametersField.get(boundSql));
+        metaObject.setValue("delegate.boundSql", boundSql);
+    }
+
+    @Benchmark
+    public void methodHandle(Blackhole blackhole) {
+        Object target = ProxyTargetResolver.resolve(statementHandler);
+        BaseStatementHandler delegate = StatementHandlerAccessor.getDelegate((StatementHandler) target);
+        blackhole.consume(StatementHandlerAccessor.getMappedStatement(delegate));
+        blackhole.consume(StatementHandlerAccessor.getConfiguration(delegate));
+        BoundSql boundSql = delegate.getBoundSql();
+        blackhole.consume(StatementHandlerAccessor.getAdditionalParameters(boundSql));
+        StatementHandlerAccessor.setBoundSql(delegate, boundSql);
+    }
+
+    /**
+     * 改用MethodHandle之前获取代理对象的方式
+     */
+    private static Object realTarget(Object target) {
+        if (Proxy.isProxyClass(target.getClass())) {
+            try {
+                Field field = target.getClass().getSuperclass().getDeclaredField("h");
+                field.setAccessible(true);
+                Object plugin = field.get(target);
+                Field targetField = plugin.getClass().getDeclaredField("target");
+                targetField.setAccessible(true);
+                return realTarget(targetField.get(plugin));
+            } catch (Exception e) {
+                return target;
+            }
+        }
+        return target;
+    }
+
+    /**
+     * 只用于生成代理的插件
+     */
+    @Intercepts({@Signature(type = StatementHandler.class, method = "prepare", args = {Connection.class, Integer.class})})
+    public static class PassThroughInterceptor implements Interceptor {
+
+        @Override
+        public Object intercept(Invocation invocation) throws Throwable {
+            return invocation.proceed();
+        }
+
+        @Override
+        public Object plugin(Object target) {
+            return Plugin.wrap(target, this);
+        }
+
+        @Override
+        public void setProperties(Properties properties) {
+        }
+    }
+}
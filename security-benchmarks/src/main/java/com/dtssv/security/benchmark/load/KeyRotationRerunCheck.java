@@ -0,0 +1,169 @@
+package com.dtssv.security.benchmark.load;
+
+import com.dtssv.security.benchmark.support.AesHmacSecurityHandler;
+import com.dtssv.security.benchmark.support.BenchmarkFixtures;
+import com.dtssv.security.mybatis.config.SecurityColumnConfig;
+import com.dtssv.security.mybatis.handler.BaseSecurityHandler;
+import com.dtssv.security.mybatis.migration.KeyRotationJob;
+import com.dtssv.security.mybatis.migration.MigrationConfig;
+import com.dtssv.security.mybatis.migration.MigrationResult;
+import org.apache.ibatis.datasource.unpooled.UnpooledDataSource;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 密钥轮换失败后重新执行的检查 基于内存h2 新旧处理器为两个不使用信封的AesHmacSecurityHandler
+ * 1. 第二张表处理到一半时新处理器加密出错 任务失败 第一张表已完成 第二张表部分批次已提交
+ * 2. 重新执行 第一张表的断点仍在 全部跳过 第二张表重新处理未完成的段 段内已轮换的行不再用旧处理器解密
+ * 3. 删除断点后再执行一次 所有值都已使用新密钥 只读取不更新
+ * 每一步结束后所有值都必须能用新处理器解密且索引一致 任何一项不满足时抛出异常
+ * java -cp security-benchmarks/target/benchmarks.jar com.dtssv.security.benchmark.load.KeyRotationRerunCheck
+ * @author dtssv
+ * @date 2021/1/14 11:00
+ **/
+public class KeyRotationRerunCheck {
+    /**
+     * 每张表的行数
+     */
+    private static final int ROWS = 200;
+    private static final List<String> TABLES = Arrays.asList("t_rotate_a", "t_rotate_b");
+
+    public static void main(String[] args) throws Exception {
+        UnpooledDataSource dataSource = new UnpooledDataSource("org.h2.Driver",
+                "jdbc:h2:mem:rotate_check;DB_CLOSE_DELAY=-1", "sa", "");
+        BaseSecurityHandler oldHandler = new AesHmacSecurityHandler(BenchmarkFixtures.key(16, 7), BenchmarkFixtures.key(32, 11));
+        BaseSecurityHandler newHandler = new AesHmacSecurityHandler(BenchmarkFixtures.key(16, 8), BenchmarkFixtures.key(32, 12));
+        List<SecurityColumnConfig> columns = new ArrayList<>();
+        try (Connection connection = dataSource.getConnection(); Statement statement = connection.createStatement()) {
+            for (String table : TABLES) {
+                int tableIndex = TABLES.indexOf(table);
+                statement.execute("create table " + table + " (id bigint primary key, phone_enc varchar(256), phone_idx varchar(128))");
+                try (PreparedStatement insert = connection.prepareStatement("insert into " + table + " values (?, ?, ?)")) {
+                    for (int i = 1; i <= ROWS; i++) {
+                        insert.setLong(1, i);
+                        insert.setString(2, oldHandler.encrypt(phone(tableIndex, i)));
+                        insert.setString(3, oldHandler.index(phone(tableIndex, i)));
+                        insert.addBatch();
+                    }
+                    insert.executeBatch();
+                }
+                SecurityColumnConfig column = new SecurityColumnConfig();
+                column.setTable(table);
+                column.setSourceColumn("phone");
+                column.setTargetColumn("phone_enc");
+                column.setIndexColumn("phone_idx");
+                columns.add(column);
+            }
+        }
+        Path checkpointDir = Files.createTempDirectory("security-rotate-check");
+        MigrationConfig config = new MigrationConfig();
+        config.setCheckpointDir(checkpointDir.toString());
+        config.setRangeSize(50);
+        config.setBatchSize(10);
+        config.setThreads(2);
+
+        // 第二张表的第130行加密出错 同一段中之前的批次已经提交
+        AtomicBoolean failing = new AtomicBoolean(true);
+        BaseSecurityHandler failingHandler = new FailingHandler(newHandler, failing, phone(1, 130));
+        try {
+            new KeyRotationJob(dataSource, columns, oldHandler, failingHandler, false, config).run();
+            throw new IllegalStateException("first run should fail");
+        } catch (IllegalStateException e) {
+            if (e.getMessage().equals("first run should fail")) {
+                throw e;
+            }
+            System.out.println("first run failed as expected: " + e.getMessage());
+        }
+        check(checkpointDir.resolve("security-" + TABLES.get(0) + ".checkpoint").toFile().exists(),
+                "checkpoint of the completed table must be kept until the whole job succeeds");
+
+        failing.set(false);
+        List<MigrationResult> rerun = new KeyRotationJob(dataSource, columns, oldHandler, failingHandler, false, config).run();
+        System.out.println("rerun: " + rerun);
+        check(rerun.get(0).getSkippedRanges() == rerun.get(0).getRanges(), "completed table must be skipped on rerun");
+        check(rerun.get(1).getUnchanged() > 0, "rotated rows of the failed range must be skipped, not decrypted again");
+        check(checkpointDir.toFile().list().length == 0, "checkpoints must be deleted after the job succeeds");
+        verify(dataSource, newHandler);
+
+        List<MigrationResult> again = new KeyRotationJob(dataSource, columns, oldHandler, newHandler, false, config).run();
+        System.out.println("run again: " + again);
+        for (MigrationResult result : again) {
+            check(result.getUpdated() == 0, "already rotated table must not be updated");
+        }
+        verify(dataSource, newHandler);
+        System.out.println("key rotation rerun check passed");
+    }
+
+    /**
+     * 所有值都能用新处理器解密 索引与新处理器计算的一致
+     */
+    private static void verify(UnpooledDataSource dataSource, BaseSecurityHandler newHandler) throws Exception {
+        try (Connection connection = dataSource.getConnection(); Statement statement = connection.createStatement()) {
+            for (String table : TABLES) {
+                int tableIndex = TABLES.indexOf(table);
+                try (ResultSet resultSet = statement.executeQuery("select id, phone_enc, phone_idx from " + table)) {
+                    while (resultSet.next()) {
+                        String phone = phone(tableIndex, resultSet.getLong(1));
+                        check(phone.equals(newHandler.decrypt(resultSet.getString(2))), table + " row " + resultSet.getLong(1) + " not rotated");
+                        check(newHandler.index(phone).equals(resultSet.getString(3)), table + " row " + resultSet.getLong(1) + " index not rotated");
+                    }
+                }
+            }
+        }
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new IllegalStateException("key rotation rerun check failed: " + message);
+        }
+    }
+
+    /**
+     * 两张表的明文不重复 出错只发生在第二张表
+     */
+    private static String phone(int tableIndex, long id) {
+        return String.valueOf(13800000000L + tableIndex * 10000L + id);
+    }
+
+    /**
+     * failing为true时加密指定明文出错
+     */
+    private static final class FailingHandler implements BaseSecurityHandler {
+        private final BaseSecurityHandler delegate;
+        private final AtomicBoolean failing;
+        private final String failOn;
+
+        private FailingHandler(BaseSecurityHandler delegate, AtomicBoolean failing, String failOn) {
+            this.delegate = delegate;
+            this.failing = failing;
+            this.failOn = failOn;
+        }
+
+        @Override
+        public String encrypt(Object parameter) {
+            if (failing.get() && failOn.equals(parameter)) {
+                throw new IllegalStateException("injected encrypt failure");
+            }
+            return delegate.encrypt(parameter);
+        }
+
+        @Override
+        public String decrypt(Object parameter) {
+            return delegate.decrypt(parameter);
+        }
+
+        @Override
+        public String index(Object parameter) {
+            return delegate.index(parameter);
+        }
+    }
+}
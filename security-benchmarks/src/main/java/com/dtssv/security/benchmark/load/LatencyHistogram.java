@@ -0,0 +1,116 @@
+package com.dtssv.security.benchmark.load;
+
+/**
+ * 延迟直方图 单位纳秒
+ * 小于128的值精确记录 更大的值按2的幂分段 每段64个桶 相对误差不超过1/64
+ * 只由一个线程写入 结束后合并
+ * @author dtssv
+ * @date 2020/12/24 10:20
+ **/
+final class LatencyHistogram {
+    /**
+     * 精确记录的范围
+     */
+    private static final int LINEAR_BUCKETS = 128;
+    /**
+     * 每段的桶数
+     */
+    private static final int SUB_BUCKETS = 64;
+    /**
+     * 每段桶数的位数
+     */
+    private static final int SUB_BUCKET_BITS = 6;
+    /**
+     * 计数
+     */
+    private final long[] counts = new long[LINEAR_BUCKETS + 64 * SUB_BUCKETS];
+    /**
+     * 总数
+     */
+    private long total;
+    /**
+     * 最大值
+     */
+    private long max;
+
+    /**
+     * 记录一次耗时
+     */
+    void record(long nanos) {
+        long value = Math.max(0, nanos);
+        counts[indexOf(value)]++;
+        total++;
+        if (value > max) {
+            max = value;
+        }
+    }
+
+    /**
+     * 合并另一个直方图
+     */
+    void merge(LatencyHistogram other) {
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] += other.counts[i];
+        }
+        total += other.total;
+        max = Math.max(max, other.max);
+    }
+
+    /**
+     * 总数
+     */
+    long total() {
+        return total;
+    }
+
+    /**
+     * 最大值
+     */
+    long max() {
+        return max;
+    }
+
+    /**
+     * 百分位数 返回所在桶的上界
+     * @param percentile 0-100
+     */
+    long percentile(double percentile) {
+        if (total == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(total * percentile / 100);
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(upperBoundOf(i), max);
+            }
+        }
+        return max;
+    }
+
+    /**
+     * 值所在的桶
+     */
+    private static int indexOf(long value) {
+        if (value < LINEAR_BUCKETS) {
+            return (int) value;
+        }
+        int highestBit = 63 - Long.numberOfLeadingZeros(value);
+        int shift = highestBit - SUB_BUCKET_BITS;
+        int subBucket = (int) (value >>> shift) - SUB_BUCKETS;
+        return LINEAR_BUCKETS + (shift - 1) * SUB_BUCKETS + subBucket;
+    }
+
+    /**
+     * 桶的上界
+     */
+    private static long upperBoundOf(int index) {
+        if (index < LINEAR_BUCKETS) {
+            return index;
+        }
+        int shift = (index - LINEAR_BUCKETS) / SUB_BUCKETS + 1;
+        long subBucket = (index - LINEAR_BUCKETS) % SUB_BUCKETS + SUB_BUCKETS;
+        return ((subBucket + 1) << shift) - 1;
+    }
+}
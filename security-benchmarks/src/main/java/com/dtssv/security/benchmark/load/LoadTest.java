@@ -0,0 +1,532 @@
+package com.dtssv.security.benchmark.load;
+
+import com.dtssv.security.benchmark.support.AesHmacSecurityHandler;
+import com.dtssv.security.benchmark.support.BenchmarkFixtures;
+import com.dtssv.security.benchmark.support.NoopSecurityHandler;
+import com.dtssv.security.mybatis.handler.AesGcmHmacSecurityHandler;
+import com.dtssv.security.mybatis.interceptor.SecurityInterceptor;
+import com.google.common.collect.Maps;
+import org.apache.ibatis.datasource.pooled.PooledDataSource;
+import org.apache.ibatis.mapping.Environment;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.SqlSession;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.apache.ibatis.session.SqlSessionFactoryBuilder;
+import org.apache.ibatis.transaction.jdbc.JdbcTransactionFactory;
+
+import java.lang.ref.Reference;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 基于内存h2的端到端压测 对比开启和不开启加密插件时mapper的吞吐 延迟和堆内存增长
+ * 全部在本机运行 不需要网络
+ * java -XX:+IgnoreUnrecognizedVMOptions --add-opens=java.base/java.lang=ALL-UNNAMED \
+ *   -cp security-benchmarks/target/benchmarks.jar com.dtssv.security.benchmark.load.LoadTest \
+ *   --threads=8 --warmup=10 --duration=30 --rows=10000 --mix=20:70:10 --handler=aes --mode=both --rounds=1
+ * handler为noop aes或gcm binary为true时加密列和索引列为varbinary并开启binaryMode mix为insert:select:update的比例 mode为plain security或both rounds大于1时重复压测 用于观察堆内存是否持续增长
+ * insert会使内存数据库本身变大 只观察插件的内存增长时使用--mix=0:90:10
+ * 开启插件时最后在固定线程池中再压测duration秒 然后检查池中线程的ThreadLocal 不允许残留插件对象或Map 有残留时抛出异常
+ * 检查需要反射读取Thread.threadLocals jdk9以上需要--add-opens 无法检查时同样抛出异常 jdk8忽略该参数
+ * @author dtssv
+ * @date 2020/12/24 11:00
+ **/
+public class LoadTest {
+    /**
+     * 操作类型
+     */
+    private static final String[] OPERATIONS = {"insert", "select", "update"};
+    /**
+     * 操作序号
+     */
+    private static final int INSERT = 0;
+    private static final int SELECT = 1;
+    private static final int UPDATE = 2;
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = parseOptions(args);
+        int threads = intOption(options, "threads", Math.max(2, Runtime.getRuntime().availableProcessors() * 2));
+        int warmup = intOption(options, "warmup", 10);
+        int duration = intOption(options, "duration", 30);
+        int rows = intOption(options, "rows", 10000);
+        int rounds = intOption(options, "rounds", 1);
+        String handler = stringOption(options, "handler", "aes");
+        boolean binary = Boolean.parseBoolean(stringOption(options, "binary", "false"));
+        String mode = stringOption(options, "mode", "both");
+        int[] mix = parseMix(stringOption(options, "mix", "20:70:10"));
+
+        double plainOps = 0;
+        double securityOps = 0;
+        if ("plain".equals(mode) || "both".equals(mode)) {
+            plainOps = new LoadTest("plain", false, handler, binary, threads, rows, mix).run(warmup, duration, rounds);
+        }
+        if ("security".equals(mode) || "both".equals(mode)) {
+            securityOps = new LoadTest("security", true, handler, binary, threads, rows, mix).run(warmup, duration, rounds);
+        }
+        if (plainOps > 0 && securityOps > 0) {
+            System.out.printf(Locale.ROOT, "%nsecurity/plain throughput: %.1f%%%n", securityOps * 100 / plainOps);
+        }
+    }
+
+    /**
+     * 名称
+     */
+    private final String name;
+    /**
+     * 是否开启加密插件
+     */
+    private final boolean security;
+    /**
+     * 加密处理器
+     */
+    private final String handler;
+    /**
+     * 二进制模式 加密列和索引列为varbinary
+     */
+    private final boolean binary;
+    /**
+     * 并发线程数
+     */
+    private final int threads;
+    /**
+     * 预置数据行数
+     */
+    private final int rows;
+    /**
+     * 操作比例的累计值
+     */
+    private final int[] cumulativeMix;
+    /**
+     * insert使用的id
+     */
+    private final AtomicLong nextId = new AtomicLong();
+    /**
+     * 当前阶段是否结束
+     */
+    private volatile boolean stopped;
+    /**
+     * sqlSessionFactory
+     */
+    private SqlSessionFactory sqlSessionFactory;
+
+    private LoadTest(String name, boolean security, String handler, boolean binary, int threads, int rows, int[] mix) {
+        this.name = name;
+        this.security = security;
+        this.handler = handler;
+        this.binary = binary;
+        this.threads = threads;
+        this.rows = rows;
+        this.cumulativeMix = new int[mix.length];
+        int sum = 0;
+        for (int i = 0; i < mix.length; i++) {
+            sum += mix[i];
+            cumulativeMix[i] = sum;
+        }
+    }
+
+    /**
+     * 预置数据 预热 然后按轮次压测
+     * @return 最后一轮的总吞吐
+     */
+    private double run(int warmup, int duration, int rounds) throws Exception {
+        setup();
+        System.out.printf(Locale.ROOT, "%n== %s handler=%s binary=%s threads=%d rows=%d warmup=%ds duration=%ds%n",
+                name, security ? handler : "-", binary, threads, rows, warmup, duration);
+        runPhase(warmup, false);
+        double opsPerSecond = 0;
+        for (int round = 1; round <= rounds; round++) {
+            long heapBefore = usedHeapAfterGc();
+            Result result = runPhase(duration, true);
+            long heapAfter = usedHeapAfterGc();
+            if (rounds > 1) {
+                System.out.printf(Locale.ROOT, "-- round %d%n", round);
+            }
+            opsPerSecond = result.print(duration);
+            System.out.printf(Locale.ROOT, "heap used after gc: before=%.1fMB after=%.1fMB growth=%+.1fMB peak=%.1fMB%n",
+                    mb(heapBefore), mb(heapAfter), mb(heapAfter - heapBefore), mb(result.peakHeap));
+        }
+        if (security) {
+            printColumnWidth();
+            checkRetainedThreadState(duration);
+        }
+        return opsPerSecond;
+    }
+
+    /**
+     * 在固定线程池中持续压测 结束后线程仍存活 检查每个线程的ThreadLocal中是否残留插件对象或Map
+     * prepare和query之间传递的改写计划只能挂在本次调用的BoundSql上 不能留在线程中
+     */
+    private void checkRetainedThreadState(int seconds) throws Exception {
+        List<Thread> poolThreads = Collections.synchronizedList(new ArrayList<>());
+        ExecutorService executor = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "load-" + name + "-pool-" + poolThreads.size());
+            poolThreads.add(thread);
+            return thread;
+        });
+        List<String> retained = new ArrayList<>();
+        try {
+            stopped = false;
+            List<Future<?>> futures = new ArrayList<>(threads);
+            for (int i = 0; i < threads; i++) {
+                futures.add(executor.submit(new Worker(false)));
+            }
+            Thread.sleep(seconds * 1000L);
+            stopped = true;
+            for (Future<?> future : futures) {
+                future.get();
+            }
+            // 线程退出时会清空ThreadLocal 必须在线程池关闭前检查空闲的线程
+            for (Thread thread : poolThreads) {
+                retained.addAll(retainedThreadLocals(thread));
+            }
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            throw new IllegalStateException("retained thread state check could not run,"
+                    + " start with --add-opens=java.base/java.lang=ALL-UNNAMED on jdk9+", e);
+        } finally {
+            executor.shutdown();
+        }
+        System.out.printf(Locale.ROOT, "retained thread state after pooled load: threads=%d retained=%d%n",
+                poolThreads.size(), retained.size());
+        if (!retained.isEmpty()) {
+            throw new IllegalStateException("pooled threads retained state: " + retained);
+        }
+    }
+
+    /**
+     * 线程的ThreadLocal中类型为插件类或Map的值 加密处理器按线程复用的Cipher不算残留
+     */
+    private static List<String> retainedThreadLocals(Thread thread) throws ReflectiveOperationException {
+        Field threadLocalsField = Thread.class.getDeclaredField("threadLocals");
+        threadLocalsField.setAccessible(true);
+        Object threadLocals = threadLocalsField.get(thread);
+        List<String> retained = new ArrayList<>();
+        if (threadLocals == null) {
+            return retained;
+        }
+        Field tableField = threadLocals.getClass().getDeclaredField("table");
+        tableField.setAccessible(true);
+        Object table = tableField.get(threadLocals);
+        for (int i = 0; i < Array.getLength(table); i++) {
+            Object entry = Array.get(table, i);
+            if (entry == null || ((Reference<?>) entry).get() == null) {
+                continue;
+            }
+            Field valueField = entry.getClass().getDeclaredField("value");
+            valueField.setAccessible(true);
+            Object value = valueField.get(entry);
+            if (value == null || value.getClass().getName().startsWith("com.dtssv.security.mybatis.handler.")) {
+                continue;
+            }
+            if (value instanceof Map || value.getClass().getName().startsWith("com.dtssv.security")) {
+                retained.add(thread.getName() + ":" + value.getClass().getName());
+            }
+        }
+        return retained;
+    }
+
+    /**
+     * 加密列和索引列平均每个值占用的字节数 h2中length对varchar为字符数 对varbinary为字节数
+     */
+    private void printColumnWidth() throws Exception {
+        try (SqlSession sqlSession = sqlSessionFactory.openSession();
+             Statement statement = sqlSession.getConnection().createStatement();
+             ResultSet resultSet = statement.executeQuery("select avg(length(phone_enc)), avg(length(phone_idx)) from t_user")) {
+            if (resultSet.next()) {
+                System.out.printf(Locale.ROOT, "stored bytes per value: phone_enc=%.1f phone_idx=%.1f%n",
+                        resultSet.getDouble(1), resultSet.getDouble(2));
+            }
+        }
+    }
+
+    /**
+     * 创建数据库和sqlSessionFactory 并预置数据
+     */
+    private void setup() throws Exception {
+        String url = "jdbc:h2:mem:load_" + name + ";DB_CLOSE_DELAY=-1";
+        PooledDataSource dataSource = new PooledDataSource("org.h2.Driver", url, "sa", "");
+        dataSource.setPoolMaximumActiveConnections(threads);
+        dataSource.setPoolMaximumIdleConnections(threads);
+        try (Connection connection = dataSource.getConnection(); Statement statement = connection.createStatement()) {
+            String encType = binary ? "varbinary(256)" : "varchar(256)";
+            String idxType = binary ? "varbinary(128)" : "varchar(128)";
+            statement.execute("create table t_user (id bigint primary key, phone varchar(64), phone_enc " + encType + ","
+                    + " phone_idx " + idxType + ", id_card varchar(64), id_card_enc " + encType + ", id_card_idx " + idxType + ","
+                    + " name varchar(64))");
+            statement.execute("create index idx_t_user_phone on t_user (phone)");
+            statement.execute("create index idx_t_user_phone_idx on t_user (phone_idx)");
+        }
+        Configuration configuration = new Configuration(new Environment(name, new JdbcTransactionFactory(), dataSource));
+        configuration.setMapUnderscoreToCamelCase(true);
+        if (security) {
+            configuration.addInterceptor(securityInterceptor());
+        }
+        configuration.addMapper(UserMapper.class);
+        sqlSessionFactory = new SqlSessionFactoryBuilder().build(configuration);
+        try (SqlSession sqlSession = sqlSessionFactory.openSession(true)) {
+            UserMapper mapper = sqlSession.getMapper(UserMapper.class);
+            for (int i = 0; i < rows; i++) {
+                mapper.insert(user(nextId.incrementAndGet(), "init"));
+            }
+        }
+    }
+
+    /**
+     * 按真实配置方式创建插件
+     */
+    private SecurityInterceptor securityInterceptor() {
+        Properties properties = new Properties();
+        properties.setProperty("enable", "true");
+        properties.setProperty("overwriteSourceByTarget", "true");
+        properties.setProperty("writeSource", "false");
+        properties.setProperty("binaryMode", String.valueOf(binary));
+        if ("gcm".equals(handler)) {
+            properties.setProperty("handleClass", AesGcmHmacSecurityHandler.class.getName());
+            properties.setProperty("aesKey", Base64.getEncoder().encodeToString(BenchmarkFixtures.key(16, 7)));
+            properties.setProperty("hmacKey", Base64.getEncoder().encodeToString(BenchmarkFixtures.key(32, 11)));
+        } else {
+            properties.setProperty("handleClass", "aes".equals(handler)
+                    ? AesHmacSecurityHandler.class.getName() : NoopSecurityHandler.class.getName());
+        }
+        properties.setProperty("mappedStatementIdPrefix", "[\"" + UserMapper.class.getName() + "\"]");
+        properties.setProperty("securityColumnConfig", "["
+                + "{\"table\":\"t_user\",\"sourceColumn\":\"phone\",\"targetColumn\":\"phone_enc\",\"indexColumn\":\"phone_idx\"},"
+                + "{\"table\":\"t_user\",\"sourceColumn\":\"id_card\",\"targetColumn\":\"id_card_enc\",\"indexColumn\":\"id_card_idx\"}]");
+        SecurityInterceptor securityInterceptor = new SecurityInterceptor();
+        securityInterceptor.setProperties(properties);
+        return securityInterceptor;
+    }
+
+    /**
+     * 执行一个阶段
+     * @param seconds 时长
+     * @param record 是否记录结果
+     */
+    private Result runPhase(int seconds, boolean record) throws InterruptedException {
+        stopped = false;
+        Worker[] workers = new Worker[threads];
+        for (int i = 0; i < threads; i++) {
+            workers[i] = new Worker(record);
+            workers[i].setName("load-" + name + "-" + i);
+            workers[i].start();
+        }
+        MemoryMXBean memoryMXBean = ManagementFactory.getMemoryMXBean();
+        long peakHeap = 0;
+        long deadline = System.nanoTime() + seconds * 1_000_000_000L;
+        while (System.nanoTime() < deadline) {
+            Thread.sleep(200);
+            peakHeap = Math.max(peakHeap, memoryMXBean.getHeapMemoryUsage().getUsed());
+        }
+        stopped = true;
+        Result result = new Result(peakHeap);
+        for (Worker worker : workers) {
+            worker.join();
+            result.merge(worker);
+        }
+        return result;
+    }
+
+    /**
+     * 压测线程 每次操作使用新的SqlSession 与一次请求一个session的用法一致
+     */
+    private final class Worker extends Thread {
+        private final boolean record;
+        private final LatencyHistogram[] histograms = new LatencyHistogram[OPERATIONS.length];
+        private final long[] errors = new long[OPERATIONS.length];
+        private long mismatches;
+
+        private Worker(boolean record) {
+            this.record = record;
+            for (int i = 0; i < histograms.length; i++) {
+                histograms[i] = new LatencyHistogram();
+            }
+        }
+
+        @Override
+        public void run() {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            while (!stopped) {
+                int operation = nextOperation(random.nextInt(cumulativeMix[cumulativeMix.length - 1]));
+                long start = System.nanoTime();
+                try (SqlSession sqlSession = sqlSessionFactory.openSession(true)) {
+                    UserMapper mapper = sqlSession.getMapper(UserMapper.class);
+                    if (operation == INSERT) {
+                        mapper.insert(user(nextId.incrementAndGet(), "insert"));
+                    } else if (operation == SELECT) {
+                        long id = 1 + random.nextLong(nextId.get());
+                        List<User> users = mapper.selectByPhone(phone(id));
+                        if (users.isEmpty()) {
+                            mismatches++;
+                        }
+                        for (User user : users) {
+                            if (!phone(id).equals(user.getPhone())) {
+                                mismatches++;
+                            }
+                        }
+                    } else {
+                        mapper.update(user(1 + random.nextLong(nextId.get()), "update"));
+                    }
+                } catch (RuntimeException e) {
+                    errors[operation]++;
+                }
+                if (record) {
+                    histograms[operation].record(System.nanoTime() - start);
+                }
+            }
+        }
+    }
+
+    /**
+     * 汇总结果
+     */
+    private static final class Result {
+        private final LatencyHistogram[] histograms = new LatencyHistogram[OPERATIONS.length];
+        private final long[] errors = new long[OPERATIONS.length];
+        private final long peakHeap;
+        private long mismatches;
+
+        private Result(long peakHeap) {
+            this.peakHeap = peakHeap;
+            for (int i = 0; i < histograms.length; i++) {
+                histograms[i] = new LatencyHistogram();
+            }
+        }
+
+        private void merge(Worker worker) {
+            for (int i = 0; i < histograms.length; i++) {
+                histograms[i].merge(worker.histograms[i]);
+                errors[i] += worker.errors[i];
+            }
+            mismatches += worker.mismatches;
+        }
+
+        /**
+         * 输出结果
+         * @return 总吞吐
+         */
+        private double print(int seconds) {
+            System.out.printf(Locale.ROOT, "%-8s %10s %10s %10s %10s %10s %8s%n",
+                    "op", "count", "ops/s", "p50(us)", "p99(us)", "max(us)", "errors");
+            LatencyHistogram total = new LatencyHistogram();
+            long totalErrors = 0;
+            for (int i = 0; i < OPERATIONS.length; i++) {
+                print(OPERATIONS[i], histograms[i], errors[i], seconds);
+                total.merge(histograms[i]);
+                totalErrors += errors[i];
+            }
+            print("total", total, totalErrors, seconds);
+            if (mismatches > 0) {
+                System.out.printf(Locale.ROOT, "select returned %d empty or unexpected results%n", mismatches);
+            }
+            return total.total() / (double) seconds;
+        }
+
+        private static void print(String operation, LatencyHistogram histogram, long errors, int seconds) {
+            System.out.printf(Locale.ROOT, "%-8s %10d %10.1f %10.1f %10.1f %10.1f %8d%n", operation,
+                    histogram.total(), histogram.total() / (double) seconds, histogram.percentile(50) / 1000.0,
+                    histogram.percentile(99) / 1000.0, histogram.max() / 1000.0, errors);
+        }
+    }
+
+    /**
+     * 确定操作类型
+     */
+    private int nextOperation(int value) {
+        for (int i = 0; i < cumulativeMix.length; i++) {
+            if (value < cumulativeMix[i]) {
+                return i;
+            }
+        }
+        return cumulativeMix.length - 1;
+    }
+
+    /**
+     * 按id生成用户 phone和id_card由id决定 便于查询时校验
+     */
+    private static User user(long id, String name) {
+        return new User(id, phone(id), String.valueOf(110101199001010000L + id), name + id);
+    }
+
+    private static String phone(long id) {
+        return String.valueOf(13800000000L + id);
+    }
+
+    /**
+     * gc后的堆内存使用量
+     */
+    private static long usedHeapAfterGc() throws InterruptedException {
+        MemoryMXBean memoryMXBean = ManagementFactory.getMemoryMXBean();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        return memoryMXBean.getHeapMemoryUsage().getUsed();
+    }
+
+    private static double mb(long bytes) {
+        return bytes / 1024.0 / 1024.0;
+    }
+
+    /**
+     * 解析--key=value形式的参数
+     */
+    private static Map<String, String> parseOptions(String[] args) {
+        Map<String, String> options = Maps.newHashMap();
+        for (String arg : args) {
+            if (!arg.startsWith("--") || arg.indexOf('=') < 0) {
+                throw new IllegalArgumentException("usage: --key=value, got " + arg);
+            }
+            options.put(arg.substring(2, arg.indexOf('=')), arg.substring(arg.indexOf('=') + 1));
+        }
+        return options;
+    }
+
+    private static int intOption(Map<String, String> options, String key, int defaultValue) {
+        String value = options.get(key);
+        return value == null ? defaultValue : Integer.parseInt(value);
+    }
+
+    private static String stringOption(Map<String, String> options, String key, String defaultValue) {
+        String value = options.get(key);
+        return value == null ? defaultValue : value;
+    }
+
+    /**
+     * 解析insert:select:update比例
+     */
+    private static int[] parseMix(String mix) {
+        String[] parts = mix.split(":");
+        if (parts.length != OPERATIONS.length) {
+            throw new IllegalArgumentException("mix must be insert:select:update, got " + mix);
+        }
+        int[] result = new int[parts.length];
+        int sum = 0;
+        for (int i = 0; i < parts.length; i++) {
+            result[i] = Integer.parseInt(parts[i].trim());
+            if (result[i] < 0) {
+                throw new IllegalArgumentException("mix must not be negative, got " + mix);
+            }
+            sum += result[i];
+        }
+        if (sum <= 0) {
+            throw new IllegalArgumentException("mix must not be all zero");
+        }
+        return result;
+    }
+}
@@ -0,0 +1,55 @@
+package com.dtssv.security.benchmark.load;
+
+/**
+ * t_user
+ * @author dtssv
+ * @date 2020/12/24 10:30
+ **/
+public class User {
+    private Long id;
+    private String phone;
+    private String idCard;
+    private String name;
+
+    public User() {
+    }
+
+    public User(Long id, String phone, String idCard, String name) {
+        this.id = id;
+        this.phone = phone;
+        this.idCard = idCard;
+        this.name = name;
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+    public String getPhone() {
+        return phone;
+    }
+
+    public void setPhone(String phone) {
+        this.phone = phone;
+    }
+
+    public String getIdCard() {
+        return idCard;
+    }
+
+    public void setIdCard(String idCard) {
+        this.idCard = idCard;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+}
@@ -0,0 +1,25 @@
+package com.dtssv.security.benchmark.load;
+
+import org.apache.ibatis.annotations.Insert;
+import org.apache.ibatis.annotations.Param;
+import org.apache.ibatis.annotations.Select;
+import org.apache.ibatis.annotations.Update;
+
+import java.util.List;
+
+/**
+ * 压测使用的mapper 只出现源列 由拦截器改写到加密列和索引列
+ * @author dtssv
+ * @date 2020/12/24 10:35
+ **/
+public interface UserMapper {
+
+    @Insert("insert into t_user (id, phone, id_card, name) values (#{id}, #{phone}, #{idCard}, #{name})")
+    int insert(User user);
+
+    @Select("select id, phone, id_card, name from t_user where phone = #{phone}")
+    List<User> selectByPhone(@Param("phone") String phone);
+
+    @Update("update t_user set phone = #{phone}, name = #{name} where id = #{id}")
+    int update(User user);
+}
@@ -0,0 +1,111 @@
+package com.dtssv.security.benchmark.support;
+
+import com.dtssv.security.mybatis.handler.BaseSecurityHandler;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Base64;
+
+/**
+ * AES-CBC加密 HMAC-SHA256索引的加密处理器
+ * 与常见的业务实现一样每次调用都创建Cipher和Mac 用于估算真实加解密的开销
+ * 密钥固定 仅用于压测
+ * @author dtssv
+ * @date 2020/12/23 10:15
+ **/
+public class AesHmacSecurityHandler implements BaseSecurityHandler {
+    /**
+     * iv长度
+     */
+    private static final int IV_LENGTH = 16;
+    /**
+     * 加密密钥
+     */
+    private final SecretKeySpec aesKey;
+    /**
+     * 索引密钥
+     */
+    private final SecretKeySpec hmacKey;
+    /**
+     * iv生成
+     */
+    private final SecureRandom random = new SecureRandom();
+
+    /**
+     *
+     */
+    public AesHmacSecurityHandler() {
+        this(filled(16, 7), filled(32, 11));
+    }
+
+    /**
+     * 指定密钥 密钥轮换检查中作为新旧两个处理器
+     * @param aesKey 加密密钥
+     * @param hmacKey 索引密钥
+     */
+    public AesHmacSecurityHandler(byte[] aesKey, byte[] hmacKey) {
+        this.aesKey = new SecretKeySpec(aesKey, "AES");
+        this.hmacKey = new SecretKeySpec(hmacKey, "HmacSHA256");
+    }
+
+    private static byte[] filled(int length, int value) {
+        byte[] key = new byte[length];
+        Arrays.fill(key, (byte) value);
+        return key;
+    }
+
+    @Override
+    public String encrypt(Object parameter) {
+        if (parameter == null) {
+            return null;
+        }
+        try {
+            byte[] iv = new byte[IV_LENGTH];
+            random.nextBytes(iv);
+            Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
+            cipher.init(Cipher.ENCRYPT_MODE, aesKey, new IvParameterSpec(iv));
+            byte[] encrypted = cipher.doFinal(parameter.toString().getBytes(StandardCharsets.UTF_8));
+            byte[] result = new byte[IV_LENGTH + encrypted.length];
+            System.arraycopy(iv, 0, result, 0, IV_LENGTH);
+            System.arraycopy(encrypted, 0, result, IV_LENGTH, encrypted.length);
+            return Base64.getEncoder().encodeToString(result);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public String decrypt(Object parameter) {
+        if (parameter == null) {
+            return null;
+        }
+        try {
+            byte[] data = Base64.getDecoder().decode(parameter.toString());
+            Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
+            cipher.init(Cipher.DECRYPT_MODE, aesKey, new IvParameterSpec(data, 0, IV_LENGTH));
+            return new String(cipher.doFinal(data, IV_LENGTH, data.length - IV_LENGTH), StandardCharsets.UTF_8);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public String index(Object parameter) {
+        if (parameter == null) {
+            return null;
+        }
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(hmacKey);
+            return Base64.getEncoder().encodeToString(mac.doFinal(parameter.toString().getBytes(StandardCharsets.UTF_8)));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
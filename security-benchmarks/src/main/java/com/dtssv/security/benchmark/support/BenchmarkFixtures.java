@@ -0,0 +1,193 @@
+package com.dtssv.security.benchmark.support;
+
+import com.dtssv.security.mybatis.config.SecurityColumnConfig;
+import com.dtssv.security.mybatis.config.SecurityInterceptorConfig;
+import com.dtssv.security.mybatis.handler.AesGcmHmacSecurityHandler;
+import com.dtssv.security.mybatis.handler.BaseSecurityHandler;
+import com.dtssv.security.mybatis.plan.SqlRewritePlanCompiler;
+import com.dtssv.security.mybatis.plan.TableNameMatcher;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.apache.ibatis.builder.StaticSqlSource;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.mapping.ParameterMapping;
+import org.apache.ibatis.mapping.ResultMap;
+import org.apache.ibatis.mapping.SqlCommandType;
+import org.apache.ibatis.session.Configuration;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 压测公用的表结构 加密配置和mappedStatement
+ * t_user(id, phone, phone_enc, phone_idx, id_card, id_card_enc, id_card_idx, name) 其中phone和id_card为加密列
+ * @author dtssv
+ * @date 2020/12/23 10:30
+ **/
+public final class BenchmarkFixtures {
+    /**
+     * 加密表
+     */
+    public static final String TABLE = "t_user";
+
+    private BenchmarkFixtures() {
+    }
+
+    /**
+     * 按名称创建加密处理器 noop aes gcm或envelope
+     * envelope为使用密文信封的gcm 密钥环中有两个密钥 使用编号2加密
+     */
+    public static BaseSecurityHandler handler(String name) {
+        if ("aes".equals(name)) {
+            return new AesHmacSecurityHandler();
+        }
+        if ("gcm".equals(name)) {
+            return new AesGcmHmacSecurityHandler(key(16, 7), key(32, 11));
+        }
+        if ("envelope".equals(name)) {
+            Map<Integer, byte[]> keys = Maps.newHashMap();
+            keys.put(1, key(16, 7));
+            keys.put(2, key(16, 9));
+            return new AesGcmHmacSecurityHandler(keys, 2, key(32, 11));
+        }
+        if ("noop".equals(name)) {
+            return new NoopSecurityHandler();
+        }
+        throw new IllegalArgumentException("unknown handler " + name);
+    }
+
+    /**
+     * 固定的压测密钥
+     */
+    public static byte[] key(int length, int value) {
+        byte[] key = new byte[length];
+        Arrays.fill(key, (byte) value);
+        return key;
+    }
+
+    /**
+     * 加密列配置
+     */
+    public static List<SecurityColumnConfig> securityColumnConfigs() {
+        return Lists.newArrayList(column("phone"), column("id_card"));
+    }
+
+    /**
+     * 拦截器配置 where条件和查询结果都使用加密列
+     */
+    public static SecurityInterceptorConfig interceptorConfig(BaseSecurityHandler handler) {
+        SecurityInterceptorConfig config = new SecurityInterceptorConfig();
+        config.setEnable(true);
+        config.setOverwriteSourceByTarget(true);
+        config.setWriteSource(false);
+        config.setSecurityHandler(handler);
+        config.setSecurityColumnConfig(securityColumnConfigs());
+        config.setMappedStatementIdPrefix(Lists.newArrayList("bench."));
+        return config;
+    }
+
+    /**
+     * 表和字段的映射关系
+     */
+    public static Map<String, Map<String, SecurityColumnConfig>> tableColumnMap(SecurityInterceptorConfig config) {
+        Map<String, Map<String, SecurityColumnConfig>> tableColumnMap = Maps.newHashMap();
+        for (SecurityColumnConfig columnConfig : config.getSecurityColumnConfig()) {
+            Map<String, SecurityColumnConfig> columns = tableColumnMap.get(columnConfig.getTable());
+            if (columns == null) {
+                columns = Maps.newHashMap();
+                tableColumnMap.put(columnConfig.getTable(), columns);
+            }
+            columns.put(columnConfig.getSourceColumn(), columnConfig);
+        }
+        return tableColumnMap;
+    }
+
+    /**
+     * 改写计划编译器
+     */
+    public static SqlRewritePlanCompiler compiler(SecurityInterceptorConfig config) {
+        Map<String, Map<String, SecurityColumnConfig>> tableColumnMap = tableColumnMap(config);
+        return new SqlRewritePlanCompiler(tableColumnMap, config, new TableNameMatcher(tableColumnMap.keySet()));
+    }
+
+    /**
+     * 创建静态sql的mappedStatement
+     * @author dtssv
+     * @date 2020/12/23 10:40
+     * @param configuration
+     * @param id
+     * @param sqlCommandType
+     * @param sql
+     * @param parameterMappings
+     * @param resultType 非select时忽略
+     * @return org.apache.ibatis.mapping.MappedStatement
+     **/
+    public static MappedStatement mappedStatement(Configuration configuration, String id, SqlCommandType sqlCommandType,
+                                                  String sql, List<ParameterMapping> parameterMappings,
+                                                  Class<?> resultType) {
+        MappedStatement.Builder builder = new MappedStatement.Builder(configuration, id,
+                new StaticSqlSource(configuration, sql, parameterMappings), sqlCommandType);
+        if (sqlCommandType == SqlCommandType.SELECT) {
+            ResultMap resultMap = new ResultMap.Builder(configuration, id + "-Inline", resultType,
+                    new ArrayList<>()).build();
+            builder.resultMaps(Collections.singletonList(resultMap));
+        }
+        MappedStatement mappedStatement = builder.build();
+        if (!configuration.hasStatement(id, false)) {
+            configuration.addMappedStatement(mappedStatement);
+        }
+        return mappedStatement;
+    }
+
+    /**
+     * 按属性名创建参数列表
+     */
+    public static List<ParameterMapping> parameterMappings(Configuration configuration, List<String> properties) {
+        List<ParameterMapping> parameterMappings = new ArrayList<>(properties.size());
+        for (String property : properties) {
+            parameterMappings.add(new ParameterMapping.Builder(configuration, property, Object.class).build());
+        }
+        return parameterMappings;
+    }
+
+    /**
+     * 生成n个占位符 ?, ?, ?
+     */
+    public static String placeholders(int n) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < n; i++) {
+            if (i > 0) {
+                sb.append(", ");
+            }
+            sb.append('?');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * 一行用户数据
+     */
+    public static Map<String, Object> user(long id) {
+        Map<String, Object> user = Maps.newHashMap();
+        user.put("id", id);
+        user.put("phone", String.valueOf(13800000000L + id));
+        user.put("idCard", String.valueOf(110101199001010000L + id));
+        user.put("name", "user" + id);
+        return user;
+    }
+
+    /**
+     *
+     */
+    private static SecurityColumnConfig column(String sourceColumn) {
+        SecurityColumnConfig columnConfig = new SecurityColumnConfig();
+        columnConfig.setTable(TABLE);
+        columnConfig.setSourceColumn(sourceColumn);
+        columnConfig.setTargetColumn(sourceColumn + "_enc");
+        columnConfig.setIndexColumn(sourceColumn + "_idx");
+        return columnConfig;
+    }
+}
@@ -0,0 +1,26 @@
+package com.dtssv.security.benchmark.support;
+
+import com.dtssv.security.mybatis.handler.BaseSecurityHandler;
+
+/**
+ * 不做任何计算的加密处理器 用于测量拦截器本身的开销
+ * @author dtssv
+ * @date 2020/12/23 10:10
+ **/
+public class NoopSecurityHandler implements BaseSecurityHandler {
+
+    @Override
+    public String encrypt(Object parameter) {
+        return parameter == null ? null : parameter.toString();
+    }
+
+    @Override
+    public String decrypt(Object parameter) {
+        return parameter == null ? null : parameter.toString();
+    }
+
+    @Override
+    public String index(Object parameter) {
+        return parameter == null ? null : parameter.toString();
+    }
+}
@@ -0,0 +1,218 @@
+package com.dtssv.security.maven;
+
+import com.dtssv.security.mybatis.interceptor.SecurityInterceptor;
+import com.dtssv.security.mybatis.plan.PlanSnapshot;
+import com.dtssv.security.mybatis.plan.PlanSnapshotCodec;
+import org.apache.ibatis.builder.xml.XMLMapperBuilder;
+import org.apache.ibatis.io.Resources;
+import org.apache.ibatis.session.Configuration;
+import org.apache.maven.artifact.DependencyResolutionRequiredException;
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugins.annotations.LifecyclePhase;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+import org.apache.maven.plugins.annotations.ResolutionScope;
+import org.apache.maven.project.MavenProject;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * 构建时解析mapper xml 编译所有静态sql的改写计划并写入快照
+ * 快照默认输出到classes/META-INF/security/rewrite-plans.bin 随jar发布 拦截器启动时从classpath加载
+ * 用法:
+ * <pre>
+ * &lt;plugin&gt;
+ *     &lt;groupId&gt;org.dtssv&lt;/groupId&gt;
+ *     &lt;artifactId&gt;security-maven-plugin&lt;/artifactId&gt;
+ *     &lt;configuration&gt;
+ *         &lt;propertiesFile&gt;src/main/resources/security.properties&lt;/propertiesFile&gt;
+ *     &lt;/configuration&gt;
+ *     &lt;executions&gt;&lt;execution&gt;&lt;goals&gt;&lt;goal&gt;generate-plans&lt;/goal&gt;&lt;/goals&gt;&lt;/execution&gt;&lt;/executions&gt;
+ * &lt;/plugin&gt;
+ * </pre>
+ * @author dtssv
+ * @date 2021/1/8 14:10
+ **/
+@Mojo(name = "generate-plans", defaultPhase = LifecyclePhase.PROCESS_CLASSES,
+        requiresDependencyResolution = ResolutionScope.COMPILE, threadSafe = true)
+public class GeneratePlansMojo extends AbstractMojo {
+    @Parameter(defaultValue = "${project}", readonly = true, required = true)
+    private MavenProject project;
+    /**
+     * 拦截器配置 与mybatis中配置拦截器的property相同 只使用影响改写的配置 handleClass和密钥不需要配置
+     */
+    @Parameter(property = "security.propertiesFile")
+    private File propertiesFile;
+    /**
+     * 拦截器配置 覆盖propertiesFile中的同名配置
+     */
+    @Parameter
+    private Properties properties;
+    /**
+     * mapper xml所在目录
+     */
+    @Parameter(defaultValue = "${project.build.outputDirectory}")
+    private File mapperDirectory;
+    /**
+     * 相对mapperDirectory的glob 默认**&#47;*Mapper.xml
+     */
+    @Parameter
+    private List<String> mapperIncludes;
+    /**
+     * resultType等使用的类型别名所在的包
+     */
+    @Parameter
+    private List<String> typeAliasesPackages;
+    /**
+     * 与运行时的databaseId一致 指定了databaseId的语句只在一致时加载
+     */
+    @Parameter
+    private String databaseId;
+    /**
+     * 输出文件
+     */
+    @Parameter(defaultValue = "${project.build.outputDirectory}/" + PlanSnapshotCodec.DEFAULT_RESOURCE)
+    private File outputFile;
+    /**
+     * 编码格式 SMILE或CBOR
+     */
+    @Parameter(property = "security.planFormat", defaultValue = "SMILE")
+    private PlanSnapshotCodec.Format format;
+    @Parameter(property = "security.skip", defaultValue = "false")
+    private boolean skip;
+
+    @Override
+    public void execute() throws MojoExecutionException {
+        if (skip) {
+            getLog().info("security generate-plans skipped");
+            return;
+        }
+        Properties interceptorProperties = interceptorProperties();
+        Thread thread = Thread.currentThread();
+        ClassLoader contextClassLoader = thread.getContextClassLoader();
+        try (URLClassLoader classLoader = new URLClassLoader(classpath(), getClass().getClassLoader())) {
+            // mapper中的类型和namespace对应的接口从项目classpath加载
+            thread.setContextClassLoader(classLoader);
+            Resources.setDefaultClassLoader(classLoader);
+            SecurityInterceptor securityInterceptor = new SecurityInterceptor();
+            securityInterceptor.setProperties(interceptorProperties);
+            Configuration configuration = new Configuration();
+            configuration.setDatabaseId(databaseId);
+            if (typeAliasesPackages != null) {
+                for (String typeAliasesPackage : typeAliasesPackages) {
+                    configuration.getTypeAliasRegistry().registerAliases(typeAliasesPackage);
+                }
+            }
+            List<Path> mappers = mappers();
+            for (Path mapper : mappers) {
+                try (InputStream in = Files.newInputStream(mapper)) {
+                    new XMLMapperBuilder(in, configuration, mapper.toString(), configuration.getSqlFragments()).parse();
+                }
+            }
+            PlanSnapshot snapshot = securityInterceptor.snapshot(configuration);
+            write(snapshot);
+            getLog().info("security generated " + snapshot.getPlans().size() + " rewrite plans from " + mappers.size()
+                    + " mappers to " + outputFile + ",fingerprint:" + snapshot.getFingerprint());
+        } catch (Exception e) {
+            throw new MojoExecutionException("security generate rewrite plans error", e);
+        } finally {
+            thread.setContextClassLoader(contextClassLoader);
+            Resources.setDefaultClassLoader(null);
+        }
+    }
+
+    /**
+     * 读取拦截器配置 处理器固定为PlanCompileSecurityHandler 构建时不加载旧快照和本地计划文件 不注册MBean
+     */
+    private Properties interceptorProperties() throws MojoExecutionException {
+        Properties interceptorProperties = new Properties();
+        if (propertiesFile != null) {
+            try (InputStream in = Files.newInputStream(propertiesFile.toPath())) {
+                interceptorProperties.load(in);
+            } catch (IOException e) {
+                throw new MojoExecutionException("security read propertiesFile error:" + propertiesFile, e);
+            }
+        }
+        if (properties != null) {
+            interceptorProperties.putAll(properties);
+        }
+        if (interceptorProperties.getProperty("securityColumnConfig") == null) {
+            throw new MojoExecutionException("security securityColumnConfig not configured");
+        }
+        interceptorProperties.setProperty("handleClass", PlanCompileSecurityHandler.class.getName());
+        interceptorProperties.setProperty("planSnapshotResource", "");
+        interceptorProperties.remove("planStoreFile");
+        interceptorProperties.setProperty("traceBufferSize", "0");
+        interceptorProperties.setProperty("metricsEnabled", "false");
+        return interceptorProperties;
+    }
+
+    /**
+     * 项目的编译classpath
+     */
+    private URL[] classpath() throws DependencyResolutionRequiredException, MalformedURLException {
+        List<String> elements = project.getCompileClasspathElements();
+        URL[] urls = new URL[elements.size()];
+        for (int i = 0; i < urls.length; i++) {
+            urls[i] = new File(elements.get(i)).toURI().toURL();
+        }
+        return urls;
+    }
+
+    /**
+     * 匹配的mapper xml 按路径排序
+     */
+    private List<Path> mappers() throws IOException {
+        if (!mapperDirectory.isDirectory()) {
+            getLog().warn("security mapperDirectory " + mapperDirectory + " not exists");
+            return Collections.emptyList();
+        }
+        List<String> includes = mapperIncludes == null || mapperIncludes.isEmpty()
+                ? Collections.singletonList("**/*Mapper.xml") : mapperIncludes;
+        List<PathMatcher> matchers = new ArrayList<>(includes.size());
+        for (String include : includes) {
+            matchers.add(FileSystems.getDefault().getPathMatcher("glob:" + include));
+            // glob中的**/至少匹配一级目录 同时匹配根目录下的文件
+            if (include.startsWith("**/")) {
+                matchers.add(FileSystems.getDefault().getPathMatcher("glob:" + include.substring(3)));
+            }
+        }
+        Path root = mapperDirectory.toPath();
+        try (Stream<Path> paths = Files.walk(root)) {
+            return paths.filter(Files::isRegularFile)
+                    .filter(path -> matchers.stream().anyMatch(matcher -> matcher.matches(root.relativize(path))))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+
+    /**
+     * 写入输出文件
+     */
+    private void write(PlanSnapshot snapshot) throws IOException {
+        Path output = outputFile.toPath();
+        if (output.getParent() != null) {
+            Files.createDirectories(output.getParent());
+        }
+        try (OutputStream out = Files.newOutputStream(output)) {
+            PlanSnapshotCodec.write(snapshot, out, format);
+        }
+    }
+}
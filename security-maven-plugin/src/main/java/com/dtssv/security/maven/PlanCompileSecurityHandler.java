@@ -0,0 +1,26 @@
+package com.dtssv.security.maven;
+
+import com.dtssv.security.mybatis.handler.BaseSecurityHandler;
+
+/**
+ * 构建时编译改写计划使用的处理器 不需要密钥
+ * 快照只包含可以缓存的计划 其中不含任何加密结果 sql中的常量被加密的计划不可缓存 不会写入快照
+ * @author dtssv
+ * @date 2021/1/8 14:00
+ **/
+public class PlanCompileSecurityHandler implements BaseSecurityHandler {
+    @Override
+    public String encrypt(Object parameter) {
+        return "";
+    }
+
+    @Override
+    public String decrypt(Object parameter) {
+        return "";
+    }
+
+    @Override
+    public String index(Object parameter) {
+        return "";
+    }
+}
@@ -0,0 +1,121 @@
+package com.dtssv.security.mybatis.cache;
+
+/**
+ * 访问频率估算 count-min sketch
+ * 每个long保存16个4位计数器 每个值在4行中各占一个计数器 取最小值作为估算频率
+ * 累计次数达到采样数时所有计数器减半 使旧的热点值逐渐失去优势
+ * @author dtssv
+ * @date 2020/12/21 10:30
+ **/
+final class FrequencySketch {
+    /**
+     * 每行的hash种子
+     */
+    private static final long[] SEEDS = {
+            0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L};
+    /**
+     * 计数器减半时使用的掩码
+     */
+    private static final long RESET_MASK = 0x7777777777777777L;
+    /**
+     * 计数器最大值
+     */
+    private static final int MAX_FREQUENCY = 15;
+    /**
+     * 计数器
+     */
+    private final long[] table;
+    /**
+     * table长度-1
+     */
+    private final int tableMask;
+    /**
+     * 采样数
+     */
+    private final int sampleSize;
+    /**
+     * 当前累计次数
+     */
+    private int size;
+
+    /**
+     *
+     * @param maximumSize 缓存的最大数量 计数器数量按该值分配
+     */
+    FrequencySketch(long maximumSize) {
+        int capacity = (int) Math.min(Math.max(maximumSize, 16), 1 << 30);
+        int length = Integer.highestOneBit(capacity - 1) << 1;
+        this.table = new long[length];
+        this.tableMask = length - 1;
+        this.sampleSize = (int) Math.min(10L * capacity, Integer.MAX_VALUE);
+    }
+
+    /**
+     * 估算频率
+     */
+    synchronized int frequency(Object value) {
+        int hash = spread(value.hashCode());
+        int frequency = MAX_FREQUENCY;
+        for (int i = 0; i < SEEDS.length; i++) {
+            int index = indexOf(hash, i);
+            int offset = offsetOf(hash, i);
+            frequency = Math.min(frequency, (int) ((table[index] >>> offset) & 0xfL));
+        }
+        return frequency;
+    }
+
+    /**
+     * 频率加1
+     */
+    synchronized void increment(Object value) {
+        int hash = spread(value.hashCode());
+        boolean added = false;
+        for (int i = 0; i < SEEDS.length; i++) {
+            int index = indexOf(hash, i);
+            int offset = offsetOf(hash, i);
+            long mask = 0xfL << offset;
+            if ((table[index] & mask) != mask) {
+                table[index] += 1L << offset;
+                added = true;
+            }
+        }
+        if (added && ++size >= sampleSize) {
+            reset();
+        }
+    }
+
+    /**
+     * 所有计数器减半
+     */
+    private void reset() {
+        for (int i = 0; i < table.length; i++) {
+            table[i] = (table[i] >>> 1) & RESET_MASK;
+        }
+        size = size >>> 1;
+    }
+
+    /**
+     * 第i行计数器所在的long
+     */
+    private int indexOf(int hash, int i) {
+        long h = (hash + SEEDS[i]) * SEEDS[i];
+        h += h >>> 32;
+        return ((int) h) & tableMask;
+    }
+
+    /**
+     * 第i行计数器在long中的位置 每行使用long中不同的4个计数器
+     */
+    private static int offsetOf(int hash, int i) {
+        return ((i << 2) + ((hash >>> (i << 3)) & 3)) << 2;
+    }
+
+    /**
+     * 打散hashCode
+     */
+    private static int spread(int hash) {
+        hash = ((hash >>> 16) ^ hash) * 0x45d9f3b;
+        hash = ((hash >>> 16) ^ hash) * 0x45d9f3b;
+        return (hash >>> 16) ^ hash;
+    }
+}
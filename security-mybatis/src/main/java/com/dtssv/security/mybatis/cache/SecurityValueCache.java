@@ -0,0 +1,172 @@
+package com.dtssv.security.mybatis.cache;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.collect.Maps;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * 加解密计算结果的有界缓存
+ * 按数量和访问时间淘汰 未命中的值访问频率达到admissionFrequency后才会放入缓存
+ * 避免只出现一次的值把热点值挤出缓存
+ * @author dtssv
+ * @date 2020/12/21 10:10
+ **/
+public class SecurityValueCache {
+    /**
+     * cache
+     */
+    private final Cache<String, String> cache;
+    /**
+     * 访问频率估算 admissionFrequency小于等于1时为空
+     */
+    private final FrequencySketch sketch;
+    /**
+     * 放入缓存需要达到的访问频率
+     */
+    private final int admissionFrequency;
+
+    /**
+     *
+     * @param maximumSize 最大缓存数量
+     * @param expireAfterAccessSeconds 多久未访问后过期 小于等于0表示不按时间过期
+     * @param admissionFrequency 放入缓存需要达到的访问频率 小于等于1表示直接放入
+     */
+    public SecurityValueCache(long maximumSize, long expireAfterAccessSeconds, int admissionFrequency) {
+        CacheBuilder<Object, Object> builder = CacheBuilder.newBuilder()
+                .maximumSize(maximumSize)
+                .recordStats();
+        if (expireAfterAccessSeconds > 0) {
+            builder.expireAfterAccess(expireAfterAccessSeconds, TimeUnit.SECONDS);
+        }
+        this.cache = builder.build();
+        this.admissionFrequency = admissionFrequency;
+        this.sketch = admissionFrequency > 1 ? new FrequencySketch(maximumSize) : null;
+    }
+
+    /**
+     * 获取缓存值
+     * @author dtssv
+     * @date 2020/12/21 10:40
+     * @param key
+     * @return java.lang.String 不存在时返回null
+     **/
+    public String getIfPresent(String key) {
+        return cache.getIfPresent(key);
+    }
+
+    /**
+     * 放入缓存 访问频率不足时忽略
+     * @author dtssv
+     * @date 2020/12/21 10:41
+     * @param key
+     * @param value
+     * @return void
+     **/
+    public void put(String key, String value) {
+        if (value != null && admit(key)) {
+            cache.put(key, value);
+        }
+    }
+
+    /**
+     * 预加载 不经过访问频率判断直接放入缓存
+     * @author dtssv
+     * @date 2020/12/22 10:10
+     * @param key
+     * @param value
+     * @return void
+     **/
+    public void preload(String key, String value) {
+        if (value != null) {
+            cache.put(key, value);
+        }
+    }
+
+    /**
+     * 批量获取 未命中的key合并为一次loader调用
+     * @author dtssv
+     * @date 2020/12/21 10:45
+     * @param keys 不重复的key
+     * @param loader 按顺序返回未命中key的计算结果
+     * @return java.util.Map<java.lang.String,java.lang.String>
+     **/
+    public Map<String, String> getAll(Collection<String> keys, Function<List<String>, List<String>> loader) {
+        return getAll(keys, loader, false);
+    }
+
+    /**
+     * 批量获取 未命中的key合并为一次loader调用
+     * @author dtssv
+     * @date 2020/12/22 10:15
+     * @param keys 不重复的key
+     * @param loader 按顺序返回未命中key的计算结果
+     * @param preload 未命中key的计算结果是否不经过访问频率判断直接放入缓存
+     * @return java.util.Map<java.lang.String,java.lang.String>
+     **/
+    public Map<String, String> getAll(Collection<String> keys, Function<List<String>, List<String>> loader,
+                                      boolean preload) {
+        Map<String, String> result = Maps.newHashMapWithExpectedSize(keys.size());
+        List<String> misses = new ArrayList<>();
+        for (String key : keys) {
+            String value = cache.getIfPresent(key);
+            if (value == null) {
+                misses.add(key);
+            } else {
+                result.put(key, value);
+            }
+        }
+        if (misses.isEmpty()) {
+            return result;
+        }
+        List<String> values = loader.apply(misses);
+        for (int i = 0; i < misses.size(); i++) {
+            result.put(misses.get(i), values.get(i));
+            if (preload) {
+                preload(misses.get(i), values.get(i));
+            } else {
+                put(misses.get(i), values.get(i));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 缓存数量
+     */
+    public long size() {
+        return cache.size();
+    }
+
+    /**
+     * 缓存统计
+     */
+    public CacheStats stats() {
+        return cache.stats();
+    }
+
+    /**
+     * 清空缓存
+     */
+    public void invalidateAll() {
+        cache.invalidateAll();
+    }
+
+    /**
+     * 是否允许放入缓存
+     */
+    private boolean admit(String key) {
+        if (sketch == null) {
+            return true;
+        }
+        sketch.increment(key);
+        return sketch.frequency(key) >= admissionFrequency;
+    }
+}
@@ -26,5 +26,9 @@ public class SecurityColumnConfig {
      * indexColumn
      */
     private String indexColumn;
+    /**
+     * 是否使用解密缓存 敏感程度高的列可以关闭 避免明文常驻内存
+     */
+    private boolean decryptCache = true;
 
 }
@@ -3,10 +3,13 @@ package com.dtssv.security.mybatis.config;
 
 
 import com.dtssv.security.mybatis.handler.BaseSecurityHandler;
+import com.dtssv.security.mybatis.metrics.SecurityMetricsSink;
+import com.dtssv.security.mybatis.plan.PlanSnapshotCodec;
 import com.google.common.collect.Lists;
 import lombok.Data;
 
 import java.util.List;
+import java.util.concurrent.ExecutorService;
 
 /**
  * SecurityInterceptorConfig
@@ -29,6 +32,12 @@ public class SecurityInterceptorConfig {
      */
     private boolean writeSource = false;
 
+    /**
+     * 二进制模式 加密列和索引列为VARBINARY 使用加密处理器的encryptBytes/decryptBytes/indexBytes 不做Base64
+     * sql中的常量改写为X'..'形式的十六进制常量
+     */
+    private boolean binaryMode = false;
+
     /**
      * enable
      */
@@ -44,5 +53,108 @@ public class SecurityInterceptorConfig {
      */
     private List<String> mappedStatementIdPrefix = Lists.newArrayList();
 
+    /**
+     * 排除的mappedStatementId前缀 优先于mappedStatementIdPrefix
+     */
+    private List<String> mappedStatementIdExclude = Lists.newArrayList();
+
+    /**
+     * 改写计划缓存的最大数量
+     */
+    private long planCacheSize = 2048;
+
+    /**
+     * 是否在首次执行时把静态sql(RawSqlSource/StaticSqlSource)的SqlSource替换为改写后的版本
+     * 替换后getBoundSql直接返回改写后的sql和加密后的参数 prepare时不再解析和改写 动态sql不受影响
+     * 也可以在启动后调用SecurityInterceptor.decorate(configuration)提前替换
+     */
+    private boolean decorateStaticSqlSource = false;
+
+    /**
+     * 构建时生成的改写计划快照(classpath资源) 启动时加载到计划缓存 资源不存在或配置指纹不一致时忽略 为空时不加载
+     */
+    private String planSnapshotResource = PlanSnapshotCodec.DEFAULT_RESOURCE;
+
+    /**
+     * 本地计划文件 启动时映射文件 计划缓存未命中时从文件中查找 包括动态sql的计划 为空时不使用
+     * 进程退出时保存当前缓存的计划 也可以调用SecurityInterceptor.savePlanStore()保存
+     */
+    private String planStoreFile;
+
+    /**
+     * 定时保存本地计划文件的间隔 秒 小于等于0表示只在进程退出时保存
+     */
+    private long planStoreSaveIntervalSeconds = 0;
+
+    /**
+     * 动态sql中foreach生成的in列表和多行values按形状生成计划模板 不同的元素个数共用一个模板 不再每个个数解析一次
+     */
+    private boolean planTemplateEnabled = true;
+
+    /**
+     * 查询结果达到该行数时并行解密 小于等于0表示不开启
+     */
+    private int parallelDecryptThreshold = 0;
+
+    /**
+     * 并行解密的线程数 默认为cpu核数
+     */
+    private int parallelDecryptParallelism = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * 并行解密使用的线程池 为空时使用内部独立的ForkJoinPool 不会使用公共线程池
+     */
+    private ExecutorService decryptExecutor;
+
+    /**
+     * 解密缓存的最大数量 小于等于0表示不开启 列配置decryptCache为false的列不使用缓存
+     */
+    private long decryptCacheSize = 0;
+
+    /**
+     * 解密缓存多久未访问后过期 单位秒 小于等于0表示不按时间过期
+     */
+    private long decryptCacheExpireSeconds = 600;
+
+    /**
+     * 未命中的值访问频率达到该值后才放入缓存 小于等于1表示直接放入
+     */
+    private int cacheAdmissionFrequency = 2;
+
+    /**
+     * 查询索引缓存的最大数量 小于等于0表示不开启
+     */
+    private long indexCacheSize = 0;
+
+    /**
+     * 查询索引缓存多久未访问后过期 单位秒 小于等于0表示不按时间过期
+     */
+    private long indexCacheExpireSeconds = 600;
+
+    /**
+     * insert和update写入的索引值是否预加载到查询索引缓存 不经过访问频率判断
+     */
+    private boolean indexCachePreload = true;
+
+    /**
+     * 是否开启内置的指标统计 开启后注册jmx MBean com.dtssv.security:type=SecurityMetrics,name=${metricsJmxName}
+     */
+    private boolean metricsEnabled = false;
+
+    /**
+     * 内置指标统计和改写记录注册的jmx名称 多个拦截器时需要区分 名称已被其他拦截器注册时加后缀-2 -3
+     */
+    private String metricsJmxName = "default";
+
+    /**
+     * 自定义的指标输出 不依赖metricsEnabled 为空且metricsEnabled为false时不统计
+     */
+    private List<SecurityMetricsSink> metricsSinks = Lists.newArrayList();
+
+    /**
+     * 保存最近多少次改写记录 向上取整为2的幂 小于等于0表示不记录 默认不记录 只在排查问题时开启
+     * 记录可通过jmx com.dtssv.security:type=RewriteTrace,name=${metricsJmxName}查看 原sql中的常量(包括加密列的明文)会原样保存
+     */
+    private int traceBufferSize = 0;
 
 }
@@ -0,0 +1,167 @@
+package com.dtssv.security.mybatis.config;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * mappedStatement id匹配器
+ * 配置的前缀在初始化时编译为前缀树 匹配结果按id缓存
+ * 前缀中的*匹配命名空间中的一段(不包含.) 例如com.dtssv.*.mapper.
+ * 排除前缀优先于包含前缀
+ * @author dtssv
+ * @date 2020/12/14 10:05
+ **/
+public class StatementIdMatcher {
+    /**
+     * 通配符
+     */
+    private static final char WILDCARD = '*';
+    /**
+     * 命名空间分隔符
+     */
+    private static final char SEPARATOR = '.';
+    /**
+     * 包含前缀
+     */
+    private final Node includes;
+    /**
+     * 排除前缀
+     */
+    private final Node excludes;
+    /**
+     * 匹配结果缓存
+     */
+    private final Map<String, Boolean> results = new ConcurrentHashMap<>();
+
+    /**
+     *
+     * @param includePrefixes 需要处理的id前缀
+     * @param excludePrefixes 排除的id前缀
+     */
+    public StatementIdMatcher(Collection<String> includePrefixes, Collection<String> excludePrefixes) {
+        this.includes = compile(includePrefixes);
+        this.excludes = compile(excludePrefixes);
+    }
+
+    /**
+     * 是否是需要处理的mappedStatement
+     * @author dtssv
+     * @date 2020/12/14 10:20
+     * @param id
+     * @return boolean
+     **/
+    public boolean matches(String id) {
+        Boolean result = results.get(id);
+        if (result == null) {
+            result = matchPrefix(includes, id) && !matchPrefix(excludes, id);
+            results.put(id, result);
+        }
+        return result;
+    }
+
+    /**
+     * 编译前缀树
+     */
+    private static Node compile(Collection<String> prefixes) {
+        Node root = new Node();
+        if (prefixes == null) {
+            return root;
+        }
+        for (String prefix : prefixes) {
+            if (prefix == null) {
+                continue;
+            }
+            Node node = root;
+            for (int i = 0; i < prefix.length(); i++) {
+                char c = prefix.charAt(i);
+                if (c == WILDCARD) {
+                    if (node.wildcard == null) {
+                        node.wildcard = new Node();
+                        node.wildcard.inWildcard = true;
+                    }
+                    node = node.wildcard;
+                } else {
+                    node = node.children.computeIfAbsent(c, key -> new Node());
+                }
+            }
+            node.terminal = true;
+        }
+        return root;
+    }
+
+    /**
+     * id是否以前缀树中的某个前缀开头
+     */
+    private static boolean matchPrefix(Node root, String id) {
+        List<Node> current = new ArrayList<>();
+        List<Node> next = new ArrayList<>();
+        addState(current, root);
+        for (int i = 0; i < id.length(); i++) {
+            char c = id.charAt(i);
+            for (Node node : current) {
+                if (node.terminal) {
+                    return true;
+                }
+                // 处于通配符中 不是分隔符时继续留在通配符状态
+                if (node.inWildcard && c != SEPARATOR) {
+                    addState(next, node);
+                }
+                Node child = node.children.get(c);
+                if (child != null) {
+                    addState(next, child);
+                }
+            }
+            if (next.isEmpty()) {
+                return false;
+            }
+            List<Node> temp = current;
+            current = next;
+            next = temp;
+            next.clear();
+        }
+        for (Node node : current) {
+            if (node.terminal) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 添加状态 通配符可以匹配空串 同时进入通配符后的状态
+     */
+    private static void addState(List<Node> states, Node node) {
+        if (!states.contains(node)) {
+            states.add(node);
+        }
+        if (node.wildcard != null && !states.contains(node.wildcard)) {
+            states.add(node.wildcard);
+        }
+    }
+
+    /**
+     * 前缀树节点
+     */
+    private static final class Node {
+        /**
+         * 子节点
+         */
+        private final Map<Character, Node> children = new HashMap<>();
+        /**
+         * 通配符子节点
+         */
+        private Node wildcard;
+        /**
+         * 是否为通配符节点
+         */
+        private boolean inWildcard;
+        /**
+         * 是否为某个前缀的结尾
+         */
+        private boolean terminal;
+    }
+}
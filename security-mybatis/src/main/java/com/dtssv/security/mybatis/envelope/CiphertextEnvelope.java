@@ -0,0 +1,256 @@
+package com.dtssv.security.mybatis.envelope;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 带版本和密钥编号的密文信封
+ * 格式: version(1字节) + keyId(2字节 大端 无符号) + flags(1字节 低4位为算法) + iv + 密文(含tag)
+ * iv长度由算法决定 AES-GCM时头部共16字节 比不带信封的密文只多4字节
+ * 解析只读取头部 iv和密文通过偏移量或slice访问原数组 不复制
+ * 解析结果是原数组的视图 原数组修改后结果随之变化
+ * @author dtssv
+ * @date 2021/1/4 10:10
+ **/
+public final class CiphertextEnvelope {
+    /**
+     * 当前版本
+     */
+    public static final int VERSION = 1;
+    /**
+     * 固定头部长度 不含iv
+     */
+    public static final int HEADER_LENGTH = 4;
+    /**
+     * 最大密钥编号
+     */
+    public static final int MAX_KEY_ID = 0xFFFF;
+    /**
+     * flags中算法所在的位
+     */
+    private static final int ALGORITHM_MASK = 0x0F;
+
+    /**
+     * 信封所在的缓冲区 只使用绝对位置读取 不修改position
+     */
+    private final ByteBuffer buffer;
+    /**
+     * 信封在缓冲区中的起始位置
+     */
+    private final int start;
+    /**
+     * 信封在缓冲区中的结束位置
+     */
+    private final int end;
+    private final int keyId;
+    private final int flags;
+    private final EnvelopeAlgorithm algorithm;
+
+    private CiphertextEnvelope(ByteBuffer buffer, int start, int end, int keyId, int flags, EnvelopeAlgorithm algorithm) {
+        this.buffer = buffer;
+        this.start = start;
+        this.end = end;
+        this.keyId = keyId;
+        this.flags = flags;
+        this.algorithm = algorithm;
+    }
+
+    /**
+     * 解析信封
+     * @author dtssv
+     * @date 2021/1/4 10:15
+     * @param data
+     * @return com.dtssv.security.mybatis.envelope.CiphertextEnvelope
+     **/
+    public static CiphertextEnvelope parse(byte[] data) {
+        return parse(data, 0, data.length);
+    }
+
+    /**
+     * 解析数组中的一段
+     */
+    public static CiphertextEnvelope parse(byte[] data, int offset, int length) {
+        return parse(ByteBuffer.wrap(data, offset, length));
+    }
+
+    /**
+     * 解析缓冲区position到limit之间的内容 不修改缓冲区的position
+     * @author dtssv
+     * @date 2021/1/4 10:16
+     * @param buffer
+     * @return com.dtssv.security.mybatis.envelope.CiphertextEnvelope
+     **/
+    public static CiphertextEnvelope parse(ByteBuffer buffer) {
+        int start = buffer.position();
+        int end = buffer.limit();
+        if (end - start < HEADER_LENGTH) {
+            throw new IllegalArgumentException("security envelope too short");
+        }
+        int version = buffer.get(start) & 0xFF;
+        if (version != VERSION) {
+            throw new IllegalArgumentException("security envelope version unsupported:" + version);
+        }
+        int flags = buffer.get(start + 3) & 0xFF;
+        EnvelopeAlgorithm algorithm = EnvelopeAlgorithm.of(flags & ALGORITHM_MASK);
+        if (algorithm == null || (flags & ~ALGORITHM_MASK) != 0) {
+            throw new IllegalArgumentException("security envelope flags unsupported:" + flags);
+        }
+        if (end - start < HEADER_LENGTH + algorithm.getIvLength() + algorithm.getTagLength()) {
+            throw new IllegalArgumentException("security envelope too short");
+        }
+        return new CiphertextEnvelope(buffer, start, end, readKeyId(buffer, start), flags, algorithm);
+    }
+
+    /**
+     * 只读取密钥编号 不是当前版本的信封时返回-1 不抛出异常
+     * 用于批量判断密文是否已经使用某个密钥
+     * @author dtssv
+     * @date 2021/1/4 10:18
+     * @param data
+     * @return int
+     **/
+    public static int peekKeyId(byte[] data) {
+        if (data == null || data.length < HEADER_LENGTH || (data[0] & 0xFF) != VERSION) {
+            return -1;
+        }
+        EnvelopeAlgorithm algorithm = EnvelopeAlgorithm.of(data[3] & 0xFF);
+        if (algorithm == null || data.length < HEADER_LENGTH + algorithm.getIvLength() + algorithm.getTagLength()) {
+            return -1;
+        }
+        return ((data[1] & 0xFF) << 8) | (data[2] & 0xFF);
+    }
+
+    /**
+     * 信封总长度
+     * @author dtssv
+     * @date 2021/1/4 10:20
+     * @param algorithm
+     * @param payloadLength 密文长度 含tag
+     * @return int
+     **/
+    public static int length(EnvelopeAlgorithm algorithm, int payloadLength) {
+        return HEADER_LENGTH + algorithm.getIvLength() + payloadLength;
+    }
+
+    /**
+     * 写入头部和iv 调用方随后把密文写到返回的位置 整个信封只分配一次数组
+     * @author dtssv
+     * @date 2021/1/4 10:22
+     * @param target
+     * @param offset
+     * @param keyId 0-65535
+     * @param algorithm
+     * @param iv 长度必须与算法一致
+     * @return int 密文的写入位置
+     **/
+    public static int writeHeader(byte[] target, int offset, int keyId, EnvelopeAlgorithm algorithm, byte[] iv) {
+        if (keyId < 0 || keyId > MAX_KEY_ID) {
+            throw new IllegalArgumentException("security envelope keyId out of range:" + keyId);
+        }
+        if (iv.length != algorithm.getIvLength()) {
+            throw new IllegalArgumentException("security envelope iv length must be " + algorithm.getIvLength());
+        }
+        target[offset] = (byte) VERSION;
+        target[offset + 1] = (byte) (keyId >>> 8);
+        target[offset + 2] = (byte) keyId;
+        target[offset + 3] = (byte) algorithm.getId();
+        System.arraycopy(iv, 0, target, offset + HEADER_LENGTH, iv.length);
+        return offset + HEADER_LENGTH + iv.length;
+    }
+
+    /**
+     * 大端读取 不依赖缓冲区设置的字节序
+     */
+    private static int readKeyId(ByteBuffer buffer, int start) {
+        return ((buffer.get(start + 1) & 0xFF) << 8) | (buffer.get(start + 2) & 0xFF);
+    }
+
+    public int getVersion() {
+        return VERSION;
+    }
+
+    public int getKeyId() {
+        return keyId;
+    }
+
+    public int getFlags() {
+        return flags;
+    }
+
+    public EnvelopeAlgorithm getAlgorithm() {
+        return algorithm;
+    }
+
+    /**
+     * 固定头部 可作为AEAD的附加数据 防止篡改版本 密钥编号和算法
+     */
+    public ByteBuffer header() {
+        return slice(start, start + HEADER_LENGTH);
+    }
+
+    /**
+     * iv 与原缓冲区共享内容
+     */
+    public ByteBuffer iv() {
+        return slice(start + HEADER_LENGTH, getPayloadStart());
+    }
+
+    /**
+     * 密文(含tag) 与原缓冲区共享内容
+     */
+    public ByteBuffer payload() {
+        return slice(getPayloadStart(), end);
+    }
+
+    /**
+     * 缓冲区是否基于数组 基于数组时可以通过getArray和偏移量直接传给Cipher
+     */
+    public boolean hasArray() {
+        return buffer.hasArray();
+    }
+
+    /**
+     * 底层数组 hasArray为false时抛出UnsupportedOperationException
+     */
+    public byte[] getArray() {
+        return buffer.array();
+    }
+
+    /**
+     * 头部在底层数组中的位置
+     */
+    public int getHeaderOffset() {
+        return buffer.arrayOffset() + start;
+    }
+
+    /**
+     * iv在底层数组中的位置
+     */
+    public int getIvOffset() {
+        return buffer.arrayOffset() + start + HEADER_LENGTH;
+    }
+
+    /**
+     * 密文在底层数组中的位置
+     */
+    public int getPayloadOffset() {
+        return buffer.arrayOffset() + getPayloadStart();
+    }
+
+    /**
+     * 密文长度 含tag
+     */
+    public int getPayloadLength() {
+        return end - getPayloadStart();
+    }
+
+    private int getPayloadStart() {
+        return start + HEADER_LENGTH + algorithm.getIvLength();
+    }
+
+    private ByteBuffer slice(int from, int to) {
+        ByteBuffer duplicate = buffer.duplicate();
+        duplicate.limit(to);
+        duplicate.position(from);
+        return duplicate.slice();
+    }
+}
@@ -0,0 +1,66 @@
+package com.dtssv.security.mybatis.envelope;
+
+/**
+ * 密文信封中的算法 保存在flags的低4位 iv长度由算法决定 不单独保存
+ * @author dtssv
+ * @date 2021/1/4 10:00
+ **/
+public enum EnvelopeAlgorithm {
+    /**
+     * AES/GCM/NoPadding iv 12字节 tag 16字节
+     */
+    AES_GCM(1, 12, 16);
+
+    /**
+     * 按编号索引 避免每次调用values()复制数组
+     */
+    private static final EnvelopeAlgorithm[] BY_ID = new EnvelopeAlgorithm[16];
+
+    static {
+        for (EnvelopeAlgorithm algorithm : values()) {
+            BY_ID[algorithm.id] = algorithm;
+        }
+    }
+
+    /**
+     * flags中的编号 1-15
+     */
+    private final int id;
+    /**
+     * iv长度
+     */
+    private final int ivLength;
+    /**
+     * 认证tag长度 密文中至少包含tag
+     */
+    private final int tagLength;
+
+    EnvelopeAlgorithm(int id, int ivLength, int tagLength) {
+        this.id = id;
+        this.ivLength = ivLength;
+        this.tagLength = tagLength;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public int getIvLength() {
+        return ivLength;
+    }
+
+    public int getTagLength() {
+        return tagLength;
+    }
+
+    /**
+     * 根据flags中的编号查找算法
+     * @author dtssv
+     * @date 2021/1/4 10:05
+     * @param id
+     * @return com.dtssv.security.mybatis.envelope.EnvelopeAlgorithm 未知时返回null
+     **/
+    public static EnvelopeAlgorithm of(int id) {
+        return id > 0 && id < BY_ID.length ? BY_ID[id] : null;
+    }
+}
@@ -0,0 +1,119 @@
+package com.dtssv.security.mybatis.envelope;
+
+import com.google.common.base.Splitter;
+import com.google.common.base.Strings;
+
+import javax.crypto.spec.SecretKeySpec;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * 密钥环 按密钥编号保存多个密钥 创建后不可修改 可以在线程间共享
+ * 密钥按编号存放在数组中 解密时根据信封中的编号直接取出 不需要逐个尝试
+ * 加密只使用当前密钥(activeKeyId) 旧密钥只用于解密 轮换时新增密钥并切换activeKeyId 旧数据重新加密后再删除旧密钥
+ * @author dtssv
+ * @date 2021/1/4 10:30
+ **/
+public final class SecurityKeyring {
+    /**
+     * 下标为密钥编号
+     */
+    private final SecretKeySpec[] keys;
+    /**
+     * 已配置的密钥编号 升序
+     */
+    private final List<Integer> keyIds;
+    /**
+     * 加密使用的密钥编号
+     */
+    private final int activeKeyId;
+
+    /**
+     *
+     * @param keys 密钥编号到密钥的映射 编号0-65535
+     * @param activeKeyId 加密使用的密钥编号 必须在keys中
+     * @param algorithm SecretKeySpec的算法名 如AES
+     */
+    public SecurityKeyring(Map<Integer, byte[]> keys, int activeKeyId, String algorithm) {
+        if (keys.isEmpty()) {
+            throw new IllegalArgumentException("security keyring is empty");
+        }
+        TreeMap<Integer, byte[]> sorted = new TreeMap<>(keys);
+        int maxKeyId = sorted.lastKey();
+        if (sorted.firstKey() < 0 || maxKeyId > CiphertextEnvelope.MAX_KEY_ID) {
+            throw new IllegalArgumentException("security keyId must between 0 and " + CiphertextEnvelope.MAX_KEY_ID);
+        }
+        if (!sorted.containsKey(activeKeyId)) {
+            throw new IllegalArgumentException("security activeKeyId not found:" + activeKeyId);
+        }
+        this.keys = new SecretKeySpec[maxKeyId + 1];
+        for (Map.Entry<Integer, byte[]> entry : sorted.entrySet()) {
+            this.keys[entry.getKey()] = new SecretKeySpec(entry.getValue(), algorithm);
+        }
+        this.keyIds = Collections.unmodifiableList(new ArrayList<>(sorted.keySet()));
+        this.activeKeyId = activeKeyId;
+    }
+
+    /**
+     * 解析配置 格式: 编号:Base64密钥,编号:Base64密钥 如 1:AAEC...,2:AwQF...
+     * @author dtssv
+     * @date 2021/1/4 10:35
+     * @param value
+     * @return java.util.Map<java.lang.Integer,byte[]> 按编号升序
+     **/
+    public static Map<Integer, byte[]> parseKeys(String value) {
+        Map<Integer, byte[]> keys = new TreeMap<>();
+        if (Strings.isNullOrEmpty(value)) {
+            return keys;
+        }
+        for (String item : Splitter.on(',').trimResults().omitEmptyStrings().split(value)) {
+            int index = item.indexOf(':');
+            if (index <= 0) {
+                throw new IllegalArgumentException("security key format must be keyId:base64Key");
+            }
+            int keyId = Integer.parseInt(item.substring(0, index).trim());
+            if (keys.put(keyId, Base64.getDecoder().decode(item.substring(index + 1).trim())) != null) {
+                throw new IllegalArgumentException("security keyId duplicated:" + keyId);
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * 根据编号获取密钥
+     * @author dtssv
+     * @date 2021/1/4 10:40
+     * @param keyId
+     * @return javax.crypto.spec.SecretKeySpec
+     **/
+    public SecretKeySpec get(int keyId) {
+        SecretKeySpec key = keyId >= 0 && keyId < keys.length ? keys[keyId] : null;
+        if (key == null) {
+            throw new IllegalArgumentException("security key not found,keyId:" + keyId);
+        }
+        return key;
+    }
+
+    /**
+     * 是否包含密钥
+     */
+    public boolean contains(int keyId) {
+        return keyId >= 0 && keyId < keys.length && keys[keyId] != null;
+    }
+
+    public SecretKeySpec getActiveKey() {
+        return keys[activeKeyId];
+    }
+
+    public int getActiveKeyId() {
+        return activeKeyId;
+    }
+
+    public List<Integer> getKeyIds() {
+        return keyIds;
+    }
+}
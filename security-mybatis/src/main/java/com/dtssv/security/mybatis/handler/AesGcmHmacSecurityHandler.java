@@ -0,0 +1,410 @@
+package com.dtssv.security.mybatis.handler;
+
+import com.dtssv.security.mybatis.envelope.CiphertextEnvelope;
+import com.dtssv.security.mybatis.envelope.EnvelopeAlgorithm;
+import com.dtssv.security.mybatis.envelope.SecurityKeyring;
+import com.google.common.base.Strings;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * 内置加密处理器 AES-GCM加解密 HMAC-SHA256计算查询索引
+ * 密文为Base64(iv(12字节) + 密文 + tag(16字节)) 索引为Base64(HMAC-SHA256)
+ * 二进制模式(binaryMode)下不做Base64 直接读写原始字节 密文和索引长度减少约1/4
+ * 密钥在初始化时生成SecretKeySpec Cipher Mac SecureRandom按线程复用 不会每次调用getInstance
+ * 配置:
+ * handleClass=com.dtssv.security.mybatis.handler.AesGcmHmacSecurityHandler
+ * aesKey=Base64编码的16/24/32字节密钥
+ * hmacKey=Base64编码的索引密钥 建议32字节 不能与aesKey相同
+ * 配置aesKeys时使用密文信封(CiphertextEnvelope) 密文头部记录密钥编号 解密时直接取对应密钥 用于密钥轮换:
+ * aesKeys=1:Base64密钥,2:Base64密钥
+ * activeKeyId=2 加密使用的密钥编号 默认为最大的编号
+ * 信封格式与不带信封的密文不兼容 已有数据需要重新加密后才能切换到aesKeys 索引密钥hmacKey不参与轮换
+ * @author dtssv
+ * @date 2020/12/30 10:00
+ **/
+public class AesGcmHmacSecurityHandler implements BaseSecurityHandler {
+    /**
+     * 加密算法
+     */
+    private static final String CIPHER_ALGORITHM = "AES/GCM/NoPadding";
+    /**
+     * 索引算法
+     */
+    private static final String MAC_ALGORITHM = "HmacSHA256";
+    /**
+     * iv长度
+     */
+    private static final int IV_LENGTH = 12;
+    /**
+     * tag长度 位
+     */
+    private static final int TAG_BITS = 128;
+    /**
+     * 加密密钥 不使用信封时有效
+     */
+    private SecretKeySpec aesKey;
+    /**
+     * 密钥环 不为null时密文使用信封格式
+     */
+    private SecurityKeyring keyring;
+    /**
+     * 索引密钥
+     */
+    private SecretKeySpec hmacKey;
+    /**
+     * 每个线程的Cipher和Mac
+     */
+    private final ThreadLocal<CryptoContext> context = ThreadLocal.withInitial(this::newContext);
+
+    /**
+     * 通过setProperties配置密钥
+     */
+    public AesGcmHmacSecurityHandler() {
+    }
+
+    /**
+     *
+     */
+    public AesGcmHmacSecurityHandler(byte[] aesKey, byte[] hmacKey) {
+        setKeys(aesKey, hmacKey);
+    }
+
+    /**
+     * 使用密文信封
+     * @param aesKeys 密钥编号到密钥的映射
+     * @param activeKeyId 加密使用的密钥编号
+     * @param hmacKey 索引密钥
+     */
+    public AesGcmHmacSecurityHandler(Map<Integer, byte[]> aesKeys, int activeKeyId, byte[] hmacKey) {
+        setKeyring(aesKeys, activeKeyId, hmacKey);
+    }
+
+    @Override
+    public void setProperties(Properties properties) {
+        String aesKey = properties.getProperty("aesKey");
+        String aesKeys = properties.getProperty("aesKeys");
+        String hmacKey = properties.getProperty("hmacKey");
+        if ((Strings.isNullOrEmpty(aesKey) && Strings.isNullOrEmpty(aesKeys)) || Strings.isNullOrEmpty(hmacKey)) {
+            throw new IllegalArgumentException("security aesKey(or aesKeys) and hmacKey required");
+        }
+        if (Strings.isNullOrEmpty(aesKeys)) {
+            setKeys(Base64.getDecoder().decode(aesKey.trim()), Base64.getDecoder().decode(hmacKey.trim()));
+            return;
+        }
+        Map<Integer, byte[]> keys = SecurityKeyring.parseKeys(aesKeys);
+        if (keys.isEmpty()) {
+            throw new IllegalArgumentException("security aesKeys is empty");
+        }
+        String activeKeyId = properties.getProperty("activeKeyId");
+        int active = Strings.isNullOrEmpty(activeKeyId) ? Collections.max(keys.keySet()) : Integer.parseInt(activeKeyId.trim());
+        setKeyring(keys, active, Base64.getDecoder().decode(hmacKey.trim()));
+    }
+
+    /**
+     * 密文使用的密钥编号 不使用信封或不是信封格式时返回-1
+     * 只读取头部 可用于判断数据是否已经使用当前密钥加密
+     * @author dtssv
+     * @date 2021/1/4 11:00
+     * @param ciphertext 字符串模式下为Base64密文 二进制模式下为byte[]
+     * @return int
+     **/
+    public int keyIdOf(Object ciphertext) {
+        if (keyring == null || ciphertext == null) {
+            return -1;
+        }
+        if (ciphertext instanceof byte[]) {
+            return CiphertextEnvelope.peekKeyId((byte[]) ciphertext);
+        }
+        try {
+            return CiphertextEnvelope.peekKeyId(Base64.getDecoder().decode(ciphertext.toString()));
+        } catch (IllegalArgumentException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * 加密使用的密钥编号 不使用信封时返回-1
+     */
+    public int getActiveKeyId() {
+        return keyring == null ? -1 : keyring.getActiveKeyId();
+    }
+
+    @Override
+    public String encrypt(Object parameter) {
+        if (parameter == null) {
+            return null;
+        }
+        return encrypt(context.get(), parameter);
+    }
+
+    @Override
+    public String decrypt(Object parameter) {
+        if (parameter == null) {
+            return null;
+        }
+        return decrypt(context.get(), parameter);
+    }
+
+    @Override
+    public String index(Object parameter) {
+        if (parameter == null) {
+            return null;
+        }
+        return index(context.get(), parameter);
+    }
+
+    @Override
+    public List<String> encryptAll(List<?> parameters) {
+        CryptoContext cryptoContext = context.get();
+        List<String> result = new ArrayList<>(parameters.size());
+        for (Object parameter : parameters) {
+            result.add(parameter == null ? null : encrypt(cryptoContext, parameter));
+        }
+        return result;
+    }
+
+    @Override
+    public List<String> decryptAll(List<?> parameters) {
+        CryptoContext cryptoContext = context.get();
+        List<String> result = new ArrayList<>(parameters.size());
+        for (Object parameter : parameters) {
+            result.add(parameter == null ? null : decrypt(cryptoContext, parameter));
+        }
+        return result;
+    }
+
+    @Override
+    public List<String> indexAll(List<?> parameters) {
+        CryptoContext cryptoContext = context.get();
+        List<String> result = new ArrayList<>(parameters.size());
+        for (Object parameter : parameters) {
+            result.add(parameter == null ? null : index(cryptoContext, parameter));
+        }
+        return result;
+    }
+
+    @Override
+    public byte[] encryptBytes(Object parameter) {
+        return parameter == null ? null : encryptRaw(context.get(), parameter);
+    }
+
+    @Override
+    public String decryptBytes(byte[] data) {
+        return data == null ? null : decryptRaw(context.get(), data);
+    }
+
+    @Override
+    public byte[] indexBytes(Object parameter) {
+        return parameter == null ? null : indexRaw(context.get(), parameter);
+    }
+
+    @Override
+    public List<byte[]> encryptAllBytes(List<?> parameters) {
+        CryptoContext cryptoContext = context.get();
+        List<byte[]> result = new ArrayList<>(parameters.size());
+        for (Object parameter : parameters) {
+            result.add(parameter == null ? null : encryptRaw(cryptoContext, parameter));
+        }
+        return result;
+    }
+
+    @Override
+    public List<String> decryptAllBytes(List<byte[]> parameters) {
+        CryptoContext cryptoContext = context.get();
+        List<String> result = new ArrayList<>(parameters.size());
+        for (byte[] parameter : parameters) {
+            result.add(parameter == null ? null : decryptRaw(cryptoContext, parameter));
+        }
+        return result;
+    }
+
+    @Override
+    public List<byte[]> indexAllBytes(List<?> parameters) {
+        CryptoContext cryptoContext = context.get();
+        List<byte[]> result = new ArrayList<>(parameters.size());
+        for (Object parameter : parameters) {
+            result.add(parameter == null ? null : indexRaw(cryptoContext, parameter));
+        }
+        return result;
+    }
+
+    /**
+     * 加密 Base64编码
+     */
+    private String encrypt(CryptoContext cryptoContext, Object parameter) {
+        return Base64.getEncoder().encodeToString(encryptRaw(cryptoContext, parameter));
+    }
+
+    /**
+     * 解密 Base64编码的密文
+     */
+    private String decrypt(CryptoContext cryptoContext, Object parameter) {
+        return decryptRaw(cryptoContext, Base64.getDecoder().decode(parameter.toString()));
+    }
+
+    /**
+     * 计算索引 Base64编码
+     */
+    private String index(CryptoContext cryptoContext, Object parameter) {
+        return Base64.getEncoder().encodeToString(indexRaw(cryptoContext, parameter));
+    }
+
+    /**
+     * 加密 iv和密文写入同一个数组
+     */
+    private byte[] encryptRaw(CryptoContext cryptoContext, Object parameter) {
+        byte[] plain = parameter.toString().getBytes(StandardCharsets.UTF_8);
+        try {
+            Cipher cipher = cryptoContext.cipher;
+            byte[] iv = cryptoContext.iv;
+            cryptoContext.random.nextBytes(iv);
+            if (keyring != null) {
+                return encryptEnvelope(cipher, iv, plain);
+            }
+            cipher.init(Cipher.ENCRYPT_MODE, aesKey, new GCMParameterSpec(TAG_BITS, iv));
+            byte[] result = new byte[IV_LENGTH + cipher.getOutputSize(plain.length)];
+            System.arraycopy(iv, 0, result, 0, IV_LENGTH);
+            cipher.doFinal(plain, 0, plain.length, result, IV_LENGTH);
+            return result;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("security encrypt error", e);
+        }
+    }
+
+    /**
+     * 解密 iv(12字节) + 密文 + tag
+     */
+    private String decryptRaw(CryptoContext cryptoContext, byte[] data) {
+        if (keyring != null) {
+            return decryptEnvelope(cryptoContext.cipher, data);
+        }
+        if (data.length < IV_LENGTH + TAG_BITS / 8) {
+            throw new IllegalArgumentException("security decrypt error,ciphertext too short");
+        }
+        try {
+            Cipher cipher = cryptoContext.cipher;
+            cipher.init(Cipher.DECRYPT_MODE, aesKey, new GCMParameterSpec(TAG_BITS, data, 0, IV_LENGTH));
+            byte[] plain = cipher.doFinal(data, IV_LENGTH, data.length - IV_LENGTH);
+            return new String(plain, StandardCharsets.UTF_8);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("security decrypt error", e);
+        }
+    }
+
+    /**
+     * 加密为信封格式 头部作为附加数据参与认证 整个信封只分配一次数组
+     */
+    private byte[] encryptEnvelope(Cipher cipher, byte[] iv, byte[] plain) throws GeneralSecurityException {
+        cipher.init(Cipher.ENCRYPT_MODE, keyring.getActiveKey(), new GCMParameterSpec(TAG_BITS, iv));
+        byte[] result = new byte[CiphertextEnvelope.length(EnvelopeAlgorithm.AES_GCM, cipher.getOutputSize(plain.length))];
+        int offset = CiphertextEnvelope.writeHeader(result, 0, keyring.getActiveKeyId(), EnvelopeAlgorithm.AES_GCM, iv);
+        cipher.updateAAD(result, 0, CiphertextEnvelope.HEADER_LENGTH);
+        cipher.doFinal(plain, 0, plain.length, result, offset);
+        return result;
+    }
+
+    /**
+     * 解密信封 根据头部的密钥编号取密钥 iv和密文按偏移量直接传给Cipher
+     */
+    private String decryptEnvelope(Cipher cipher, byte[] data) {
+        CiphertextEnvelope envelope = CiphertextEnvelope.parse(data);
+        if (envelope.getAlgorithm() != EnvelopeAlgorithm.AES_GCM) {
+            throw new IllegalArgumentException("security decrypt error,unsupported algorithm:" + envelope.getAlgorithm());
+        }
+        try {
+            cipher.init(Cipher.DECRYPT_MODE, keyring.get(envelope.getKeyId()),
+                    new GCMParameterSpec(TAG_BITS, data, envelope.getIvOffset(), IV_LENGTH));
+            cipher.updateAAD(data, envelope.getHeaderOffset(), CiphertextEnvelope.HEADER_LENGTH);
+            byte[] plain = cipher.doFinal(data, envelope.getPayloadOffset(), envelope.getPayloadLength());
+            return new String(plain, StandardCharsets.UTF_8);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("security decrypt error,keyId:" + envelope.getKeyId(), e);
+        }
+    }
+
+    /**
+     * 计算索引 doFinal后Mac自动重置 可以直接复用
+     */
+    private byte[] indexRaw(CryptoContext cryptoContext, Object parameter) {
+        return cryptoContext.mac.doFinal(parameter.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * 设置密钥
+     */
+    private void setKeys(byte[] aesKey, byte[] hmacKey) {
+        checkAesKey(aesKey);
+        checkHmacKey(hmacKey);
+        this.aesKey = new SecretKeySpec(aesKey, "AES");
+        this.hmacKey = new SecretKeySpec(hmacKey, MAC_ALGORITHM);
+    }
+
+    /**
+     * 设置密钥环
+     */
+    private void setKeyring(Map<Integer, byte[]> aesKeys, int activeKeyId, byte[] hmacKey) {
+        for (byte[] key : aesKeys.values()) {
+            checkAesKey(key);
+        }
+        checkHmacKey(hmacKey);
+        this.keyring = new SecurityKeyring(aesKeys, activeKeyId, "AES");
+        this.hmacKey = new SecretKeySpec(hmacKey, MAC_ALGORITHM);
+    }
+
+    private static void checkAesKey(byte[] aesKey) {
+        if (aesKey.length != 16 && aesKey.length != 24 && aesKey.length != 32) {
+            throw new IllegalArgumentException("security aesKey must be 16, 24 or 32 bytes");
+        }
+    }
+
+    private static void checkHmacKey(byte[] hmacKey) {
+        if (hmacKey.length < 16) {
+            throw new IllegalArgumentException("security hmacKey must be at least 16 bytes");
+        }
+    }
+
+    /**
+     * 创建当前线程使用的Cipher和Mac
+     */
+    private CryptoContext newContext() {
+        if ((aesKey == null && keyring == null) || hmacKey == null) {
+            throw new IllegalStateException("security aesKey and hmacKey not configured");
+        }
+        try {
+            Mac mac = Mac.getInstance(MAC_ALGORITHM);
+            mac.init(hmacKey);
+            return new CryptoContext(Cipher.getInstance(CIPHER_ALGORITHM), mac, new SecureRandom());
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("security init cipher error", e);
+        }
+    }
+
+    /**
+     * 线程内复用的对象
+     */
+    private static final class CryptoContext {
+        private final Cipher cipher;
+        private final Mac mac;
+        private final SecureRandom random;
+        private final byte[] iv = new byte[IV_LENGTH];
+
+        private CryptoContext(Cipher cipher, Mac mac, SecureRandom random) {
+            this.cipher = cipher;
+            this.mac = mac;
+            this.random = random;
+        }
+    }
+}
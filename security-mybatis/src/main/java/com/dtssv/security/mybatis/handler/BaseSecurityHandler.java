@@ -1,9 +1,15 @@
 package com.dtssv.security.mybatis.handler;
 
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Properties;
 
 /**
  * 加密处理器BaseSecurityHandler
+ * 同一个实例会被所有执行sql的线程共享 实现必须是线程安全的
+ * 开启并行解密(parallelDecryptThreshold)时 同一次查询的decrypt/decryptAll也会在多个线程中同时调用
+ * 每次调用只会收到同一查询结果中互不重叠的一部分值 实现不能依赖调用顺序或调用线程
  * @date
  * @author dtssv
  */
@@ -29,6 +35,123 @@ public interface BaseSecurityHandler {
      * @return
      */
     String index(Object parameter);
+
+    /**
+     * 批量加密 同一列的多个值一次调用 默认逐个调用encrypt
+     * 实现类可以在这里复用密钥和cipher或合并远程调用
+     * @author dtssv
+     * @date 2020/12/16 10:05
+     * @param parameters
+     * @return java.util.List<java.lang.String> 与参数一一对应
+     **/
+    default List<String> encryptAll(List<?> parameters) {
+        List<String> result = new ArrayList<>(parameters.size());
+        for (Object parameter : parameters) {
+            result.add(encrypt(parameter));
+        }
+        return result;
+    }
+
+    /**
+     * 批量解密 默认逐个调用decrypt
+     * @author dtssv
+     * @date 2020/12/16 10:06
+     * @param parameters
+     * @return java.util.List<java.lang.String> 与参数一一对应
+     **/
+    default List<String> decryptAll(List<?> parameters) {
+        List<String> result = new ArrayList<>(parameters.size());
+        for (Object parameter : parameters) {
+            result.add(decrypt(parameter));
+        }
+        return result;
+    }
+
+    /**
+     * 批量计算查询索引 默认逐个调用index
+     * @author dtssv
+     * @date 2020/12/16 10:07
+     * @param parameters
+     * @return java.util.List<java.lang.String> 与参数一一对应
+     **/
+    default List<String> indexAll(List<?> parameters) {
+        List<String> result = new ArrayList<>(parameters.size());
+        for (Object parameter : parameters) {
+            result.add(index(parameter));
+        }
+        return result;
+    }
+
+    /**
+     * 二进制模式(binaryMode)下加密 返回写入VARBINARY列的原始密文
+     * 默认为encrypt结果的UTF-8字节 没有减少存储 实现类应直接返回密文字节而不做Base64
+     * @author dtssv
+     * @date 2020/12/31 10:10
+     * @param parameter
+     * @return byte[]
+     **/
+    default byte[] encryptBytes(Object parameter) {
+        String encrypt = encrypt(parameter);
+        return encrypt == null ? null : encrypt.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 二进制模式下解密 与encryptBytes对应
+     * @author dtssv
+     * @date 2020/12/31 10:11
+     * @param data 从VARBINARY列读取的密文
+     * @return java.lang.String
+     **/
+    default String decryptBytes(byte[] data) {
+        return data == null ? null : decrypt(new String(data, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * 二进制模式下计算查询索引 默认为index结果的UTF-8字节
+     * 同一个值每次必须返回相同的字节
+     * @author dtssv
+     * @date 2020/12/31 10:12
+     * @param parameter
+     * @return byte[]
+     **/
+    default byte[] indexBytes(Object parameter) {
+        String index = index(parameter);
+        return index == null ? null : index.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 二进制模式下批量加密 默认逐个调用encryptBytes
+     */
+    default List<byte[]> encryptAllBytes(List<?> parameters) {
+        List<byte[]> result = new ArrayList<>(parameters.size());
+        for (Object parameter : parameters) {
+            result.add(encryptBytes(parameter));
+        }
+        return result;
+    }
+
+    /**
+     * 二进制模式下批量解密 默认逐个调用decryptBytes
+     */
+    default List<String> decryptAllBytes(List<byte[]> parameters) {
+        List<String> result = new ArrayList<>(parameters.size());
+        for (byte[] parameter : parameters) {
+            result.add(decryptBytes(parameter));
+        }
+        return result;
+    }
+
+    /**
+     * 二进制模式下批量计算查询索引 默认逐个调用indexBytes
+     */
+    default List<byte[]> indexAllBytes(List<?> parameters) {
+        List<byte[]> result = new ArrayList<>(parameters.size());
+        for (Object parameter : parameters) {
+            result.add(indexBytes(parameter));
+        }
+        return result;
+    }
+
     /**
      * 设置属性
      * @author dtssv
@@ -0,0 +1,58 @@
+package com.dtssv.security.mybatis.handler;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 二进制模式下的字节转换
+ * 密文和索引在缓存中以ISO-8859-1字符串保存 每个字符对应一个字节 可以无损还原
+ * @author dtssv
+ * @date 2020/12/31 10:00
+ **/
+public final class SecurityBytes {
+    /**
+     * 十六进制字符
+     */
+    private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+
+    private SecurityBytes() {
+    }
+
+    /**
+     * 字节转为一一对应的字符串
+     */
+    public static String toLatin1(byte[] bytes) {
+        return bytes == null ? null : new String(bytes, StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * toLatin1的逆操作
+     */
+    public static byte[] fromLatin1(String value) {
+        return value == null ? null : value.getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * 查询结果中的密文 二进制列为byte[] 其他为字符串
+     */
+    public static String cipherKey(Object value) {
+        return value instanceof byte[] ? toLatin1((byte[]) value) : value.toString();
+    }
+
+    /**
+     * sql中的二进制常量 X'0A1B'
+     */
+    public static String hexLiteral(byte[] bytes) {
+        if (bytes == null) {
+            return "NULL";
+        }
+        char[] chars = new char[bytes.length * 2 + 3];
+        chars[0] = 'X';
+        chars[1] = '\'';
+        for (int i = 0; i < bytes.length; i++) {
+            chars[2 + i * 2] = HEX[(bytes[i] >> 4) & 0xF];
+            chars[3 + i * 2] = HEX[bytes[i] & 0xF];
+        }
+        chars[chars.length - 1] = '\'';
+        return new String(chars);
+    }
+}
@@ -1,35 +1,70 @@
 package com.dtssv.security.mybatis.interceptor;
 
+import com.dtssv.security.mybatis.cache.SecurityValueCache;
 import com.dtssv.security.mybatis.config.SecurityColumnConfig;
 import com.dtssv.security.mybatis.config.SecurityInterceptorConfig;
+import com.dtssv.security.mybatis.config.StatementIdMatcher;
 import com.dtssv.security.mybatis.handler.BaseSecurityHandler;
-import com.dtssv.security.mybatis.sqlprocessor.*;
+import com.dtssv.security.mybatis.metrics.InMemoryMetricsSink;
+import com.dtssv.security.mybatis.metrics.SecurityCounter;
+import com.dtssv.security.mybatis.metrics.SecurityMetrics;
+import com.dtssv.security.mybatis.metrics.SecurityMetricsSink;
+import com.dtssv.security.mybatis.metrics.SecurityStage;
+import com.dtssv.security.mybatis.plan.PlanSnapshot;
+import com.dtssv.security.mybatis.plan.PlanSnapshotCodec;
+import com.dtssv.security.mybatis.plan.PlanStore;
+import com.dtssv.security.mybatis.plan.PlanTemplate;
+import com.dtssv.security.mybatis.plan.SqlShape;
+import com.dtssv.security.mybatis.plan.RewrittenSqlSource;
+import com.dtssv.security.mybatis.plan.SqlRewritePlan;
+import com.dtssv.security.mybatis.plan.SqlRewritePlanCache;
+import com.dtssv.security.mybatis.plan.SqlRewritePlanCompiler;
+import com.dtssv.security.mybatis.plan.TableNameMatcher;
+import com.dtssv.security.mybatis.reflection.ProxyTargetResolver;
+import com.dtssv.security.mybatis.reflection.StatementHandlerAccessor;
+import com.dtssv.security.mybatis.result.BinaryResultColumns;
+import com.dtssv.security.mybatis.result.DecryptingCursor;
+import com.dtssv.security.mybatis.result.DecryptingResultHandler;
+import com.dtssv.security.mybatis.result.ResultDecryptor;
+import com.dtssv.security.mybatis.trace.RewriteTrace;
+import com.dtssv.security.mybatis.trace.RewriteTraceBuffer;
 import com.dtssv.security.util.CommonConstance;
 import com.dtssv.security.util.JacksonUtil;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.google.common.base.Strings;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import lombok.Data;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.ibatis.builder.StaticSqlSource;
+import org.apache.ibatis.cursor.Cursor;
 import org.apache.ibatis.executor.parameter.ParameterHandler;
+import org.apache.ibatis.executor.statement.BaseStatementHandler;
 import org.apache.ibatis.executor.statement.StatementHandler;
+import org.apache.ibatis.io.Resources;
 import org.apache.ibatis.mapping.BoundSql;
 import org.apache.ibatis.mapping.MappedStatement;
 import org.apache.ibatis.mapping.ParameterMapping;
+import org.apache.ibatis.mapping.SqlCommandType;
+import org.apache.ibatis.mapping.SqlSource;
 import org.apache.ibatis.plugin.*;
-import org.apache.ibatis.reflection.MetaObject;
-import org.apache.ibatis.reflection.SystemMetaObject;
+import org.apache.ibatis.scripting.defaults.RawSqlSource;
 import org.apache.ibatis.session.Configuration;
 import org.apache.ibatis.session.ResultHandler;
-import org.springframework.util.ClassUtils;
 import org.springframework.util.CollectionUtils;
 
-import java.lang.reflect.Field;
-import java.lang.reflect.Proxy;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.file.Paths;
 import java.sql.Connection;
 import java.sql.Statement;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 /**
  * @author dtssv
@@ -44,6 +79,7 @@ import java.util.*;
 @Intercepts({
         @Signature(type = StatementHandler.class, method = "prepare", args = {Connection.class,Integer.class})
         , @Signature(type = StatementHandler.class, method = "query", args = {Statement.class,ResultHandler.class})
+        , @Signature(type = StatementHandler.class, method = "queryCursor", args = {Statement.class})
 })
 public class SecurityInterceptor implements Interceptor {
 
@@ -52,68 +88,71 @@ public class SecurityInterceptor implements Interceptor {
      */
     private Map<String, Map<String, SecurityColumnConfig>> tableColumnMap = Maps.newHashMap();
 
-    /**
-     * 用于辅助进行反射的字段缓存
-     */
-    private Field additionalParametersField;
     /**
      * 加密拦截器配置
      */
     private SecurityInterceptorConfig securityInterceptorConfig;
-
-
     /**
-     * columnPropertyMapThreadLocal
+     * 改写计划编译器
      */
-    private ThreadLocal<Map> columnPropertyMapThreadLocal = new ThreadLocal<Map>();
+    private SqlRewritePlanCompiler sqlRewritePlanCompiler;
     /**
-     *
+     * 改写计划缓存
      */
-    public SecurityInterceptor() {
-        try {
-            //反射获取 BoundSql 中的 additionalParameters 属性
-            additionalParametersField = BoundSql.class.getDeclaredField("additionalParameters");
-            additionalParametersField.setAccessible(true);
-        } catch (NoSuchFieldException e) {
-            throw new RuntimeException(e.getMessage());
-        }
-    }
+    private SqlRewritePlanCache sqlRewritePlanCache;
     /**
-     * 
-     * @author dtssv
-     * @date 2020/12/9 17:14
-     * @param target 
-     * @return java.lang.Object
-     **/
-    private Object getSuperTarget(Object target){
-        if(Proxy.isProxyClass(target.getClass())){
-            try {
-                Field field = target.getClass().getSuperclass().getDeclaredField("h");
-                field.setAccessible(true);
-                //获取指定对象中此字段的值
-                Object invocationProxy = field.get(target); //获取Proxy对象中的此字段的值
-                Field invocation = invocationProxy.getClass().getDeclaredField("target");
-                invocation.setAccessible(true);
-                return getSuperTarget(invocation.get(invocationProxy));
-            } catch (Exception e) {
-               return target;
-            }
-        }else if(ClassUtils.isCglibProxy(target)){
-            try {
-                Field h = target.getClass().getDeclaredField("CGLIB$CALLBACK_0");
-                h.setAccessible(true);
-                Object invocationProxy = h.get(target);
-                Field advised = invocationProxy.getClass().getDeclaredField("advised");
-                advised.setAccessible(true);
-                return getSuperTarget(advised.get(invocationProxy));
-            } catch (NoSuchFieldException e) {
-                e.printStackTrace();
-            } catch (IllegalAccessException e) {
-                e.printStackTrace();
-            }
-        }
-        return target;
-    }
+     * 表名预过滤器
+     */
+    private TableNameMatcher tableNameMatcher;
+    /**
+     * mappedStatement id匹配器
+     */
+    private StatementIdMatcher statementIdMatcher;
+    /**
+     * 查询结果解密
+     */
+    private ResultDecryptor resultDecryptor;
+    /**
+     * 查询索引缓存 未开启时为空
+     */
+    private SecurityValueCache indexCache;
+    /**
+     * 指标 未开启时为SecurityMetrics.DISABLED
+     */
+    private SecurityMetrics securityMetrics = SecurityMetrics.DISABLED;
+    /**
+     * 内置的指标统计 未开启时为空
+     */
+    private InMemoryMetricsSink inMemoryMetricsSink;
+    /**
+     * 最近的改写记录 未开启时为空
+     */
+    private RewriteTraceBuffer rewriteTraceBuffer;
+    /**
+     * 确定不需要处理的静态sql的mappedStatement id
+     */
+    private Set<String> bypassStatementIds = Collections.newSetFromMap(new ConcurrentHashMap<>());
+    /**
+     * 已经替换过静态sqlSource的configuration 重新配置时按新的配置重新替换或还原
+     */
+    private Set<Configuration> decoratedConfigurations = Collections.newSetFromMap(new ConcurrentHashMap<>());
+    /**
+     * 二进制模式下查询结果中的加密列 按getBytes读取
+     */
+    private final BinaryResultColumns binaryResultColumns = new BinaryResultColumns();
+    /**
+     * 本地计划文件 未配置planStoreFile时为空
+     */
+    private volatile PlanStore planStore;
+    /**
+     * 定时保存本地计划文件
+     */
+    private ScheduledExecutorService planStoreExecutor;
+    /**
+     * 进程退出时保存本地计划文件
+     */
+    private Thread planStoreShutdownHook;
+
     /**
      * 
      * @author dtssv
@@ -123,142 +162,464 @@ public class SecurityInterceptor implements Interceptor {
      **/
     @Override
     public Object intercept(Invocation invocation) throws Throwable {
+        boolean prepare = CommonConstance.PREPARE.equals(invocation.getMethod().getName());
+        String id = null;
+        SqlCommandType sqlCommandType = null;
+        // 改写或包装后已经执行了语句 出错时不能再按原sql执行一次
+        boolean proceeded = false;
         try {
             // 如果没有需要处理的字段 那么直接执行
             if (tableColumnMap == null || tableColumnMap.isEmpty()) {
                 return invocation.proceed();
             }
-            StatementHandler statementHandler;
-            Object target = invocation.getTarget();
-            target = getSuperTarget(target);
-            if(target != null && target instanceof StatementHandler){
-                statementHandler = (StatementHandler) target;
-            }else{
+            BoundSql currentBoundSql = ((StatementHandler) invocation.getTarget()).getBoundSql();
+            // RewrittenSqlSource生成的boundSql已经改写 prepare时不再处理
+            if (prepare && currentBoundSql.hasAdditionalParameter(SqlRewritePlan.PLAN_PARAMETER)) {
+                SqlRewritePlan plan = (SqlRewritePlan) currentBoundSql.getAdditionalParameter(SqlRewritePlan.PLAN_PARAMETER);
+                securityMetrics.increment(plan.getStatementId(), plan.getSqlCommandType(), SecurityCounter.REWRITTEN);
+                proceeded = true;
+                return invocation.proceed();
+            }
+            // 字面上不可能涉及加密表的sql 直接执行
+            if (!tableNameMatcher.matches(currentBoundSql.getSql())) {
+                if (prepare) {
+                    securityMetrics.increment(null, null, SecurityCounter.BYPASSED);
+                }
+                return invocation.proceed();
+            }
+            Object target = ProxyTargetResolver.resolve(invocation.getTarget());
+            if(!(target instanceof StatementHandler)){
                 return invocation.proceed();
             }
-            MetaObject metaObject = SystemMetaObject.forObject(statementHandler);
             /*
              先拦截到RoutingStatementHandler，里面有个StatementHandler类型的delegate变量，
              其实现类是BaseStatementHandler，然后就到BaseStatementHandler的成员变量mappedStatement
              */
-            // 获取ms对象
-            Object mappedStatement = metaObject.getValue("delegate.mappedStatement");
-            MappedStatement ms;
-            if(mappedStatement != null && mappedStatement instanceof MappedStatement) {
-                ms = (MappedStatement) mappedStatement;
-            }else{
+            BaseStatementHandler statementHandler = StatementHandlerAccessor.getDelegate((StatementHandler) target);
+            if(statementHandler == null){
                 return invocation.proceed();
             }
-            List<String> mappedStatementIdPrefix = securityInterceptorConfig.getMappedStatementIdPrefix();
-            String id = ms.getId();
-            // 判断是否是需要处理的mapper
-            boolean needProcess = false;
-            for (String statementIdPrefix : mappedStatementIdPrefix) {
-                if (id.startsWith(statementIdPrefix)) {
-                    needProcess = true;
-                    break;
-                }
+            // 获取ms对象
+            MappedStatement ms = StatementHandlerAccessor.getMappedStatement(statementHandler);
+            if(ms == null){
+                return invocation.proceed();
             }
+            id = ms.getId();
+            sqlCommandType = ms.getSqlCommandType();
             // 如果不是需要处理的mapper
-            if (!needProcess) {
+            if (bypassStatementIds.contains(id) || !statementIdMatcher.matches(id)) {
+                if (prepare) {
+                    securityMetrics.increment(id, sqlCommandType, SecurityCounter.BYPASSED);
+                }
                 return invocation.proceed();
             }
-            Object config = metaObject.getValue("delegate.configuration");
-            Configuration configuration;
-            if(config != null && config instanceof Configuration) {
-                configuration = (Configuration) config;
-            }else {
+            Configuration configuration = StatementHandlerAccessor.getConfiguration(statementHandler);
+            if(configuration == null){
                 return invocation.proceed();
             }
+            if (securityInterceptorConfig.isDecorateStaticSqlSource() && !decoratedConfigurations.contains(configuration)) {
+                decorate(configuration);
+            }
             // 如果是预处理方法 进行sql处理
-            if (CommonConstance.PREPARE.equals(invocation.getMethod().getName())) {
+            if (prepare) {
                 BoundSql boundSql = statementHandler.getBoundSql();
-                BaseSqlProcessor baseSqlProcessor = null;
-                switch (ms.getSqlCommandType()) {
-                    case INSERT:
-                        baseSqlProcessor = new InsertBaseSqlProcessor(boundSql.getSql(), ms);
-                        break;
-                    case UPDATE:
-                        baseSqlProcessor = new UpdateBaseSqlProcessor(boundSql.getSql(), ms);
-                        break;
-                    case SELECT:
-                        baseSqlProcessor = new SelectBaseSqlProcessor(boundSql.getSql(), ms);
-                        break;
-                    case DELETE:
-                        baseSqlProcessor = new DeleteBaseSqlProcessor(boundSql.getSql(), ms);
-                    default:
-                        break;
-                }
-                baseSqlProcessor.setBaseSecurityHandler(securityInterceptorConfig.getSecurityHandler());
-                baseSqlProcessor.setOverwriteSourceByTarget(securityInterceptorConfig.isOverwriteSourceByTarget());
-                baseSqlProcessor.setWriteSource(securityInterceptorConfig.isWriteSource());
-                if (baseSqlProcessor == null) {
-                    return invocation.proceed();
+                String sql = boundSql.getSql();
+                SqlRewritePlan plan = sqlRewritePlanCache.get(id, sql);
+                SecurityCounter planSource = SecurityCounter.PLAN_CACHE_HIT;
+                // foreach生成的sql按形状使用模板 不同的元素个数不再分别解析和缓存
+                SqlShape shape = plan == null ? templateShape(ms, sql, boundSql.getParameterMappings()) : null;
+                if (shape != null) {
+                    Optional<PlanTemplate> template = sqlRewritePlanCache.getTemplate(id, shape.getKey());
+                    planSource = template == null ? SecurityCounter.PLAN_CACHE_MISS : SecurityCounter.PLAN_TEMPLATE_HIT;
+                    if (template == null) {
+                        template = deriveTemplate(ms, shape, boundSql.getParameterMappings());
+                    }
+                    plan = template.map(planTemplate -> planTemplate.instantiate(sql, shape.getCount())).orElse(null);
                 }
-                // 获取到本次sql涉及的表
-                List<String> tablesNames = baseSqlProcessor.getTablesNames();
-                // 获取到需要处理的表
-                Set<String> needProcessTables = tableColumnMap.keySet();
-
-                Map<String, SecurityColumnConfig> sourceTargetMap = Maps.newHashMap();
-                needProcess = false;
-                for (String tablesName : tablesNames) {
-                    if (needProcessTables.contains(tablesName)) {
-                        needProcess = true;
-                        sourceTargetMap.putAll(tableColumnMap.get(tablesName));
+                if (plan == null) {
+                    plan = storedPlan(id, sql);
+                    planSource = plan == null ? SecurityCounter.PLAN_CACHE_MISS : SecurityCounter.PLAN_STORE_HIT;
+                    if (plan == null) {
+                        plan = sqlRewritePlanCompiler.compile(ms, sql, boundSql.getParameterMappings());
                     }
+                    sqlRewritePlanCache.put(plan);
                 }
-                if (!needProcess) {
+                securityMetrics.increment(id, sqlCommandType, planSource);
+                boolean planCacheHit = planSource != SecurityCounter.PLAN_CACHE_MISS;
+                if (!plan.isRewritten()) {
+                    // 静态sql每次执行都相同 记录下来 后续直接跳过 改写失败的计划不可缓存 下次仍重新改写
+                    if (plan.isCacheable()
+                            && (ms.getSqlSource() instanceof RawSqlSource || ms.getSqlSource() instanceof StaticSqlSource)) {
+                        bypassStatementIds.add(id);
+                    }
+                    securityMetrics.increment(id, sqlCommandType, SecurityCounter.BYPASSED);
                     return invocation.proceed();
                 }
 
                 // 创建一个新的boundsql来进行处理 防止处理后影响其他的逻辑
-                Map<String, Object> additionalParameters = (Map<String, Object>) additionalParametersField.get(boundSql);
-                List<ParameterMapping> newParameterMappings = Lists.newArrayList();
-                newParameterMappings.addAll(boundSql.getParameterMappings());
-                BoundSql newBoundSql = new BoundSql(ms.getConfiguration(), boundSql.getSql(), newParameterMappings, boundSql.getParameterObject());
-                for (String key : additionalParameters.keySet()) {
-                    newBoundSql.setAdditionalParameter(key, additionalParameters.get(key));
+                Map<String, Object> additionalParameters = StatementHandlerAccessor.getAdditionalParameters(boundSql);
+                RewriteTraceBuffer traceBuffer = rewriteTraceBuffer;
+                long applyStart = traceBuffer != null ? System.nanoTime() : 0L;
+                BoundSql newBoundSql = plan.apply(ms.getConfiguration(), boundSql, additionalParameters,
+                        securityInterceptorConfig.getSecurityHandler(), indexCache,
+                        securityInterceptorConfig.isIndexCachePreload(), securityMetrics);
+                if (traceBuffer != null) {
+                    traceBuffer.record(new RewriteTrace(System.currentTimeMillis(), plan, planCacheHit,
+                            System.nanoTime() - applyStart));
                 }
-                baseSqlProcessor.process(newBoundSql, sourceTargetMap);
-                if (baseSqlProcessor instanceof SelectBaseSqlProcessor) {
-                    columnPropertyMapThreadLocal.set(((SelectBaseSqlProcessor) baseSqlProcessor).getColumnPropertyMap());
+                // 查询结果需要解密时 计划随新的boundSql传给同一个StatementHandler的query 不依赖线程
+                if (ms.getSqlCommandType() == SqlCommandType.SELECT && !plan.getColumnPropertyMap().isEmpty()) {
+                    newBoundSql.setAdditionalParameter(SqlRewritePlan.PLAN_PARAMETER, plan);
                 }
                 ParameterHandler parameterHandler = configuration.newParameterHandler(ms, boundSql.getParameterObject(), newBoundSql);
-                metaObject.setValue("delegate.boundSql", newBoundSql);
-                metaObject.setValue("delegate.parameterHandler", parameterHandler);
+                StatementHandlerAccessor.setBoundSql(statementHandler, newBoundSql);
+                StatementHandlerAccessor.setParameterHandler(statementHandler, parameterHandler);
+                securityMetrics.increment(id, sqlCommandType, SecurityCounter.REWRITTEN);
 
+                // 二进制模式 查询结果中的加密列按二进制读取
+                if (plan.isBinaryMode() && !plan.getResultColumnLabels().isEmpty()) {
+                    binaryResultColumns.register(configuration, ms, plan.getResultColumnLabels());
+                }
+                proceeded = true;
                 return invocation.proceed();
 
             } else {
-                // 如果是查询操作 进行数据的解密映射
-                Object result = invocation.proceed();
-                Map<String, String> columnPropertyMap = columnPropertyMapThreadLocal.get();
-                if(columnPropertyMap == null){
-                    columnPropertyMap = Maps.newHashMap();
-                    columnPropertyMapThreadLocal.set(columnPropertyMap);
+                // prepare阶段改写后的boundSql 没有计划说明不需要解密
+                BoundSql boundSql = statementHandler.getBoundSql();
+                if (boundSql == null || !boundSql.hasAdditionalParameter(SqlRewritePlan.PLAN_PARAMETER)) {
+                    return invocation.proceed();
                 }
-                if (columnPropertyMap != null && columnPropertyMap.size() > 0 && result instanceof List) {
-                    List resultArr = (List) result;
-                    Collection<String> properties = columnPropertyMap.values();
-                    for (Object o : resultArr) {
-                        MetaObject mo = configuration.newMetaObject(o);
-                        for (String pro : properties) {
-                            String property = mo.findProperty(pro, configuration.isMapUnderscoreToCamelCase());
-                            Object value = mo.getValue(property);
-                            if (value != null) {
-                                String decrypt = securityInterceptorConfig.getSecurityHandler().decrypt(value.toString());
-                                mo.setValue(property, decrypt);
-                            }
-                        }
+                SqlRewritePlan plan = (SqlRewritePlan) boundSql.getAdditionalParameter(SqlRewritePlan.PLAN_PARAMETER);
+                Map<String, String> columnPropertyMap = plan.getColumnPropertyMap();
+                if (columnPropertyMap.isEmpty()) {
+                    return invocation.proceed();
+                }
+                // 游标查询 遍历时逐行解密
+                if (CommonConstance.QUERY_CURSOR.equals(invocation.getMethod().getName())) {
+                    proceeded = true;
+                    Object result = invocation.proceed();
+                    if (result instanceof Cursor) {
+                        return new DecryptingCursor<>((Cursor<?>) result, resultDecryptor, configuration,
+                                columnPropertyMap, plan.getUncachedColumns(), id, securityMetrics);
                     }
+                    return result;
+                }
+                // 自定义ResultHandler 每行交给ResultHandler前解密
+                Object resultHandler = invocation.getArgs()[1];
+                if (resultHandler instanceof ResultHandler) {
+                    StatementHandlerAccessor.setResultHandler(statementHandler, new DecryptingResultHandler<>(
+                            (ResultHandler<?>) resultHandler, resultDecryptor, configuration,
+                            columnPropertyMap, plan.getUncachedColumns(), id, securityMetrics));
+                }
+                // 如果是查询操作 进行数据的解密映射
+                proceeded = true;
+                Object result = invocation.proceed();
+                if (result instanceof List) {
+                    long start = securityMetrics.start();
+                    resultDecryptor.decrypt(configuration, (List<?>) result, columnPropertyMap, plan.getUncachedColumns());
+                    securityMetrics.recordStage(id, sqlCommandType, SecurityStage.DECRYPT, start);
                 }
                 return result;
             }
         }catch (Exception e){
+            // 已经执行过的语句再次执行会重复查询 已交给ResultHandler的行会重复处理 直接抛出
+            if (proceeded) {
+                throw e;
+            }
+            // 改写失败 按原sql执行
+            securityMetrics.increment(id, sqlCommandType, SecurityCounter.FAILURE);
             return invocation.proceed();
         }
     }
+    /**
+     * 把configuration中所有可以改写的静态sql的SqlSource替换为RewrittenSqlSource
+     * 开启decorateStaticSqlSource时在首次执行时自动调用 也可以在SqlSessionFactory创建后手动调用
+     * 只替换匹配mappedStatementIdPrefix 涉及加密表 改写后有参数且可以缓存的语句 其他语句仍在prepare时改写
+     * @author dtssv
+     * @date 2021/1/7 10:20
+     * @param configuration
+     * @return int 替换的数量
+     **/
+    public synchronized int decorate(Configuration configuration) {
+        if (!decoratedConfigurations.add(configuration)) {
+            return 0;
+        }
+        int count = 0;
+        try {
+            for (MappedStatement ms : mappedStatements(configuration)) {
+                if (decorate(configuration, ms)) {
+                    count++;
+                }
+            }
+        } catch (Exception e) {
+            log.warn("security decorate sqlSource error,statements not decorated will be rewritten on prepare", e);
+        }
+        log.info("security decorated {} static sqlSource", count);
+        return count;
+    }
+
+    /**
+     * 把configuration中的RewrittenSqlSource还原为原SqlSource 关闭decorateStaticSqlSource后重新配置时调用
+     * @author dtssv
+     * @date 2021/1/14 14:00
+     * @param configuration
+     * @return int 还原的数量
+     **/
+    public synchronized int undecorate(Configuration configuration) {
+        decoratedConfigurations.remove(configuration);
+        int count = 0;
+        for (MappedStatement ms : mappedStatements(configuration)) {
+            if (ms.getSqlSource() instanceof RewrittenSqlSource) {
+                StatementHandlerAccessor.setSqlSource(ms, ((RewrittenSqlSource) ms.getSqlSource()).getDelegate());
+                count++;
+            }
+        }
+        log.info("security restored {} static sqlSource", count);
+        return count;
+    }
+
+    /**
+     * 编译configuration中所有静态sql的改写计划 生成快照 构建时由maven插件调用
+     * 只包含匹配mappedStatementIdPrefix 涉及加密表且可以缓存的计划
+     * @author dtssv
+     * @date 2021/1/8 11:00
+     * @param configuration
+     * @return com.dtssv.security.mybatis.plan.PlanSnapshot
+     **/
+    public PlanSnapshot snapshot(Configuration configuration) {
+        List<SqlRewritePlan> plans = new ArrayList<>();
+        for (MappedStatement ms : mappedStatements(configuration)) {
+            SqlRewritePlan plan = compileStatic(ms, ms.getSqlSource());
+            if (plan != null && plan.isCacheable()) {
+                plans.add(plan);
+            }
+        }
+        plans.sort(Comparator.comparing(SqlRewritePlan::getStatementId));
+        PlanSnapshot snapshot = new PlanSnapshot();
+        snapshot.setFingerprint(PlanSnapshot.fingerprint(securityInterceptorConfig));
+        snapshot.setCreatedAt(System.currentTimeMillis());
+        snapshot.setPlans(plans);
+        return snapshot;
+    }
+
+    /**
+     * 把快照中的计划放入计划缓存 格式版本或配置指纹不一致时忽略
+     * @author dtssv
+     * @date 2021/1/8 11:10
+     * @param snapshot
+     * @return int 加载的计划数量
+     **/
+    public int loadPlanSnapshot(PlanSnapshot snapshot) {
+        if (snapshot.getVersion() != PlanSnapshot.FORMAT_VERSION) {
+            log.warn("security plan snapshot version {} not supported,ignore", snapshot.getVersion());
+            return 0;
+        }
+        String fingerprint = PlanSnapshot.fingerprint(securityInterceptorConfig);
+        if (!fingerprint.equals(snapshot.getFingerprint())) {
+            log.warn("security plan snapshot fingerprint {} not match current config {},ignore",
+                    snapshot.getFingerprint(), fingerprint);
+            return 0;
+        }
+        for (SqlRewritePlan plan : snapshot.getPlans()) {
+            sqlRewritePlanCache.put(plan);
+        }
+        return snapshot.getPlans().size();
+    }
+
+    /**
+     * 从classpath加载快照 资源不存在时跳过 读取失败不影响启动
+     */
+    private void loadPlanSnapshot(String resource) {
+        URL url;
+        try {
+            url = Resources.getResourceURL(resource);
+        } catch (IOException e) {
+            log.debug("security plan snapshot {} not found", resource);
+            return;
+        }
+        try (InputStream in = url.openStream()) {
+            int count = loadPlanSnapshot(PlanSnapshotCodec.read(in));
+            log.info("security loaded {} rewrite plans from {}", count, url);
+        } catch (Exception | LinkageError e) {
+            // 需要jackson-dataformat-smile/jackson-dataformat-cbor
+            log.warn("security load plan snapshot {} error,ignore", url, e);
+        }
+    }
+
+    /**
+     * configuration中的mappedStatement 短id和完整id对应同一个mappedStatement 短id冲突时值不是mappedStatement
+     */
+    private Collection<MappedStatement> mappedStatements(Configuration configuration) {
+        Set<MappedStatement> statements = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (Object value : configuration.getMappedStatements()) {
+            if (value instanceof MappedStatement) {
+                statements.add((MappedStatement) value);
+            }
+        }
+        return statements;
+    }
+
+    /**
+     * 替换一个mappedStatement的SqlSource
+     */
+    private boolean decorate(Configuration configuration, MappedStatement ms) {
+        SqlSource sqlSource = ms.getSqlSource();
+        // 重新配置后按新的配置重新替换
+        if (sqlSource instanceof RewrittenSqlSource) {
+            sqlSource = ((RewrittenSqlSource) sqlSource).getDelegate();
+        }
+        SqlRewritePlan plan = compileStatic(ms, sqlSource);
+        // 改写后没有参数时MappedStatement.getBoundSql会重新创建boundSql 丢失改写计划 仍在prepare时处理
+        if (plan == null || !plan.isRewritten() || !plan.isCacheable() || plan.getParameterSlots().isEmpty()) {
+            // 按新的配置不再需要替换 还原为原SqlSource
+            if (sqlSource != ms.getSqlSource()) {
+                StatementHandlerAccessor.setSqlSource(ms, sqlSource);
+            }
+            return false;
+        }
+        if (plan.isBinaryMode() && !plan.getResultColumnLabels().isEmpty()) {
+            binaryResultColumns.register(configuration, ms, plan.getResultColumnLabels());
+        }
+        StatementHandlerAccessor.setSqlSource(ms, new RewrittenSqlSource(sqlSource, plan, configuration,
+                securityInterceptorConfig.getSecurityHandler(), indexCache,
+                securityInterceptorConfig.isIndexCachePreload(), securityMetrics));
+        return true;
+    }
+
+    /**
+     * 获取静态sql的改写计划 优先使用计划缓存 不是静态sql 不匹配mappedStatementIdPrefix或不涉及加密表时返回null
+     */
+    private SqlRewritePlan compileStatic(MappedStatement ms, SqlSource sqlSource) {
+        if (!(sqlSource instanceof RawSqlSource || sqlSource instanceof StaticSqlSource)
+                || !statementIdMatcher.matches(ms.getId())) {
+            return null;
+        }
+        BoundSql boundSql = sqlSource.getBoundSql(null);
+        if (!tableNameMatcher.matches(boundSql.getSql())) {
+            return null;
+        }
+        SqlRewritePlan plan = sqlRewritePlanCache.get(ms.getId(), boundSql.getSql());
+        if (plan == null) {
+            plan = storedPlan(ms.getId(), boundSql.getSql());
+            if (plan == null) {
+                plan = sqlRewritePlanCompiler.compile(ms, boundSql.getSql(), boundSql.getParameterMappings());
+            }
+            sqlRewritePlanCache.put(plan);
+        }
+        return plan;
+    }
+
+    /**
+     * 可以使用模板的形状 只处理动态sql 关闭planTemplateEnabled 没有唯一的重复结构或参数个数不一致时返回null
+     */
+    private SqlShape templateShape(MappedStatement ms, String sql, List<ParameterMapping> parameterMappings) {
+        if (!securityInterceptorConfig.isPlanTemplateEnabled()
+                || ms.getSqlSource() instanceof RawSqlSource || ms.getSqlSource() instanceof StaticSqlSource) {
+            return null;
+        }
+        SqlShape shape = SqlShape.of(sql);
+        return shape != null && shape.matches(parameterMappings.size()) ? shape : null;
+    }
+
+    /**
+     * 编译重复1 2 3次的计划生成模板并缓存 这三个计划按普通计划缓存 重启后可以从本地计划文件中获取
+     * 无法生成模板时缓存Optional.empty() 该形状之后按sql分别缓存
+     */
+    private Optional<PlanTemplate> deriveTemplate(MappedStatement ms, SqlShape shape,
+                                                  List<ParameterMapping> parameterMappings) {
+        SqlRewritePlan[] plans = new SqlRewritePlan[3];
+        for (int i = 0; i < plans.length; i++) {
+            String sql = shape.sql(i + 1);
+            SqlRewritePlan plan = sqlRewritePlanCache.get(ms.getId(), sql);
+            if (plan == null) {
+                plan = storedPlan(ms.getId(), sql);
+            }
+            if (plan == null) {
+                plan = sqlRewritePlanCompiler.compile(ms, sql, shape.parameterMappings(parameterMappings, i + 1));
+            }
+            sqlRewritePlanCache.put(plan);
+            plans[i] = plan;
+        }
+        Optional<PlanTemplate> template = Optional.ofNullable(PlanTemplate.derive(plans[0], plans[1], plans[2],
+                shape.getParametersBefore(), shape.getParametersPerItem()));
+        if (!template.isPresent()) {
+            log.debug("security [{}] plan template not available,cache by sql", ms.getId());
+        }
+        sqlRewritePlanCache.putTemplate(ms.getId(), shape.getKey(), template);
+        return template;
+    }
+
+    /**
+     * 从本地计划文件中查找计划 未配置时返回null
+     */
+    private SqlRewritePlan storedPlan(String statementId, String sql) {
+        PlanStore store = planStore;
+        return store == null ? null : store.get(statementId, sql);
+    }
+
+    /**
+     * 把当前缓存的计划保存到本地计划文件 配置planStoreFile后进程退出时自动调用
+     * @author dtssv
+     * @date 2021/1/11 11:00
+     * @return int 保存的数量 未配置或保存失败时返回0
+     **/
+    public int savePlanStore() {
+        SecurityInterceptorConfig config = this.securityInterceptorConfig;
+        if (config == null || Strings.isNullOrEmpty(config.getPlanStoreFile())) {
+            return 0;
+        }
+        try {
+            int count = PlanStore.save(Paths.get(config.getPlanStoreFile()), PlanSnapshot.fingerprint(config),
+                    sqlRewritePlanCache.plans());
+            log.debug("security saved {} rewrite plans to {}", count, config.getPlanStoreFile());
+            return count;
+        } catch (Exception e) {
+            log.warn("security save plan store {} error", config.getPlanStoreFile(), e);
+            return 0;
+        }
+    }
+
+    /**
+     * 打开本地计划文件 并按配置定时保存和在进程退出时保存
+     */
+    private void startPlanStore(SecurityInterceptorConfig securityInterceptorConfig) {
+        if (Strings.isNullOrEmpty(securityInterceptorConfig.getPlanStoreFile())) {
+            return;
+        }
+        PlanStore store = PlanStore.open(Paths.get(securityInterceptorConfig.getPlanStoreFile()),
+                PlanSnapshot.fingerprint(securityInterceptorConfig));
+        log.info("security opened plan store {} with {} rewrite plans", securityInterceptorConfig.getPlanStoreFile(),
+                store.size());
+        this.planStore = store;
+        long interval = securityInterceptorConfig.getPlanStoreSaveIntervalSeconds();
+        if (interval > 0) {
+            this.planStoreExecutor = Executors.newSingleThreadScheduledExecutor(
+                    new ThreadFactoryBuilder().setNameFormat("security-plan-store-%d").setDaemon(true).build());
+            this.planStoreExecutor.scheduleWithFixedDelay(this::savePlanStore, interval, interval, TimeUnit.SECONDS);
+        }
+        this.planStoreShutdownHook = new Thread(this::savePlanStore, "security-plan-store-shutdown");
+        Runtime.getRuntime().addShutdownHook(planStoreShutdownHook);
+    }
+
+    /**
+     * 重新配置时停止之前的定时保存 不再使用之前的文件
+     */
+    private void stopPlanStore() {
+        this.planStore = null;
+        if (this.planStoreExecutor != null) {
+            this.planStoreExecutor.shutdownNow();
+            this.planStoreExecutor = null;
+        }
+        if (this.planStoreShutdownHook != null) {
+            try {
+                Runtime.getRuntime().removeShutdownHook(planStoreShutdownHook);
+            } catch (IllegalStateException e) {
+                // 进程正在退出
+            }
+            this.planStoreShutdownHook = null;
+        }
+    }
+
     @Override
     public Object plugin(Object target) {
         if(securityInterceptorConfig.isEnable()) {
@@ -274,6 +635,149 @@ public class SecurityInterceptor implements Interceptor {
         if(securityInterceptorConfig == null){
             securityInterceptorConfig = new SecurityInterceptorConfig();
         }
+        try {
+            String planCacheSize = properties.getProperty("planCacheSize");
+            if(!Strings.isNullOrEmpty(planCacheSize)){
+                securityInterceptorConfig.setPlanCacheSize(Long.parseLong(planCacheSize));
+            }
+        } catch (Exception e) {
+            log.error("security[planCacheSize] error,use default value");
+        }
+        try {
+            String parallelDecryptThreshold = properties.getProperty("parallelDecryptThreshold");
+            if(!Strings.isNullOrEmpty(parallelDecryptThreshold)){
+                securityInterceptorConfig.setParallelDecryptThreshold(Integer.parseInt(parallelDecryptThreshold));
+            }
+        } catch (Exception e) {
+            log.error("security[parallelDecryptThreshold] error,use default value");
+        }
+        try {
+            String parallelDecryptParallelism = properties.getProperty("parallelDecryptParallelism");
+            if(!Strings.isNullOrEmpty(parallelDecryptParallelism)){
+                securityInterceptorConfig.setParallelDecryptParallelism(Integer.parseInt(parallelDecryptParallelism));
+            }
+        } catch (Exception e) {
+            log.error("security[parallelDecryptParallelism] error,use default value");
+        }
+        try {
+            String decryptCacheSize = properties.getProperty("decryptCacheSize");
+            if(!Strings.isNullOrEmpty(decryptCacheSize)){
+                securityInterceptorConfig.setDecryptCacheSize(Long.parseLong(decryptCacheSize));
+            }
+        } catch (Exception e) {
+            log.error("security[decryptCacheSize] error,use default value");
+        }
+        try {
+            String decryptCacheExpireSeconds = properties.getProperty("decryptCacheExpireSeconds");
+            if(!Strings.isNullOrEmpty(decryptCacheExpireSeconds)){
+                securityInterceptorConfig.setDecryptCacheExpireSeconds(Long.parseLong(decryptCacheExpireSeconds));
+            }
+        } catch (Exception e) {
+            log.error("security[decryptCacheExpireSeconds] error,use default value");
+        }
+        try {
+            String cacheAdmissionFrequency = properties.getProperty("cacheAdmissionFrequency");
+            if(!Strings.isNullOrEmpty(cacheAdmissionFrequency)){
+                securityInterceptorConfig.setCacheAdmissionFrequency(Integer.parseInt(cacheAdmissionFrequency));
+            }
+        } catch (Exception e) {
+            log.error("security[cacheAdmissionFrequency] error,use default value");
+        }
+        try {
+            String indexCacheSize = properties.getProperty("indexCacheSize");
+            if(!Strings.isNullOrEmpty(indexCacheSize)){
+                securityInterceptorConfig.setIndexCacheSize(Long.parseLong(indexCacheSize));
+            }
+        } catch (Exception e) {
+            log.error("security[indexCacheSize] error,use default value");
+        }
+        try {
+            String indexCacheExpireSeconds = properties.getProperty("indexCacheExpireSeconds");
+            if(!Strings.isNullOrEmpty(indexCacheExpireSeconds)){
+                securityInterceptorConfig.setIndexCacheExpireSeconds(Long.parseLong(indexCacheExpireSeconds));
+            }
+        } catch (Exception e) {
+            log.error("security[indexCacheExpireSeconds] error,use default value");
+        }
+        try {
+            String indexCachePreload = properties.getProperty("indexCachePreload");
+            if(!Strings.isNullOrEmpty(indexCachePreload)){
+                securityInterceptorConfig.setIndexCachePreload(Boolean.parseBoolean(indexCachePreload));
+            }
+        } catch (Exception e) {
+            log.error("security[indexCachePreload] error,use default value");
+        }
+        try {
+            String metricsEnabled = properties.getProperty("metricsEnabled");
+            if(!Strings.isNullOrEmpty(metricsEnabled)){
+                securityInterceptorConfig.setMetricsEnabled(Boolean.parseBoolean(metricsEnabled));
+            }
+        } catch (Exception e) {
+            log.error("security[metricsEnabled] error,use default value");
+        }
+        String metricsJmxName = properties.getProperty("metricsJmxName");
+        if(!Strings.isNullOrEmpty(metricsJmxName)){
+            securityInterceptorConfig.setMetricsJmxName(metricsJmxName);
+        }
+        try {
+            String metricsSinkClass = properties.getProperty("metricsSinkClass");
+            if(!Strings.isNullOrEmpty(metricsSinkClass)){
+                for (String sinkClass : metricsSinkClass.split(",")) {
+                    Object sink = Class.forName(sinkClass.trim()).newInstance();
+                    securityInterceptorConfig.getMetricsSinks().add((SecurityMetricsSink) sink);
+                }
+            }
+        } catch (Exception e) {
+            log.error("security[metricsSinkClass] error,use default value");
+        }
+        try {
+            String traceBufferSize = properties.getProperty("traceBufferSize");
+            if(!Strings.isNullOrEmpty(traceBufferSize)){
+                securityInterceptorConfig.setTraceBufferSize(Integer.parseInt(traceBufferSize));
+            }
+        } catch (Exception e) {
+            log.error("security[traceBufferSize] error,use default value");
+        }
+        String planStoreFile = properties.getProperty("planStoreFile");
+        if(!Strings.isNullOrEmpty(planStoreFile)){
+            securityInterceptorConfig.setPlanStoreFile(planStoreFile.trim());
+        }
+        try {
+            String planStoreSaveIntervalSeconds = properties.getProperty("planStoreSaveIntervalSeconds");
+            if(!Strings.isNullOrEmpty(planStoreSaveIntervalSeconds)){
+                securityInterceptorConfig.setPlanStoreSaveIntervalSeconds(Long.parseLong(planStoreSaveIntervalSeconds));
+            }
+        } catch (Exception e) {
+            log.error("security[planStoreSaveIntervalSeconds] error,use default value");
+        }
+        String planSnapshotResource = properties.getProperty("planSnapshotResource");
+        if(planSnapshotResource != null){
+            securityInterceptorConfig.setPlanSnapshotResource(planSnapshotResource.trim());
+        }
+        try {
+            String planTemplateEnabled = properties.getProperty("planTemplateEnabled");
+            if(!Strings.isNullOrEmpty(planTemplateEnabled)){
+                securityInterceptorConfig.setPlanTemplateEnabled(Boolean.parseBoolean(planTemplateEnabled));
+            }
+        } catch (Exception e) {
+            log.error("security[planTemplateEnabled] error,use default value");
+        }
+        try {
+            String decorateStaticSqlSource = properties.getProperty("decorateStaticSqlSource");
+            if(!Strings.isNullOrEmpty(decorateStaticSqlSource)){
+                securityInterceptorConfig.setDecorateStaticSqlSource(Boolean.parseBoolean(decorateStaticSqlSource));
+            }
+        } catch (Exception e) {
+            log.error("security[decorateStaticSqlSource] error,use default value");
+        }
+        try {
+            String binaryMode = properties.getProperty("binaryMode");
+            if(!Strings.isNullOrEmpty(binaryMode)){
+                securityInterceptorConfig.setBinaryMode(Boolean.parseBoolean(binaryMode));
+            }
+        } catch (Exception e) {
+            log.error("security[binaryMode] error,use default value");
+        }
         try {
             String enable = properties.getProperty("enable");
             if(!Strings.isNullOrEmpty(enable)){
@@ -318,6 +822,12 @@ public class SecurityInterceptor implements Interceptor {
             securityInterceptorConfig.getMappedStatementIdPrefix().removeAll(mappedStatementIds);
             securityInterceptorConfig.getMappedStatementIdPrefix().addAll(mappedStatementIds);
         }
+        String mappedStatementIdExclude = properties.getProperty("mappedStatementIdExclude");
+        if(!Strings.isNullOrEmpty(mappedStatementIdExclude)){
+            List<String> mappedStatementIds = JacksonUtil.toJavaObject(mappedStatementIdExclude, new TypeReference<List<String>>() {});
+            securityInterceptorConfig.getMappedStatementIdExclude().removeAll(mappedStatementIds);
+            securityInterceptorConfig.getMappedStatementIdExclude().addAll(mappedStatementIds);
+        }
         String securityColumnConfig = properties.getProperty("securityColumnConfig");
         if(!Strings.isNullOrEmpty(securityColumnConfig)){
             List<SecurityColumnConfig> securityColumnConfigList = JacksonUtil.parseObject(securityColumnConfig, new TypeReference<List<SecurityColumnConfig>>() {});
@@ -338,6 +848,7 @@ public class SecurityInterceptor implements Interceptor {
      * @return void
      **/
     public void setSecurityInterceptorConfig(SecurityInterceptorConfig securityInterceptorConfig) {
+        stopPlanStore();
         this.securityInterceptorConfig = securityInterceptorConfig;
         List<SecurityColumnConfig> securityColumnConfigs = securityInterceptorConfig.getSecurityColumnConfig();
         for (SecurityColumnConfig securityColumnConfig : securityColumnConfigs) {
@@ -349,5 +860,69 @@ public class SecurityInterceptor implements Interceptor {
             }
             tempMap.put(securityColumnConfig.getSourceColumn(),securityColumnConfig);
         }
+        this.statementIdMatcher = new StatementIdMatcher(securityInterceptorConfig.getMappedStatementIdPrefix(),
+                securityInterceptorConfig.getMappedStatementIdExclude());
+        this.tableNameMatcher = new TableNameMatcher(tableColumnMap.keySet());
+        this.indexCache = null;
+        if (securityInterceptorConfig.getIndexCacheSize() > 0) {
+            this.indexCache = new SecurityValueCache(securityInterceptorConfig.getIndexCacheSize(),
+                    securityInterceptorConfig.getIndexCacheExpireSeconds(),
+                    securityInterceptorConfig.getCacheAdmissionFrequency());
+        }
+        if (this.inMemoryMetricsSink != null) {
+            this.inMemoryMetricsSink.unregisterMBean();
+            this.inMemoryMetricsSink = null;
+        }
+        List<SecurityMetricsSink> metricsSinks = Lists.newArrayList(securityInterceptorConfig.getMetricsSinks());
+        if (securityInterceptorConfig.isMetricsEnabled()) {
+            this.inMemoryMetricsSink = new InMemoryMetricsSink();
+            this.inMemoryMetricsSink.registerMBean(securityInterceptorConfig.getMetricsJmxName());
+            metricsSinks.add(inMemoryMetricsSink);
+        }
+        this.securityMetrics = metricsSinks.isEmpty() ? SecurityMetrics.DISABLED : new SecurityMetrics(metricsSinks);
+        if (this.rewriteTraceBuffer != null) {
+            this.rewriteTraceBuffer.unregisterMBean();
+            this.rewriteTraceBuffer = null;
+        }
+        if (securityInterceptorConfig.getTraceBufferSize() > 0) {
+            RewriteTraceBuffer traceBuffer = new RewriteTraceBuffer(securityInterceptorConfig.getTraceBufferSize());
+            traceBuffer.registerMBean(securityInterceptorConfig.getMetricsJmxName());
+            this.rewriteTraceBuffer = traceBuffer;
+        }
+        this.sqlRewritePlanCompiler = new SqlRewritePlanCompiler(tableColumnMap, securityInterceptorConfig,
+                tableNameMatcher, indexCache, securityMetrics);
+        this.bypassStatementIds.clear();
+        List<Configuration> decorated = new ArrayList<>(this.decoratedConfigurations);
+        this.decoratedConfigurations.clear();
+        this.binaryResultColumns.clear();
+        this.sqlRewritePlanCache = new SqlRewritePlanCache(securityInterceptorConfig.getPlanCacheSize());
+        if (!Strings.isNullOrEmpty(securityInterceptorConfig.getPlanSnapshotResource())) {
+            loadPlanSnapshot(securityInterceptorConfig.getPlanSnapshotResource());
+        }
+        startPlanStore(securityInterceptorConfig);
+        SecurityValueCache decryptCache = null;
+        if (securityInterceptorConfig.getDecryptCacheSize() > 0) {
+            decryptCache = new SecurityValueCache(securityInterceptorConfig.getDecryptCacheSize(),
+                    securityInterceptorConfig.getDecryptCacheExpireSeconds(),
+                    securityInterceptorConfig.getCacheAdmissionFrequency());
+        }
+        ResultDecryptor previousDecryptor = this.resultDecryptor;
+        this.resultDecryptor = new ResultDecryptor(securityInterceptorConfig.getSecurityHandler(),
+                securityInterceptorConfig.getParallelDecryptThreshold(),
+                securityInterceptorConfig.getParallelDecryptParallelism(),
+                securityInterceptorConfig.getDecryptExecutor(), decryptCache,
+                securityInterceptorConfig.isBinaryMode());
+        // 旧的ResultDecryptor按需创建的线程池不再使用
+        if (previousDecryptor != null) {
+            previousDecryptor.shutdown();
+        }
+        // 已经替换的SqlSource使用旧的配置和计划 按新的配置重新替换 关闭decorateStaticSqlSource时还原
+        for (Configuration configuration : decorated) {
+            if (securityInterceptorConfig.isDecorateStaticSqlSource()) {
+                decorate(configuration);
+            } else {
+                undecorate(configuration);
+            }
+        }
     }
 }
@@ -0,0 +1,29 @@
+package com.dtssv.security.mybatis.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * 批量加密/计算索引/解密事件 一次事件对应同一列的一次批量调用 包括缓存查询
+ * @author dtssv
+ * @date 2020/12/29 10:25
+ **/
+@Name("com.dtssv.security.CryptoBatch")
+@Label("Crypto Batch")
+@Description("Batched encrypt, index or decrypt call for one column")
+@Category({"Security", "MyBatis"})
+@StackTrace(false)
+class CryptoBatchEvent extends jdk.jfr.Event {
+
+    @Label("Operation")
+    String operation;
+
+    @Label("Column")
+    String column;
+
+    @Label("Value Count")
+    int valueCount;
+}
@@ -0,0 +1,56 @@
+package com.dtssv.security.mybatis.jfr;
+
+import java.util.List;
+
+/**
+ * 基于jdk.jfr的实现 只在jdk.jfr.Event存在时加载
+ * 未录制时isEnabled为false 不调用begin 事件对象不会逃逸
+ * @author dtssv
+ * @date 2020/12/29 10:30
+ **/
+class JfrSecurityEventEmitter implements SecurityEventEmitter {
+
+    @Override
+    public Object beginRewrite() {
+        SqlRewriteEvent event = new SqlRewriteEvent();
+        if (!event.isEnabled()) {
+            return null;
+        }
+        event.begin();
+        return event;
+    }
+
+    @Override
+    public void commitRewrite(Object event, String statementId, List<String> tables, int rewrittenColumns) {
+        SqlRewriteEvent rewriteEvent = (SqlRewriteEvent) event;
+        rewriteEvent.end();
+        if (rewriteEvent.shouldCommit()) {
+            rewriteEvent.statementId = statementId;
+            rewriteEvent.tables = tables == null ? null : String.join(",", tables);
+            rewriteEvent.rewrittenColumns = rewrittenColumns;
+            rewriteEvent.commit();
+        }
+    }
+
+    @Override
+    public Object beginCrypto() {
+        CryptoBatchEvent event = new CryptoBatchEvent();
+        if (!event.isEnabled()) {
+            return null;
+        }
+        event.begin();
+        return event;
+    }
+
+    @Override
+    public void commitCrypto(Object event, String operation, String column, int valueCount) {
+        CryptoBatchEvent cryptoEvent = (CryptoBatchEvent) event;
+        cryptoEvent.end();
+        if (cryptoEvent.shouldCommit()) {
+            cryptoEvent.operation = operation;
+            cryptoEvent.column = column;
+            cryptoEvent.valueCount = valueCount;
+            cryptoEvent.commit();
+        }
+    }
+}
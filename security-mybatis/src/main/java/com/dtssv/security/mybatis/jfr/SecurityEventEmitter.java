@@ -0,0 +1,31 @@
+package com.dtssv.security.mybatis.jfr;
+
+import java.util.List;
+
+/**
+ * JFR事件的输出 隔离对jdk.jfr的引用 没有JFR的JVM上使用空实现
+ * @author dtssv
+ * @date 2020/12/29 10:10
+ **/
+interface SecurityEventEmitter {
+
+    /**
+     * 开始sql改写事件 未录制时返回null
+     */
+    Object beginRewrite();
+
+    /**
+     * 提交sql改写事件
+     */
+    void commitRewrite(Object event, String statementId, List<String> tables, int rewrittenColumns);
+
+    /**
+     * 开始批量加解密事件 未录制时返回null
+     */
+    Object beginCrypto();
+
+    /**
+     * 提交批量加解密事件
+     */
+    void commitCrypto(Object event, String operation, String column, int valueCount);
+}
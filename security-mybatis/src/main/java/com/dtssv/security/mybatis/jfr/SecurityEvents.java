@@ -0,0 +1,126 @@
+package com.dtssv.security.mybatis.jfr;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.List;
+
+/**
+ * JFR事件入口
+ * 运行时存在jdk.jfr.Event时输出事件 否则为空实现 不会加载任何jdk.jfr的类
+ * 用法:
+ * Object event = SecurityEvents.beginRewrite();
+ * ...
+ * if (event != null) { SecurityEvents.commitRewrite(event, ...); }
+ * 未录制时begin返回null 只有一次判断的开销
+ * @author dtssv
+ * @date 2020/12/29 10:00
+ **/
+@Slf4j
+public final class SecurityEvents {
+    /**
+     * 加密操作
+     */
+    public static final String ENCRYPT = "ENCRYPT";
+    /**
+     * 计算索引操作
+     */
+    public static final String INDEX = "INDEX";
+    /**
+     * 解密操作
+     */
+    public static final String DECRYPT = "DECRYPT";
+    /**
+     * 事件输出
+     */
+    private static final SecurityEventEmitter EMITTER = createEmitter();
+
+    private SecurityEvents() {
+    }
+
+    /**
+     * 当前JVM是否支持JFR事件
+     */
+    public static boolean isAvailable() {
+        return !(EMITTER instanceof NoopSecurityEventEmitter);
+    }
+
+    /**
+     * 开始sql改写事件 未录制时返回null
+     */
+    public static Object beginRewrite() {
+        return EMITTER.beginRewrite();
+    }
+
+    /**
+     * 提交sql改写事件
+     * @author dtssv
+     * @date 2020/12/29 10:40
+     * @param event beginRewrite的返回值 不能为null
+     * @param statementId mappedStatement id
+     * @param tables 涉及的表
+     * @param rewrittenColumns 改写的加密列数量
+     * @return void
+     **/
+    public static void commitRewrite(Object event, String statementId, List<String> tables, int rewrittenColumns) {
+        EMITTER.commitRewrite(event, statementId, tables, rewrittenColumns);
+    }
+
+    /**
+     * 开始批量加解密事件 未录制时返回null
+     */
+    public static Object beginCrypto() {
+        return EMITTER.beginCrypto();
+    }
+
+    /**
+     * 提交批量加解密事件
+     * @author dtssv
+     * @date 2020/12/29 10:45
+     * @param event beginCrypto的返回值 不能为null
+     * @param operation ENCRYPT/INDEX/DECRYPT
+     * @param column 源字段或属性
+     * @param valueCount 值的数量
+     * @return void
+     **/
+    public static void commitCrypto(Object event, String operation, String column, int valueCount) {
+        EMITTER.commitCrypto(event, operation, column, valueCount);
+    }
+
+    /**
+     * 存在jdk.jfr.Event时使用jfr实现
+     */
+    private static SecurityEventEmitter createEmitter() {
+        try {
+            Class.forName("jdk.jfr.Event", false, SecurityEvents.class.getClassLoader());
+            return (SecurityEventEmitter) Class.forName("com.dtssv.security.mybatis.jfr.JfrSecurityEventEmitter")
+                    .newInstance();
+        } catch (Throwable e) {
+            log.debug("security jfr events unavailable:{}", e.toString());
+            return new NoopSecurityEventEmitter();
+        }
+    }
+
+    /**
+     * 空实现
+     */
+    private static final class NoopSecurityEventEmitter implements SecurityEventEmitter {
+
+        @Override
+        public Object beginRewrite() {
+            return null;
+        }
+
+        @Override
+        public void commitRewrite(Object event, String statementId, List<String> tables, int rewrittenColumns) {
+        }
+
+        @Override
+        public Object beginCrypto() {
+            return null;
+        }
+
+        @Override
+        public void commitCrypto(Object event, String operation, String column, int valueCount) {
+        }
+    }
+}
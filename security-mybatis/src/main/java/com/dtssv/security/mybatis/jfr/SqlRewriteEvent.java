@@ -0,0 +1,29 @@
+package com.dtssv.security.mybatis.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * sql改写事件 持续时间为解析后改写sql的耗时
+ * @author dtssv
+ * @date 2020/12/29 10:20
+ **/
+@Name("com.dtssv.security.SqlRewrite")
+@Label("SQL Rewrite")
+@Description("Rewrite of a statement touching encrypted columns")
+@Category({"Security", "MyBatis"})
+@StackTrace(false)
+class SqlRewriteEvent extends jdk.jfr.Event {
+
+    @Label("Statement Id")
+    String statementId;
+
+    @Label("Tables")
+    String tables;
+
+    @Label("Rewritten Columns")
+    int rewrittenColumns;
+}
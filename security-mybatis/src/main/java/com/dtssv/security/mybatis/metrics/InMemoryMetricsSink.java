@@ -0,0 +1,194 @@
+package com.dtssv.security.mybatis.metrics;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.apache.ibatis.mapping.SqlCommandType;
+
+import javax.management.ObjectName;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 内存中汇总指标 按statementId和sqlCommandType分组 并可注册为jmx MBean
+ * @author dtssv
+ * @date 2020/12/28 11:10
+ **/
+public class InMemoryMetricsSink implements SecurityMetricsSink, SecurityMetricsMXBean {
+    /**
+     * statementId为null时使用的名称
+     */
+    private static final String UNKNOWN = "<unknown>";
+    /**
+     * 分隔符
+     */
+    private static final String SEPARATOR = "|";
+    /**
+     * 单条sql的指标
+     */
+    private final ConcurrentMap<String, StatementMetrics> statements = new ConcurrentHashMap<>();
+    /**
+     * 全部sql的指标
+     */
+    private final StatementMetrics total = new StatementMetrics();
+    /**
+     * 注册的jmx名称
+     */
+    private volatile ObjectName objectName;
+
+    @Override
+    public void recordStage(String statementId, SqlCommandType sqlCommandType, SecurityStage stage, long nanos) {
+        statementMetrics(statementId, sqlCommandType).stages[stage.ordinal()].record(nanos);
+        total.stages[stage.ordinal()].record(nanos);
+    }
+
+    @Override
+    public void increment(String statementId, SqlCommandType sqlCommandType, SecurityCounter counter) {
+        statementMetrics(statementId, sqlCommandType).counters[counter.ordinal()].increment();
+        total.counters[counter.ordinal()].increment();
+    }
+
+    /**
+     * 注册到platform MBeanServer 名称为com.dtssv.security:type=SecurityMetrics,name=${name}
+     * @author dtssv
+     * @date 2020/12/28 11:20
+     * @param name
+     * @return void
+     **/
+    public synchronized void registerMBean(String name) {
+        unregisterMBean();
+        objectName = SecurityMBeans.register("SecurityMetrics", name, this);
+    }
+
+    /**
+     * 从MBeanServer注销
+     */
+    public synchronized void unregisterMBean() {
+        SecurityMBeans.unregister(objectName);
+        objectName = null;
+    }
+
+    @Override
+    public Map<String, Long> getCounters() {
+        return total.counters();
+    }
+
+    @Override
+    public Map<String, Long> getStageCounts() {
+        Map<String, Long> result = Maps.newLinkedHashMap();
+        for (SecurityStage stage : SecurityStage.values()) {
+            result.put(stage.name(), total.stages[stage.ordinal()].count());
+        }
+        return result;
+    }
+
+    @Override
+    public Map<String, Double> getStageMeanMicros() {
+        Map<String, Double> result = Maps.newLinkedHashMap();
+        for (SecurityStage stage : SecurityStage.values()) {
+            result.put(stage.name(), total.stages[stage.ordinal()].mean() / 1000D);
+        }
+        return result;
+    }
+
+    @Override
+    public Map<String, Double> getStageP99Micros() {
+        Map<String, Double> result = Maps.newLinkedHashMap();
+        for (SecurityStage stage : SecurityStage.values()) {
+            result.put(stage.name(), total.stages[stage.ordinal()].percentile(99) / 1000D);
+        }
+        return result;
+    }
+
+    @Override
+    public Map<String, Double> getStageMaxMicros() {
+        Map<String, Double> result = Maps.newLinkedHashMap();
+        for (SecurityStage stage : SecurityStage.values()) {
+            result.put(stage.name(), total.stages[stage.ordinal()].max() / 1000D);
+        }
+        return result;
+    }
+
+    @Override
+    public List<String> getStatementKeys() {
+        List<String> keys = Lists.newArrayList(statements.keySet());
+        Collections.sort(keys);
+        return keys;
+    }
+
+    @Override
+    public Map<String, String> describe(String statementKey) {
+        Map<String, String> result = Maps.newLinkedHashMap();
+        StatementMetrics metrics = statements.get(statementKey);
+        if (metrics == null) {
+            return result;
+        }
+        for (Map.Entry<String, Long> entry : metrics.counters().entrySet()) {
+            result.put(entry.getKey(), String.valueOf(entry.getValue()));
+        }
+        for (SecurityStage stage : SecurityStage.values()) {
+            StageHistogram histogram = metrics.stages[stage.ordinal()];
+            if (histogram.count() == 0) {
+                continue;
+            }
+            result.put(stage.name(), String.format("count=%d,meanUs=%.2f,p99Us=%.2f,maxUs=%.2f",
+                    histogram.count(), histogram.mean() / 1000D, histogram.percentile(99) / 1000D, histogram.max() / 1000D));
+        }
+        return result;
+    }
+
+    @Override
+    public void reset() {
+        statements.clear();
+        total.reset();
+    }
+
+    /**
+     * 单条sql的指标
+     */
+    private StatementMetrics statementMetrics(String statementId, SqlCommandType sqlCommandType) {
+        String key = (statementId == null ? UNKNOWN : statementId) + SEPARATOR + (sqlCommandType == null ? SqlCommandType.UNKNOWN : sqlCommandType);
+        StatementMetrics metrics = statements.get(key);
+        if (metrics == null) {
+            metrics = statements.computeIfAbsent(key, k -> new StatementMetrics());
+        }
+        return metrics;
+    }
+
+    /**
+     * 一组计数和直方图
+     */
+    private static final class StatementMetrics {
+        private final LongAdder[] counters = new LongAdder[SecurityCounter.values().length];
+        private final StageHistogram[] stages = new StageHistogram[SecurityStage.values().length];
+
+        StatementMetrics() {
+            for (int i = 0; i < counters.length; i++) {
+                counters[i] = new LongAdder();
+            }
+            for (int i = 0; i < stages.length; i++) {
+                stages[i] = new StageHistogram();
+            }
+        }
+
+        Map<String, Long> counters() {
+            Map<String, Long> result = Maps.newLinkedHashMap();
+            for (SecurityCounter counter : SecurityCounter.values()) {
+                result.put(counter.name(), counters[counter.ordinal()].sum());
+            }
+            return result;
+        }
+
+        void reset() {
+            for (LongAdder counter : counters) {
+                counter.reset();
+            }
+            for (StageHistogram stage : stages) {
+                stage.reset();
+            }
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package com.dtssv.security.mybatis.metrics;
+
+/**
+ * 加密处理的计数项
+ * @author dtssv
+ * @date 2020/12/28 10:05
+ **/
+public enum SecurityCounter {
+    /**
+     * 不需要处理 直接执行的sql
+     */
+    BYPASSED,
+    /**
+     * 改写后执行的sql
+     */
+    REWRITTEN,
+    /**
+     * 命中改写计划缓存
+     */
+    PLAN_CACHE_HIT,
+    /**
+     * 未命中改写计划缓存
+     */
+    PLAN_CACHE_MISS,
+    /**
+     * 未命中改写计划缓存 从本地计划文件中加载
+     */
+    PLAN_STORE_HIT,
+    /**
+     * 未命中改写计划缓存 由foreach形状的模板生成
+     */
+    PLAN_TEMPLATE_HIT,
+    /**
+     * 处理出错 按原sql执行
+     */
+    FAILURE
+}
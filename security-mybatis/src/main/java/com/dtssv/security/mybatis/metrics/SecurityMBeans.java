@@ -0,0 +1,77 @@
+package com.dtssv.security.mybatis.metrics;
+
+import lombok.extern.slf4j.Slf4j;
+
+import javax.management.MBeanServer;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+
+/**
+ * jmx注册 名称为com.dtssv.security:type=${type},name=${name}
+ * @author dtssv
+ * @date 2020/12/29 15:00
+ **/
+@Slf4j
+public final class SecurityMBeans {
+    /**
+     * jmx domain
+     */
+    public static final String JMX_DOMAIN = "com.dtssv.security";
+
+    private SecurityMBeans() {
+    }
+
+    /**
+     * 注册到platform MBeanServer 同名已注册时(如多个SqlSessionFactory使用相同的metricsJmxName)依次加后缀-2 -3 不替换已有的MBean
+     * 返回实际注册的名称 注销时只注销自己
+     * @author dtssv
+     * @date 2020/12/29 15:05
+     * @param type
+     * @param name
+     * @param mbean
+     * @return javax.management.ObjectName 注册失败时为null
+     **/
+    public static ObjectName register(String type, String name, Object mbean) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            synchronized (SecurityMBeans.class) {
+                ObjectName objectName = objectName(type, name);
+                for (int suffix = 2; server.isRegistered(objectName); suffix++) {
+                    objectName = objectName(type, name + "-" + suffix);
+                }
+                if (!objectName.equals(objectName(type, name))) {
+                    log.warn("security mbean [{}] name [{}] already registered,register as {}", type, name, objectName);
+                }
+                server.registerMBean(mbean, objectName);
+                return objectName;
+            }
+        } catch (Exception e) {
+            log.error("security register mbean [{}] error", type, e);
+            return null;
+        }
+    }
+
+    /**
+     * 注销
+     */
+    public static void unregister(ObjectName objectName) {
+        if (objectName == null) {
+            return;
+        }
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            synchronized (SecurityMBeans.class) {
+                if (server.isRegistered(objectName)) {
+                    server.unregisterMBean(objectName);
+                }
+            }
+        } catch (Exception e) {
+            log.error("security unregister mbean [{}] error", objectName, e);
+        }
+    }
+
+    private static ObjectName objectName(String type, String name) throws MalformedObjectNameException {
+        return new ObjectName(JMX_DOMAIN + ":type=" + type + ",name=" + ObjectName.quote(name));
+    }
+}
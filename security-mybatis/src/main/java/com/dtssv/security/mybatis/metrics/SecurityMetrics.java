@@ -0,0 +1,106 @@
+package com.dtssv.security.mybatis.metrics;
+
+import org.apache.ibatis.mapping.SqlCommandType;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 指标记录入口 转发给所有的SecurityMetricsSink
+ * 没有sink时isEnabled为false 调用方先判断isEnabled再取时间 关闭时只有一次字段读取的开销
+ * @author dtssv
+ * @date 2020/12/28 10:20
+ **/
+public final class SecurityMetrics {
+    /**
+     * 不记录任何指标
+     */
+    public static final SecurityMetrics DISABLED = new SecurityMetrics(Collections.emptyList());
+    /**
+     * sinks
+     */
+    private final SecurityMetricsSink[] sinks;
+    /**
+     * 是否开启
+     */
+    private final boolean enabled;
+
+    /**
+     *
+     */
+    public SecurityMetrics(Collection<? extends SecurityMetricsSink> sinks) {
+        this.sinks = sinks.toArray(new SecurityMetricsSink[0]);
+        this.enabled = this.sinks.length > 0;
+    }
+
+    /**
+     * 是否开启
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 开启时返回当前时间 关闭时返回0
+     */
+    public long start() {
+        return enabled ? System.nanoTime() : 0L;
+    }
+
+    /**
+     * 记录从start开始的耗时 关闭时忽略
+     * @author dtssv
+     * @date 2020/12/28 10:25
+     * @param statementId
+     * @param sqlCommandType
+     * @param stage
+     * @param start start()的返回值
+     * @return void
+     **/
+    public void recordStage(String statementId, SqlCommandType sqlCommandType, SecurityStage stage, long start) {
+        if (!enabled) {
+            return;
+        }
+        recordDuration(statementId, sqlCommandType, stage, System.nanoTime() - start);
+    }
+
+    /**
+     * 记录已经计算好的耗时 关闭时忽略
+     * @author dtssv
+     * @date 2020/12/29 15:20
+     * @param statementId
+     * @param sqlCommandType
+     * @param stage
+     * @param nanos 耗时 纳秒
+     * @return void
+     **/
+    public void recordDuration(String statementId, SqlCommandType sqlCommandType, SecurityStage stage, long nanos) {
+        if (!enabled) {
+            return;
+        }
+        for (SecurityMetricsSink sink : sinks) {
+            sink.recordStage(statementId, sqlCommandType, stage, nanos);
+        }
+    }
+
+    /**
+     * 计数加1 关闭时忽略
+     */
+    public void increment(String statementId, SqlCommandType sqlCommandType, SecurityCounter counter) {
+        if (!enabled) {
+            return;
+        }
+        for (SecurityMetricsSink sink : sinks) {
+            sink.increment(statementId, sqlCommandType, counter);
+        }
+    }
+
+    /**
+     * sinks
+     */
+    public List<SecurityMetricsSink> getSinks() {
+        return Collections.unmodifiableList(Arrays.asList(sinks));
+    }
+}
@@ -0,0 +1,54 @@
+package com.dtssv.security.mybatis.metrics;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 指标的jmx接口
+ * 汇总数据的key为阶段/计数项名称 单条sql的key为 statementId|sqlCommandType
+ * @author dtssv
+ * @date 2020/12/28 11:00
+ **/
+public interface SecurityMetricsMXBean {
+
+    /**
+     * 全部sql的计数
+     */
+    Map<String, Long> getCounters();
+
+    /**
+     * 全部sql每个阶段的次数
+     */
+    Map<String, Long> getStageCounts();
+
+    /**
+     * 全部sql每个阶段的平均耗时 微秒
+     */
+    Map<String, Double> getStageMeanMicros();
+
+    /**
+     * 全部sql每个阶段的p99耗时 微秒
+     */
+    Map<String, Double> getStageP99Micros();
+
+    /**
+     * 全部sql每个阶段的最大耗时 微秒
+     */
+    Map<String, Double> getStageMaxMicros();
+
+    /**
+     * 有记录的sql
+     */
+    List<String> getStatementKeys();
+
+    /**
+     * 单条sql的计数和每个阶段的次数/平均/p99/最大耗时
+     * @param statementKey getStatementKeys中的值
+     */
+    Map<String, String> describe(String statementKey);
+
+    /**
+     * 清空
+     */
+    void reset();
+}
@@ -0,0 +1,35 @@
+package com.dtssv.security.mybatis.metrics;
+
+import org.apache.ibatis.mapping.SqlCommandType;
+
+/**
+ * 指标输出
+ * 在执行sql的线程中同步调用 实现必须是线程安全的 并且不能有阻塞操作
+ * @author dtssv
+ * @date 2020/12/28 10:10
+ **/
+public interface SecurityMetricsSink {
+
+    /**
+     * 记录一个阶段的耗时
+     * @author dtssv
+     * @date 2020/12/28 10:12
+     * @param statementId mappedStatement id 表名预过滤直接跳过的sql为null
+     * @param sqlCommandType 语句类型 未知时为null
+     * @param stage 阶段
+     * @param nanos 耗时 纳秒
+     * @return void
+     **/
+    void recordStage(String statementId, SqlCommandType sqlCommandType, SecurityStage stage, long nanos);
+
+    /**
+     * 计数加1
+     * @author dtssv
+     * @date 2020/12/28 10:13
+     * @param statementId mappedStatement id 表名预过滤直接跳过的sql为null
+     * @param sqlCommandType 语句类型 未知时为null
+     * @param counter 计数项
+     * @return void
+     **/
+    void increment(String statementId, SqlCommandType sqlCommandType, SecurityCounter counter);
+}
@@ -0,0 +1,29 @@
+package com.dtssv.security.mybatis.metrics;
+
+/**
+ * 加密处理的阶段
+ * @author dtssv
+ * @date 2020/12/28 10:00
+ **/
+public enum SecurityStage {
+    /**
+     * JSqlParser解析sql
+     */
+    PARSE,
+    /**
+     * 改写sql 生成改写计划
+     */
+    REWRITE,
+    /**
+     * 计算加密值
+     */
+    ENCRYPT,
+    /**
+     * 计算查询索引
+     */
+    INDEX,
+    /**
+     * 解密查询结果
+     */
+    DECRYPT
+}
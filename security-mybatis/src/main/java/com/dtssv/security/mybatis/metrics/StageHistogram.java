@@ -0,0 +1,101 @@
+package com.dtssv.security.mybatis.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 耗时直方图 按纳秒的2的幂分桶 百分位数返回所在桶的上界
+ * 只有原子自增 不加锁
+ * @author dtssv
+ * @date 2020/12/28 10:40
+ **/
+final class StageHistogram {
+    /**
+     * 桶 第i个桶记录[2^(i-1), 2^i)纳秒
+     */
+    private final AtomicLongArray buckets = new AtomicLongArray(64);
+    /**
+     * 次数
+     */
+    private final LongAdder count = new LongAdder();
+    /**
+     * 总耗时
+     */
+    private final LongAdder total = new LongAdder();
+    /**
+     * 最大耗时
+     */
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0L);
+
+    /**
+     * 记录
+     */
+    void record(long nanos) {
+        long value = Math.max(0L, nanos);
+        buckets.incrementAndGet(64 - Long.numberOfLeadingZeros(value));
+        count.increment();
+        total.add(value);
+        max.accumulate(value);
+    }
+
+    /**
+     * 次数
+     */
+    long count() {
+        return count.sum();
+    }
+
+    /**
+     * 平均耗时 纳秒
+     */
+    double mean() {
+        long n = count.sum();
+        return n == 0 ? 0 : total.sum() / (double) n;
+    }
+
+    /**
+     * 最大耗时 纳秒
+     */
+    long max() {
+        return max.get();
+    }
+
+    /**
+     * 百分位数 纳秒
+     * @param percentile 0-100
+     */
+    long percentile(double percentile) {
+        long[] snapshot = new long[buckets.length()];
+        long n = 0;
+        for (int i = 0; i < snapshot.length; i++) {
+            snapshot[i] = buckets.get(i);
+            n += snapshot[i];
+        }
+        if (n == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(n * percentile / 100);
+        long seen = 0;
+        for (int i = 0; i < snapshot.length; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                long upperBound = i == 0 ? 0 : (i >= 63 ? Long.MAX_VALUE : (1L << i) - 1);
+                return Math.min(upperBound, max());
+            }
+        }
+        return max();
+    }
+
+    /**
+     * 清空
+     */
+    void reset() {
+        for (int i = 0; i < buckets.length(); i++) {
+            buckets.set(i, 0);
+        }
+        count.reset();
+        total.reset();
+        max.reset();
+    }
+}
@@ -0,0 +1,61 @@
+package com.dtssv.security.mybatis.migration;
+
+import com.dtssv.security.mybatis.config.SecurityColumnConfig;
+import com.dtssv.security.mybatis.config.SecurityInterceptorConfig;
+import com.google.common.base.Strings;
+
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 存量数据加密任务 按securityColumnConfig由sourceColumn填充targetColumn和indexColumn
+ * 开启加密的步骤: 拦截器先以writeSource=true overwriteSourceByTarget=false上线 新数据同时写入明文和密文
+ * 再执行本任务处理存量数据 完成后才能开启overwriteSourceByTarget
+ * 每张表流式读取一次 参见SecurityMigrationEngine.stream
+ * 用法:
+ * new BackfillJob(dataSource, interceptorConfig, migrationConfig).run();
+ * @author dtssv
+ * @date 2021/1/6 10:50
+ **/
+public class BackfillJob {
+    private final SecurityMigrationEngine engine;
+    private final SecurityInterceptorConfig interceptorConfig;
+
+    /**
+     *
+     * @param dataSource 数据源
+     * @param interceptorConfig 拦截器配置 使用其中的加密列 加密处理器和binaryMode
+     * @param config 并发 限速 断点和进度配置
+     */
+    public BackfillJob(DataSource dataSource, SecurityInterceptorConfig interceptorConfig, MigrationConfig config) {
+        this.engine = new SecurityMigrationEngine(dataSource, config);
+        this.interceptorConfig = interceptorConfig;
+    }
+
+    /**
+     * 处理所有表 任何一张表失败时抛出异常 已完成的部分记录在断点中 所有表都成功后才删除断点
+     * @author dtssv
+     * @date 2021/1/6 10:55
+     * @return java.util.List<com.dtssv.security.mybatis.migration.MigrationResult>
+     **/
+    public List<MigrationResult> run() {
+        List<SecurityColumnConfig> columns = new ArrayList<>();
+        for (SecurityColumnConfig column : interceptorConfig.getSecurityColumnConfig()) {
+            if (!Strings.isNullOrEmpty(column.getSourceColumn())) {
+                columns.add(column);
+            }
+        }
+        Map<String, List<SecurityColumnConfig>> tables = KeyRotationJob.groupByTable(columns);
+        List<MigrationResult> results = new ArrayList<>(tables.size());
+        for (Map.Entry<String, List<SecurityColumnConfig>> entry : tables.entrySet()) {
+            results.add(engine.stream(entry.getKey(), new BackfillTransformer(entry.getValue(),
+                    interceptorConfig.getSecurityHandler(), interceptorConfig.isBinaryMode())));
+        }
+        for (String table : tables.keySet()) {
+            engine.clearCheckpoint(table);
+        }
+        return results;
+    }
+}
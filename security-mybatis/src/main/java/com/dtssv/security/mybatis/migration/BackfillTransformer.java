@@ -0,0 +1,114 @@
+package com.dtssv.security.mybatis.migration;
+
+import com.dtssv.security.mybatis.config.SecurityColumnConfig;
+import com.dtssv.security.mybatis.handler.BaseSecurityHandler;
+import com.google.common.base.Strings;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 存量数据加密 由sourceColumn计算targetColumn和indexColumn
+ * 只处理sourceColumn不为null且targetColumn为null的值 已由拦截器写入或之前已处理的值不会重新加密 重复执行只读取不更新
+ * 读取sourceColumn targetColumn和indexColumn 更新条件包含三者的旧值 期间被业务修改的行不会被覆盖
+ * @author dtssv
+ * @date 2021/1/6 10:30
+ **/
+public class BackfillTransformer implements RowTransformer {
+    /**
+     * 同一张表的加密列
+     */
+    private final List<SecurityColumnConfig> columns;
+    /**
+     * 加密处理器
+     */
+    private final BaseSecurityHandler securityHandler;
+    /**
+     * 加密列是否为二进制
+     */
+    private final boolean binaryMode;
+    /**
+     * 每列的索引列在读取结果中的位置 没有索引列时为-1
+     */
+    private final int[] indexPositions;
+    private final List<String> readColumns;
+    private final List<String> writeColumns;
+
+    /**
+     *
+     * @param columns 同一张表的加密列
+     * @param securityHandler 加密处理器
+     * @param binaryMode 与拦截器的binaryMode一致
+     */
+    public BackfillTransformer(List<SecurityColumnConfig> columns, BaseSecurityHandler securityHandler, boolean binaryMode) {
+        this.columns = columns;
+        this.securityHandler = securityHandler;
+        this.binaryMode = binaryMode;
+        this.indexPositions = new int[columns.size()];
+        List<String> readColumns = new ArrayList<>();
+        for (SecurityColumnConfig column : columns) {
+            readColumns.add(column.getSourceColumn());
+        }
+        for (SecurityColumnConfig column : columns) {
+            readColumns.add(column.getTargetColumn());
+        }
+        for (int i = 0; i < columns.size(); i++) {
+            String indexColumn = columns.get(i).getIndexColumn();
+            indexPositions[i] = Strings.isNullOrEmpty(indexColumn) ? -1 : readColumns.size();
+            if (indexPositions[i] >= 0) {
+                readColumns.add(indexColumn);
+            }
+        }
+        this.readColumns = Collections.unmodifiableList(readColumns);
+        this.writeColumns = Collections.unmodifiableList(readColumns.subList(columns.size(), readColumns.size()));
+    }
+
+    @Override
+    public List<String> getReadColumns() {
+        return readColumns;
+    }
+
+    @Override
+    public List<String> getWriteColumns() {
+        return writeColumns;
+    }
+
+    @Override
+    public List<Object[]> transform(List<Object[]> rows) {
+        int size = columns.size();
+        List<Object[]> result = new ArrayList<>(Collections.nCopies(rows.size(), (Object[]) null));
+        for (int column = 0; column < size; column++) {
+            List<Integer> positions = new ArrayList<>();
+            List<Object> values = new ArrayList<>();
+            for (int i = 0; i < rows.size(); i++) {
+                Object[] row = rows.get(i);
+                if (row[column] != null && row[size + column] == null) {
+                    positions.add(i);
+                    values.add(row[column]);
+                }
+            }
+            if (values.isEmpty()) {
+                continue;
+            }
+            List<?> encrypted = binaryMode ? securityHandler.encryptAllBytes(values) : securityHandler.encryptAll(values);
+            List<?> indexes = indexPositions[column] < 0 ? null
+                    : binaryMode ? securityHandler.indexAllBytes(values) : securityHandler.indexAll(values);
+            for (int i = 0; i < positions.size(); i++) {
+                int position = positions.get(i);
+                Object[] row = result.get(position);
+                if (row == null) {
+                    Object[] read = rows.get(position);
+                    row = Arrays.copyOfRange(read, size, read.length);
+                    result.set(position, row);
+                }
+                row[column] = encrypted.get(i);
+                if (indexes != null) {
+                    row[indexPositions[column] - size] = indexes.get(i);
+                }
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,90 @@
+package com.dtssv.security.mybatis.migration;
+
+import com.dtssv.security.mybatis.config.SecurityColumnConfig;
+import com.dtssv.security.mybatis.config.SecurityInterceptorConfig;
+import com.dtssv.security.mybatis.handler.BaseSecurityHandler;
+import com.google.common.base.Strings;
+
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 密钥轮换任务 按securityColumnConfig对每张表的targetColumn和indexColumn重新加密
+ * 表按配置顺序依次处理 每张表内按主键范围并行 参见SecurityMigrationEngine
+ * 使用信封密钥环时 先把新密钥加入aesKeys并设为activeKeyId 发布后新写入的数据已使用新密钥 再执行本任务处理存量数据
+ * 用法:
+ * new KeyRotationJob(dataSource, interceptorConfig, migrationConfig).run();
+ * @author dtssv
+ * @date 2021/1/5 11:40
+ **/
+public class KeyRotationJob {
+    private final SecurityMigrationEngine engine;
+    /**
+     * 表名到加密列 保持配置顺序
+     */
+    private final Map<String, List<SecurityColumnConfig>> tables;
+    private final BaseSecurityHandler sourceHandler;
+    private final BaseSecurityHandler targetHandler;
+    private final boolean binaryMode;
+
+    /**
+     * 使用拦截器的处理器同时解密和加密 适用于包含新旧密钥的密钥环
+     */
+    public KeyRotationJob(DataSource dataSource, SecurityInterceptorConfig interceptorConfig, MigrationConfig config) {
+        this(dataSource, interceptorConfig.getSecurityColumnConfig(), interceptorConfig.getSecurityHandler(),
+                interceptorConfig.getSecurityHandler(), interceptorConfig.isBinaryMode(), config);
+    }
+
+    /**
+     *
+     * @param dataSource 数据源
+     * @param columns 加密列配置
+     * @param sourceHandler 使用旧密钥的处理器
+     * @param targetHandler 使用新密钥的处理器
+     * @param binaryMode 与拦截器的binaryMode一致
+     * @param config 分段 并发 限速和断点配置
+     */
+    public KeyRotationJob(DataSource dataSource, List<SecurityColumnConfig> columns, BaseSecurityHandler sourceHandler,
+                          BaseSecurityHandler targetHandler, boolean binaryMode, MigrationConfig config) {
+        this.engine = new SecurityMigrationEngine(dataSource, config);
+        this.tables = groupByTable(columns);
+        this.sourceHandler = sourceHandler;
+        this.targetHandler = targetHandler;
+        this.binaryMode = binaryMode;
+    }
+
+    /**
+     * 处理所有表 任何一张表失败时抛出异常 已完成的段记录在断点中 所有表都成功后才删除断点
+     * @author dtssv
+     * @date 2021/1/5 11:45
+     * @return java.util.List<com.dtssv.security.mybatis.migration.MigrationResult>
+     **/
+    public List<MigrationResult> run() {
+        List<MigrationResult> results = new ArrayList<>(tables.size());
+        for (Map.Entry<String, List<SecurityColumnConfig>> entry : tables.entrySet()) {
+            results.add(engine.migrate(entry.getKey(),
+                    new ReEncryptTransformer(entry.getValue(), sourceHandler, targetHandler, binaryMode)));
+        }
+        for (String table : tables.keySet()) {
+            engine.clearCheckpoint(table);
+        }
+        return results;
+    }
+
+    /**
+     * 按表分组 忽略没有targetColumn的配置
+     */
+    static Map<String, List<SecurityColumnConfig>> groupByTable(List<SecurityColumnConfig> columns) {
+        Map<String, List<SecurityColumnConfig>> tables = new LinkedHashMap<>();
+        for (SecurityColumnConfig column : columns) {
+            if (Strings.isNullOrEmpty(column.getTable()) || Strings.isNullOrEmpty(column.getTargetColumn())) {
+                continue;
+            }
+            tables.computeIfAbsent(column.getTable().toLowerCase(), key -> new ArrayList<>()).add(column);
+        }
+        return tables;
+    }
+}
@@ -0,0 +1,258 @@
+package com.dtssv.security.mybatis.migration;
+
+import com.google.common.base.Splitter;
+import com.google.common.base.Strings;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.BitSet;
+import java.util.Properties;
+
+/**
+ * 本地断点文件 分段处理时记录起始主键 每段的范围和已完成的段 流式处理时记录已完成的最大主键(lastKey)
+ * 段可能乱序完成 用BitSet记录 文件中按区间保存 如0-15,17
+ * 每次更新都写文件 先写临时文件再原子替换 进程中断时文件保持完整
+ * 文件中记录RowTransformer的断点标识 不一致时从头开始 整个任务的所有表都成功后删除文件 下次执行不会跳过任何数据
+ * @author dtssv
+ * @date 2021/1/5 10:20
+ **/
+@Slf4j
+final class MigrationCheckpoint {
+    /**
+     * 文件 为null时不记录
+     */
+    private final Path file;
+    /**
+     * RowTransformer的断点标识
+     */
+    private final String fingerprint;
+    /**
+     * 第0段的起始主键
+     */
+    private final long min;
+    /**
+     * 每段的主键范围
+     */
+    private final long rangeSize;
+    /**
+     * 已完成的段
+     */
+    private final BitSet completed;
+    /**
+     * 流式处理时已完成的最大主键 之前没有记录时为null
+     */
+    private Long lastKey;
+
+    private MigrationCheckpoint(Path file, String fingerprint, long min, long rangeSize, BitSet completed) {
+        this.file = file;
+        this.fingerprint = fingerprint;
+        this.min = min;
+        this.rangeSize = rangeSize;
+        this.completed = completed;
+    }
+
+    /**
+     * 读取流式处理的断点
+     */
+    static MigrationCheckpoint openStream(MigrationConfig config, String table, String fingerprint) {
+        Path file = file(config, table);
+        MigrationCheckpoint checkpoint = new MigrationCheckpoint(file, fingerprint, 0, 0, new BitSet());
+        Properties properties = load(file);
+        if (properties != null && matches(file, properties, fingerprint)) {
+            String lastKey = properties.getProperty("lastKey");
+            if (Strings.isNullOrEmpty(lastKey)) {
+                log.warn("security checkpoint {} is not a stream checkpoint,start over", file);
+            } else {
+                checkpoint.lastKey = Long.parseLong(lastKey);
+            }
+        }
+        return checkpoint;
+    }
+
+    /**
+     * 读取断点 文件不存在 断点标识不一致 段的范围已修改或表中出现更小的主键时从头开始
+     * @param config
+     * @param table
+     * @param min 表中当前最小的主键
+     * @param fingerprint RowTransformer的断点标识
+     */
+    static MigrationCheckpoint open(MigrationConfig config, String table, long min, String fingerprint) {
+        Path file = file(config, table);
+        Properties properties = load(file);
+        if (properties == null || !matches(file, properties, fingerprint)) {
+            return new MigrationCheckpoint(file, fingerprint, min, config.getRangeSize(), new BitSet());
+        }
+        if (Strings.isNullOrEmpty(properties.getProperty("rangeSize"))) {
+            log.warn("security checkpoint {} is not a range checkpoint,start over", file);
+            return new MigrationCheckpoint(file, fingerprint, min, config.getRangeSize(), new BitSet());
+        }
+        long savedMin = Long.parseLong(properties.getProperty("min"));
+        long savedRangeSize = Long.parseLong(properties.getProperty("rangeSize"));
+        if (savedRangeSize != config.getRangeSize() || savedMin > min) {
+            log.warn("security checkpoint {} not match,min:{} rangeSize:{},start over", file, savedMin, savedRangeSize);
+            return new MigrationCheckpoint(file, fingerprint, min, config.getRangeSize(), new BitSet());
+        }
+        return new MigrationCheckpoint(file, fingerprint, savedMin, savedRangeSize,
+                parseRanges(properties.getProperty("completed")));
+    }
+
+    /**
+     * 断点标识是否一致 之前版本的断点没有标识 也从头开始
+     */
+    private static boolean matches(Path file, Properties properties, String fingerprint) {
+        String saved = properties.getProperty("fingerprint");
+        if (!fingerprint.equals(saved)) {
+            log.warn("security checkpoint {} fingerprint not match,saved:{} current:{},start over", file, saved, fingerprint);
+            return false;
+        }
+        return true;
+    }
+
+    long getMin() {
+        return min;
+    }
+
+    long getRangeSize() {
+        return rangeSize;
+    }
+
+    synchronized boolean isCompleted(int range) {
+        return completed.get(range);
+    }
+
+    synchronized Long getLastKey() {
+        return lastKey;
+    }
+
+    /**
+     * 标记一段已完成并写入文件
+     */
+    synchronized void complete(int range) {
+        completed.set(range);
+        Properties properties = new Properties();
+        properties.setProperty("fingerprint", fingerprint);
+        properties.setProperty("min", String.valueOf(min));
+        properties.setProperty("rangeSize", String.valueOf(rangeSize));
+        properties.setProperty("completed", formatRanges(completed));
+        store(properties);
+    }
+
+    /**
+     * 流式处理时记录已完成的最大主键并写入文件
+     */
+    synchronized void advance(long lastKey) {
+        this.lastKey = lastKey;
+        Properties properties = new Properties();
+        properties.setProperty("fingerprint", fingerprint);
+        properties.setProperty("lastKey", String.valueOf(lastKey));
+        store(properties);
+    }
+
+    /**
+     * 删除断点文件 整个任务成功后调用
+     */
+    static void clear(MigrationConfig config, String table) {
+        Path file = file(config, table);
+        if (file == null) {
+            return;
+        }
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            throw new UncheckedIOException("security delete checkpoint error:" + file, e);
+        }
+    }
+
+    /**
+     * 断点文件 没有配置checkpointDir时为null
+     */
+    private static Path file(MigrationConfig config, String table) {
+        if (Strings.isNullOrEmpty(config.getCheckpointDir())) {
+            return null;
+        }
+        return Paths.get(config.getCheckpointDir(), config.getJobName() + "-" + table + ".checkpoint");
+    }
+
+    /**
+     * 读取断点文件 不存在时返回null
+     */
+    private static Properties load(Path file) {
+        if (file == null || !Files.exists(file)) {
+            return null;
+        }
+        Properties properties = new Properties();
+        try (InputStream in = Files.newInputStream(file)) {
+            properties.load(in);
+        } catch (IOException e) {
+            throw new UncheckedIOException("security read checkpoint error:" + file, e);
+        }
+        return properties;
+    }
+
+    /**
+     * 写入临时文件后原子替换
+     */
+    private void store(Properties properties) {
+        if (file == null) {
+            return;
+        }
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            if (file.getParent() != null) {
+                Files.createDirectories(file.getParent());
+            }
+            try (OutputStream out = Files.newOutputStream(temp)) {
+                properties.store(out, null);
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new UncheckedIOException("security write checkpoint error:" + file, e);
+        }
+    }
+
+    /**
+     * 0-15,17 转为BitSet
+     */
+    private static BitSet parseRanges(String value) {
+        BitSet bits = new BitSet();
+        if (Strings.isNullOrEmpty(value)) {
+            return bits;
+        }
+        for (String item : Splitter.on(',').trimResults().omitEmptyStrings().split(value)) {
+            int index = item.indexOf('-');
+            if (index < 0) {
+                bits.set(Integer.parseInt(item));
+            } else {
+                bits.set(Integer.parseInt(item.substring(0, index)), Integer.parseInt(item.substring(index + 1)) + 1);
+            }
+        }
+        return bits;
+    }
+
+    /**
+     * BitSet转为区间
+     */
+    private static String formatRanges(BitSet bits) {
+        StringBuilder builder = new StringBuilder();
+        int from = bits.nextSetBit(0);
+        while (from >= 0) {
+            int to = bits.nextClearBit(from) - 1;
+            if (builder.length() > 0) {
+                builder.append(',');
+            }
+            builder.append(from);
+            if (to > from) {
+                builder.append('-').append(to);
+            }
+            from = bits.nextSetBit(to + 1);
+        }
+        return builder.toString();
+    }
+}
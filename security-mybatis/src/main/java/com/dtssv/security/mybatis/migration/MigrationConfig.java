@@ -0,0 +1,52 @@
+package com.dtssv.security.mybatis.migration;
+
+import lombok.Data;
+
+/**
+ * 批量处理已有数据的配置 密钥轮换和存量数据加密使用
+ * @author dtssv
+ * @date 2021/1/5 10:00
+ **/
+@Data
+public class MigrationConfig {
+    /**
+     * 主键列 必须是整数类型 按主键范围分段处理
+     */
+    private String primaryKey = "id";
+    /**
+     * 每段的主键范围 每段由一个线程处理 完成后记录断点
+     */
+    private long rangeSize = 100000;
+    /**
+     * 每批读取和更新的行数 每批一个事务
+     */
+    private int batchSize = 500;
+    /**
+     * 每张表的并行线程数
+     */
+    private int threads = 4;
+    /**
+     * 每秒最多更新的行数 所有线程和表共享 0为不限制
+     */
+    private double rowsPerSecond = 0;
+    /**
+     * 断点文件目录 为空时不记录断点
+     */
+    private String checkpointDir;
+    /**
+     * 任务名 断点文件为checkpointDir/jobName-表名.checkpoint 中断后重新执行同一个任务时跳过已完成的段 成功后删除
+     */
+    private String jobName = "security";
+    /**
+     * 流式读取时的fetchSize mysql需要设置为Integer.MIN_VALUE或在连接参数中开启useCursorFetch才会流式读取
+     */
+    private int fetchSize = 1000;
+    /**
+     * 输出进度的间隔 秒
+     */
+    private long progressIntervalSeconds = 10;
+    /**
+     * 进度监听 为null时只输出日志
+     */
+    private MigrationListener listener;
+}
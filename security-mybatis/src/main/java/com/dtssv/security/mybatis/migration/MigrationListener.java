@@ -0,0 +1,19 @@
+package com.dtssv.security.mybatis.migration;
+
+/**
+ * 批量处理的进度监听 按progressIntervalSeconds间隔和每张表结束时调用 可能在工作线程中调用
+ * @author dtssv
+ * @date 2021/1/6 10:00
+ **/
+public interface MigrationListener {
+
+    /**
+     * 进度
+     * @author dtssv
+     * @date 2021/1/6 10:01
+     * @param progress 当前统计的快照
+     * @param finished 该表是否已处理完成
+     * @return void
+     **/
+    void onProgress(MigrationResult progress, boolean finished);
+}
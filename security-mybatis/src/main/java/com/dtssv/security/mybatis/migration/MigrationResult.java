@@ -0,0 +1,56 @@
+package com.dtssv.security.mybatis.migration;
+
+import lombok.Data;
+
+/**
+ * 一张表的处理结果 只统计本次执行处理的数据 执行过程中也作为进度传给MigrationListener
+ * @author dtssv
+ * @date 2021/1/5 10:10
+ **/
+@Data
+public class MigrationResult {
+    /**
+     * 表名
+     */
+    private String table;
+    /**
+     * 总段数
+     */
+    private int ranges;
+    /**
+     * 断点中已完成 本次跳过的段数
+     */
+    private int skippedRanges;
+    /**
+     * 读取的行数
+     */
+    private long rows;
+    /**
+     * 更新的行数
+     */
+    private long updated;
+    /**
+     * 不需要更新的行数
+     */
+    private long unchanged;
+    /**
+     * 读取后被业务修改 没有更新的行数
+     */
+    private long conflicts;
+    /**
+     * 流式处理时已完成的最大主键 之前的行都已处理
+     */
+    private Long lastKey;
+    /**
+     * 表中最大的主键
+     */
+    private Long maxKey;
+    /**
+     * 耗时 毫秒
+     */
+    private long elapsedMillis;
+    /**
+     * 每秒读取的行数
+     */
+    private long rowsPerSecond;
+}
@@ -0,0 +1,175 @@
+package com.dtssv.security.mybatis.migration;
+
+import com.dtssv.security.mybatis.config.SecurityColumnConfig;
+import com.dtssv.security.mybatis.handler.AesGcmHmacSecurityHandler;
+import com.dtssv.security.mybatis.handler.BaseSecurityHandler;
+import com.google.common.base.Strings;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * 密钥轮换 用旧处理器解密targetColumn 再用新处理器重新加密并重新计算indexColumn
+ * 读取和写回的列都是同一张表所有加密列的targetColumn和indexColumn 没有配置indexColumn的只处理targetColumn
+ * 已经使用新处理器加密的值直接跳过 中断后重新处理同一段或失败后重新执行时 不会再用旧处理器解密 重复执行只读取不更新
+ * 新处理器为使用信封的AesGcmHmacSecurityHandler时比较密钥编号 其他处理器用新处理器试解密
+ * 有索引列时还要求新处理器由解密结果计算的索引与保存的一致 避免旧密文被新密钥误解密 没有索引列时依赖处理器解密失败时抛出异常
+ * 使用同一个密钥环时新旧处理器可以是同一个实例
+ * @author dtssv
+ * @date 2021/1/5 11:20
+ **/
+public class ReEncryptTransformer implements RowTransformer {
+    /**
+     * 同一张表的加密列
+     */
+    private final List<SecurityColumnConfig> columns;
+    /**
+     * 解密使用的处理器
+     */
+    private final BaseSecurityHandler sourceHandler;
+    /**
+     * 加密和计算索引使用的处理器
+     */
+    private final BaseSecurityHandler targetHandler;
+    /**
+     * 加密列是否为二进制
+     */
+    private final boolean binaryMode;
+    /**
+     * 每列在读取结果中的位置 索引列不存在时为-1
+     */
+    private final int[] indexPositions;
+    private final List<String> readColumns;
+
+    /**
+     *
+     * @param columns 同一张表的加密列
+     * @param sourceHandler 解密使用的处理器
+     * @param targetHandler 加密和计算索引使用的处理器
+     * @param binaryMode 与拦截器的binaryMode一致
+     */
+    public ReEncryptTransformer(List<SecurityColumnConfig> columns, BaseSecurityHandler sourceHandler,
+                                BaseSecurityHandler targetHandler, boolean binaryMode) {
+        this.columns = columns;
+        this.sourceHandler = sourceHandler;
+        this.targetHandler = targetHandler;
+        this.binaryMode = binaryMode;
+        this.indexPositions = new int[columns.size()];
+        List<String> readColumns = new ArrayList<>();
+        for (SecurityColumnConfig column : columns) {
+            readColumns.add(column.getTargetColumn());
+        }
+        for (int i = 0; i < columns.size(); i++) {
+            String indexColumn = columns.get(i).getIndexColumn();
+            indexPositions[i] = Strings.isNullOrEmpty(indexColumn) ? -1 : readColumns.size();
+            if (indexPositions[i] >= 0) {
+                readColumns.add(indexColumn);
+            }
+        }
+        this.readColumns = Collections.unmodifiableList(readColumns);
+    }
+
+    @Override
+    public List<String> getReadColumns() {
+        return readColumns;
+    }
+
+    @Override
+    public List<String> getWriteColumns() {
+        return readColumns;
+    }
+
+    @Override
+    public List<Object[]> transform(List<Object[]> rows) {
+        List<Object[]> result = new ArrayList<>(Collections.nCopies(rows.size(), (Object[]) null));
+        for (int column = 0; column < columns.size(); column++) {
+            List<Integer> positions = new ArrayList<>();
+            List<Object> values = new ArrayList<>();
+            for (int i = 0; i < rows.size(); i++) {
+                Object value = rows.get(i)[column];
+                if (value != null && !isCurrent(rows.get(i), column)) {
+                    positions.add(i);
+                    values.add(value);
+                }
+            }
+            if (values.isEmpty()) {
+                continue;
+            }
+            List<String> plains = decrypt(values);
+            List<?> encrypted = binaryMode ? targetHandler.encryptAllBytes(plains) : targetHandler.encryptAll(plains);
+            List<?> indexes = indexPositions[column] < 0 ? null
+                    : binaryMode ? targetHandler.indexAllBytes(plains) : targetHandler.indexAll(plains);
+            for (int i = 0; i < positions.size(); i++) {
+                int position = positions.get(i);
+                Object[] row = result.get(position);
+                if (row == null) {
+                    row = rows.get(position).clone();
+                    result.set(position, row);
+                }
+                row[column] = encrypted.get(i);
+                if (indexes != null) {
+                    row[indexPositions[column]] = indexes.get(i);
+                }
+            }
+        }
+        return result;
+    }
+
+    private List<String> decrypt(List<Object> values) {
+        if (!binaryMode) {
+            return sourceHandler.decryptAll(values);
+        }
+        List<byte[]> bytes = new ArrayList<>(values.size());
+        for (Object value : values) {
+            if (!(value instanceof byte[])) {
+                throw new IllegalArgumentException("security binaryMode column must be binary,found:" + value.getClass().getName());
+            }
+            bytes.add((byte[]) value);
+        }
+        return sourceHandler.decryptAllBytes(bytes);
+    }
+
+    /**
+     * 包含新处理器和当前密钥编号 下一次轮换不会复用本次轮换的断点
+     */
+    @Override
+    public String getCheckpointFingerprint() {
+        String fingerprint = RowTransformer.super.getCheckpointFingerprint() + ":" + targetHandler.getClass().getName();
+        if (targetHandler instanceof AesGcmHmacSecurityHandler) {
+            fingerprint += ":activeKeyId=" + ((AesGcmHmacSecurityHandler) targetHandler).getActiveKeyId();
+        }
+        return fingerprint;
+    }
+
+    /**
+     * 密文是否已经使用新处理器加密
+     */
+    private boolean isCurrent(Object[] row, int column) {
+        Object value = row[column];
+        if (targetHandler instanceof AesGcmHmacSecurityHandler) {
+            AesGcmHmacSecurityHandler handler = (AesGcmHmacSecurityHandler) targetHandler;
+            int activeKeyId = handler.getActiveKeyId();
+            return activeKeyId >= 0 && handler.keyIdOf(value) == activeKeyId;
+        }
+        String plain;
+        try {
+            plain = binaryMode ? targetHandler.decryptBytes((byte[]) value) : targetHandler.decrypt(value);
+        } catch (RuntimeException e) {
+            return false;
+        }
+        if (plain == null) {
+            return false;
+        }
+        if (indexPositions[column] < 0) {
+            return true;
+        }
+        Object index = row[indexPositions[column]];
+        if (binaryMode) {
+            return index instanceof byte[] && Arrays.equals(targetHandler.indexBytes(plain), (byte[]) index);
+        }
+        return Objects.equals(targetHandler.index(plain), index);
+    }
+}
@@ -0,0 +1,48 @@
+package com.dtssv.security.mybatis.migration;
+
+import java.util.List;
+
+/**
+ * 批量处理时每行数据的转换 由SecurityMigrationEngine在多个线程中调用 实现必须是线程安全的
+ * 更新时以读取的旧值作为条件 期间被业务修改的行不会被覆盖
+ * @author dtssv
+ * @date 2021/1/5 10:05
+ **/
+public interface RowTransformer {
+
+    /**
+     * 读取的列 不含主键
+     * @author dtssv
+     * @date 2021/1/5 10:06
+     * @return java.util.List<java.lang.String>
+     **/
+    List<String> getReadColumns();
+
+    /**
+     * 写回的列
+     * @author dtssv
+     * @date 2021/1/5 10:07
+     * @return java.util.List<java.lang.String>
+     **/
+    List<String> getWriteColumns();
+
+    /**
+     * 批量转换 同一批的值可以合并调用加密处理器的批量方法
+     * @author dtssv
+     * @date 2021/1/5 10:08
+     * @param rows 每行为getReadColumns对应的值
+     * @return java.util.List<java.lang.Object[]> 与rows一一对应 每行为getWriteColumns对应的值 不需要更新的行为null
+     **/
+    List<Object[]> transform(List<Object[]> rows);
+
+    /**
+     * 断点标识 与断点文件中记录的不一致时从头开始 默认为类名和读写的列
+     * 转换结果依赖的配置(如加密使用的密钥)需要包含在内 避免复用另一次任务的断点
+     * @author dtssv
+     * @date 2021/1/13 10:00
+     * @return java.lang.String
+     **/
+    default String getCheckpointFingerprint() {
+        return getClass().getName() + ":" + getReadColumns() + ":" + getWriteColumns();
+    }
+}
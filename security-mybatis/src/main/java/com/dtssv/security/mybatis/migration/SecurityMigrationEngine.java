@@ -0,0 +1,546 @@
+package com.dtssv.security.mybatis.migration;
+
+import com.google.common.util.concurrent.RateLimiter;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import lombok.extern.slf4j.Slf4j;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 批量处理已有数据 支持两种方式:
+ * migrate 按主键范围分段 多个线程各自分页读取并更新 适合需要限定范围或读取较慢的场景
+ * stream 一个连接按主键顺序流式读取整张表 每batchSize行交给工作线程转换和更新 读取只执行一次查询
+ * 每批调用一次RowTransformer 再用jdbc batch更新 每批一个事务
+ * 更新条件包含读取的旧值 读取后被业务修改的行不会被覆盖 计入conflicts
+ * 限速(rowsPerSecond)在同一个引擎处理的所有表之间共享 可以与业务流量同时运行
+ * 断点记录已完成的段或已完成的最大主键 中断后重新执行时从断点继续 未记录的部分会重复处理 RowTransformer需要能重复处理同一行
+ * 断点标识(RowTransformer.getCheckpointFingerprint)不一致时从头开始 整个任务成功后由任务调用clearCheckpoint删除断点 下一次任务(如下一次密钥轮换)不会跳过数据
+ * @author dtssv
+ * @date 2021/1/5 10:40
+ **/
+@Slf4j
+public class SecurityMigrationEngine {
+    /**
+     * 数据源
+     */
+    private final DataSource dataSource;
+    /**
+     * 配置
+     */
+    private final MigrationConfig config;
+    /**
+     * 限速 不限速时为null
+     */
+    private final RateLimiter rateLimiter;
+
+    /**
+     *
+     */
+    public SecurityMigrationEngine(DataSource dataSource, MigrationConfig config) {
+        if (config.getRangeSize() <= 0 || config.getBatchSize() <= 0 || config.getThreads() <= 0) {
+            throw new IllegalArgumentException("security migration rangeSize batchSize and threads must be positive");
+        }
+        this.dataSource = dataSource;
+        this.config = config;
+        this.rateLimiter = config.getRowsPerSecond() > 0 ? RateLimiter.create(config.getRowsPerSecond()) : null;
+    }
+
+    /**
+     * 按主键范围分段处理一张表
+     * @author dtssv
+     * @date 2021/1/5 10:45
+     * @param table
+     * @param transformer
+     * @return com.dtssv.security.mybatis.migration.MigrationResult
+     **/
+    public MigrationResult migrate(String table, RowTransformer transformer) {
+        Progress progress = new Progress(table, config);
+        long[] bounds = bounds(table);
+        if (bounds == null) {
+            return progress.finish();
+        }
+        progress.maxKey = bounds[1];
+        MigrationCheckpoint checkpoint = MigrationCheckpoint.open(config, table, bounds[0], transformer.getCheckpointFingerprint());
+        long rangeCount = (bounds[1] - checkpoint.getMin()) / checkpoint.getRangeSize() + 1;
+        if (rangeCount > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("security migration too many ranges,increase rangeSize");
+        }
+        List<Integer> pending = new ArrayList<>();
+        for (int i = 0; i < rangeCount; i++) {
+            if (!checkpoint.isCompleted(i)) {
+                pending.add(i);
+            }
+        }
+        progress.ranges = (int) rangeCount;
+        progress.skippedRanges = (int) rangeCount - pending.size();
+        if (!pending.isEmpty()) {
+            runRanges(table, transformer, checkpoint, pending, progress);
+        }
+        return progress.finish();
+    }
+
+    /**
+     * 流式处理一张表 读取使用TYPE_FORWARD_ONLY和fetchSize 内存中最多保留threads * 2批
+     * 断点为之前所有批次都已完成的最大主键 重新执行时从该主键之后开始读取
+     * @author dtssv
+     * @date 2021/1/6 10:10
+     * @param table
+     * @param transformer
+     * @return com.dtssv.security.mybatis.migration.MigrationResult
+     **/
+    public MigrationResult stream(String table, RowTransformer transformer) {
+        Progress progress = new Progress(table, config);
+        long[] bounds = bounds(table);
+        if (bounds == null) {
+            return progress.finish();
+        }
+        progress.maxKey = bounds[1];
+        MigrationCheckpoint checkpoint = MigrationCheckpoint.openStream(config, table, transformer.getCheckpointFingerprint());
+        Long lastKey = checkpoint.getLastKey();
+        progress.lastKey = lastKey;
+        if (lastKey != null && lastKey >= bounds[1]) {
+            return progress.finish();
+        }
+        int threads = config.getThreads();
+        BlockingQueue<Connection> connections = new ArrayBlockingQueue<>(threads);
+        ExecutorService executor = Executors.newFixedThreadPool(threads,
+                new ThreadFactoryBuilder().setNameFormat("security-stream-" + table + "-%d").setDaemon(true).build());
+        Semaphore permits = new Semaphore(threads * 2);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        Watermark watermark = new Watermark(checkpoint, progress);
+        try {
+            for (int i = 0; i < threads; i++) {
+                Connection connection = dataSource.getConnection();
+                connections.add(connection);
+                connection.setAutoCommit(false);
+            }
+            try (Connection reader = dataSource.getConnection()) {
+                reader.setAutoCommit(false);
+                try (PreparedStatement statement = reader.prepareStatement(streamSql(table, transformer),
+                        ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+                    statement.setFetchSize(config.getFetchSize());
+                    statement.setLong(1, lastKey != null ? lastKey : bounds[0] - 1);
+                    try (ResultSet resultSet = statement.executeQuery()) {
+                        read(resultSet, transformer, (sequence, keys, rows) -> {
+                            permits.acquire();
+                            executor.execute(() -> {
+                                Connection connection = connections.poll();
+                                try {
+                                    if (failure.get() == null) {
+                                        progress.rows.add(rows.size());
+                                        update(connection, table, transformer, keys, rows, transformer.transform(rows), progress);
+                                        watermark.complete(sequence, keys.get(keys.size() - 1));
+                                        progress.report(false);
+                                    }
+                                } catch (Throwable e) {
+                                    failure.compareAndSet(null, e);
+                                } finally {
+                                    connections.offer(connection);
+                                    permits.release();
+                                }
+                            });
+                            return failure.get() == null;
+                        });
+                    }
+                }
+                reader.commit();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            failure.compareAndSet(null, e);
+        } catch (Throwable e) {
+            failure.compareAndSet(null, e);
+        } finally {
+            awaitTermination(executor);
+            for (Connection connection : connections) {
+                close(connection);
+            }
+        }
+        if (failure.get() != null) {
+            throw new IllegalStateException("security stream [" + table + "] error", failure.get());
+        }
+        return progress.finish();
+    }
+
+    /**
+     * 删除一张表的断点 整个任务(所有表)都成功后调用 之前删除时后面的表失败后重新执行会从头处理已完成的表
+     * @author dtssv
+     * @date 2021/1/14 10:00
+     * @param table
+     * @return void
+     **/
+    public void clearCheckpoint(String table) {
+        MigrationCheckpoint.clear(config, table);
+    }
+
+    /**
+     * 按batchSize切分流式读取的结果
+     */
+    private void read(ResultSet resultSet, RowTransformer transformer, BatchConsumer consumer) throws SQLException, InterruptedException {
+        int columnCount = transformer.getReadColumns().size();
+        long sequence = 0;
+        List<Long> keys = new ArrayList<>(config.getBatchSize());
+        List<Object[]> rows = new ArrayList<>(config.getBatchSize());
+        while (resultSet.next()) {
+            keys.add(resultSet.getLong(1));
+            Object[] row = new Object[columnCount];
+            for (int i = 0; i < columnCount; i++) {
+                row[i] = resultSet.getObject(i + 2);
+            }
+            rows.add(row);
+            if (rows.size() == config.getBatchSize()) {
+                if (!consumer.accept(sequence++, keys, rows)) {
+                    return;
+                }
+                keys = new ArrayList<>(config.getBatchSize());
+                rows = new ArrayList<>(config.getBatchSize());
+            }
+        }
+        if (!rows.isEmpty()) {
+            consumer.accept(sequence, keys, rows);
+        }
+    }
+
+    /**
+     * 多个线程依次领取未完成的段 任何一段失败后其他线程处理完当前段即停止
+     */
+    private void runRanges(String table, RowTransformer transformer, MigrationCheckpoint checkpoint, List<Integer> pending, Progress progress) {
+        int threads = Math.min(config.getThreads(), pending.size());
+        ExecutorService executor = Executors.newFixedThreadPool(threads,
+                new ThreadFactoryBuilder().setNameFormat("security-migrate-" + table + "-%d").setDaemon(true).build());
+        AtomicInteger next = new AtomicInteger();
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        String select = selectSql(table, transformer);
+        List<Future<?>> futures = new ArrayList<>(threads);
+        for (int i = 0; i < threads; i++) {
+            futures.add(executor.submit(() -> {
+                try (Connection connection = dataSource.getConnection()) {
+                    connection.setAutoCommit(false);
+                    int index;
+                    while (failure.get() == null && (index = next.getAndIncrement()) < pending.size()) {
+                        int range = pending.get(index);
+                        long from = checkpoint.getMin() + range * checkpoint.getRangeSize();
+                        migrateRange(connection, table, transformer, select, from, from + checkpoint.getRangeSize(), progress);
+                        checkpoint.complete(range);
+                        progress.completedRanges.incrementAndGet();
+                        progress.report(false);
+                    }
+                } catch (Throwable e) {
+                    failure.compareAndSet(null, e);
+                }
+            }));
+        }
+        executor.shutdown();
+        try {
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (Exception e) {
+            failure.compareAndSet(null, e);
+        }
+        if (failure.get() != null) {
+            throw new IllegalStateException("security migrate [" + table + "] error", failure.get());
+        }
+    }
+
+    /**
+     * 处理主键在[from, to)之间的行
+     */
+    private void migrateRange(Connection connection, String table, RowTransformer transformer, String select,
+                              long from, long to, Progress progress) throws SQLException {
+        int columnCount = transformer.getReadColumns().size();
+        long cursor = from;
+        try (PreparedStatement statement = connection.prepareStatement(select)) {
+            statement.setMaxRows(config.getBatchSize());
+            statement.setFetchSize(config.getBatchSize());
+            while (cursor < to) {
+                statement.setLong(1, cursor);
+                statement.setLong(2, to);
+                List<Long> keys = new ArrayList<>(config.getBatchSize());
+                List<Object[]> rows = new ArrayList<>(config.getBatchSize());
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    while (resultSet.next()) {
+                        keys.add(resultSet.getLong(1));
+                        Object[] row = new Object[columnCount];
+                        for (int i = 0; i < columnCount; i++) {
+                            row[i] = resultSet.getObject(i + 2);
+                        }
+                        rows.add(row);
+                    }
+                }
+                connection.commit();
+                if (rows.isEmpty()) {
+                    break;
+                }
+                progress.rows.add(rows.size());
+                update(connection, table, transformer, keys, rows, transformer.transform(rows), progress);
+                if (rows.size() < config.getBatchSize()) {
+                    break;
+                }
+                cursor = keys.get(keys.size() - 1) + 1;
+            }
+        }
+    }
+
+    /**
+     * 批量更新 条件中包含旧值 旧值为null的列使用is null 按条件分组后每组一个batch
+     */
+    private void update(Connection connection, String table, RowTransformer transformer, List<Long> keys,
+                        List<Object[]> rows, List<Object[]> values, Progress progress) throws SQLException {
+        Map<String, List<Integer>> groups = new LinkedHashMap<>();
+        for (int i = 0; i < rows.size(); i++) {
+            if (values.get(i) == null) {
+                progress.unchanged.increment();
+                continue;
+            }
+            groups.computeIfAbsent(updateSql(table, transformer, rows.get(i)), key -> new ArrayList<>()).add(i);
+        }
+        if (groups.isEmpty()) {
+            return;
+        }
+        int total = 0;
+        for (List<Integer> group : groups.values()) {
+            total += group.size();
+        }
+        if (rateLimiter != null) {
+            rateLimiter.acquire(total);
+        }
+        try {
+            for (Map.Entry<String, List<Integer>> entry : groups.entrySet()) {
+                try (PreparedStatement statement = connection.prepareStatement(entry.getKey())) {
+                    for (int i : entry.getValue()) {
+                        int index = 1;
+                        for (Object value : values.get(i)) {
+                            statement.setObject(index++, value);
+                        }
+                        statement.setLong(index++, keys.get(i));
+                        for (Object value : rows.get(i)) {
+                            if (value != null) {
+                                statement.setObject(index++, value);
+                            }
+                        }
+                        statement.addBatch();
+                    }
+                    for (int count : statement.executeBatch()) {
+                        if (count > 0 || count == Statement.SUCCESS_NO_INFO) {
+                            progress.updated.increment();
+                        } else {
+                            progress.conflicts.increment();
+                        }
+                    }
+                }
+            }
+            connection.commit();
+        } catch (SQLException e) {
+            connection.rollback();
+            throw e;
+        }
+    }
+
+    /**
+     * 表中最小和最大的主键 空表返回null
+     */
+    private long[] bounds(String table) {
+        String primaryKey = config.getPrimaryKey();
+        try (Connection connection = dataSource.getConnection();
+             Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery("select min(" + primaryKey + "), max(" + primaryKey + ") from " + table)) {
+            resultSet.next();
+            Object min = resultSet.getObject(1);
+            Object max = resultSet.getObject(2);
+            if (min == null) {
+                return null;
+            }
+            if (!(min instanceof Number) || min instanceof Double || min instanceof Float) {
+                throw new IllegalArgumentException("security migration primary key must be integer:" + table + "." + primaryKey);
+            }
+            return new long[]{((Number) min).longValue(), ((Number) max).longValue()};
+        } catch (SQLException e) {
+            throw new IllegalStateException("security migrate [" + table + "] read primary key range error", e);
+        }
+    }
+
+    /**
+     * 等待已提交的批次完成 被中断时停止等待
+     */
+    private static void awaitTermination(ExecutorService executor) {
+        executor.shutdown();
+        try {
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void close(Connection connection) {
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            log.warn("security migration close connection error", e);
+        }
+    }
+
+    private String selectSql(String table, RowTransformer transformer) {
+        String primaryKey = config.getPrimaryKey();
+        return selectColumns(table, transformer).append(" where ").append(primaryKey).append(" >= ? and ")
+                .append(primaryKey).append(" < ? order by ").append(primaryKey).toString();
+    }
+
+    private String streamSql(String table, RowTransformer transformer) {
+        String primaryKey = config.getPrimaryKey();
+        return selectColumns(table, transformer).append(" where ").append(primaryKey).append(" > ? order by ")
+                .append(primaryKey).toString();
+    }
+
+    private StringBuilder selectColumns(String table, RowTransformer transformer) {
+        StringBuilder sql = new StringBuilder("select ").append(config.getPrimaryKey());
+        for (String column : transformer.getReadColumns()) {
+            sql.append(", ").append(column);
+        }
+        return sql.append(" from ").append(table);
+    }
+
+    private String updateSql(String table, RowTransformer transformer, Object[] row) {
+        StringBuilder sql = new StringBuilder("update ").append(table).append(" set ");
+        List<String> writeColumns = transformer.getWriteColumns();
+        for (int i = 0; i < writeColumns.size(); i++) {
+            sql.append(i == 0 ? "" : ", ").append(writeColumns.get(i)).append(" = ?");
+        }
+        sql.append(" where ").append(config.getPrimaryKey()).append(" = ?");
+        List<String> readColumns = transformer.getReadColumns();
+        for (int i = 0; i < readColumns.size(); i++) {
+            sql.append(" and ").append(readColumns.get(i)).append(row[i] == null ? " is null" : " = ?");
+        }
+        return sql.toString();
+    }
+
+    /**
+     * 流式读取的一批数据
+     */
+    private interface BatchConsumer {
+        /**
+         * @return 是否继续读取
+         */
+        boolean accept(long sequence, List<Long> keys, List<Object[]> rows) throws InterruptedException;
+    }
+
+    /**
+     * 流式处理的断点 批次乱序完成 只有之前的批次都完成后才推进
+     */
+    private static final class Watermark {
+        private final MigrationCheckpoint checkpoint;
+        private final Progress progress;
+        /**
+         * 已完成但之前还有未完成批次的 序号到最大主键
+         */
+        private final TreeMap<Long, Long> completed = new TreeMap<>();
+        private long next;
+
+        private Watermark(MigrationCheckpoint checkpoint, Progress progress) {
+            this.checkpoint = checkpoint;
+            this.progress = progress;
+        }
+
+        private synchronized void complete(long sequence, long lastKey) {
+            completed.put(sequence, lastKey);
+            Long advanced = null;
+            Long key;
+            while ((key = completed.remove(next)) != null) {
+                advanced = key;
+                next++;
+            }
+            if (advanced != null) {
+                checkpoint.advance(advanced);
+                progress.lastKey = advanced;
+            }
+        }
+    }
+
+    /**
+     * 一张表的进度 多个线程同时更新 按progressIntervalSeconds输出
+     */
+    private static final class Progress {
+        private final String table;
+        private final MigrationListener listener;
+        private final long intervalNanos;
+        private final long start = System.nanoTime();
+        private final AtomicLong lastReport = new AtomicLong(start);
+        private final AtomicInteger completedRanges = new AtomicInteger();
+        private final LongAdder rows = new LongAdder();
+        private final LongAdder updated = new LongAdder();
+        private final LongAdder unchanged = new LongAdder();
+        private final LongAdder conflicts = new LongAdder();
+        private int ranges;
+        private int skippedRanges;
+        private volatile Long lastKey;
+        private volatile Long maxKey;
+
+        private Progress(String table, MigrationConfig config) {
+            this.table = table;
+            this.listener = config.getListener();
+            this.intervalNanos = TimeUnit.SECONDS.toNanos(config.getProgressIntervalSeconds());
+        }
+
+        /**
+         * 距离上次输出超过间隔时输出 只有一个线程会输出
+         */
+        private void report(boolean finished) {
+            long now = System.nanoTime();
+            long last = lastReport.get();
+            if (!finished && (intervalNanos <= 0 || now - last < intervalNanos || !lastReport.compareAndSet(last, now))) {
+                return;
+            }
+            MigrationResult snapshot = snapshot(now);
+            log.info("security migrate [{}] {} rows:{} updated:{} unchanged:{} conflicts:{} rate:{}/s ranges:{}/{} key:{}/{}",
+                    table, finished ? "finished" : "progress", snapshot.getRows(), snapshot.getUpdated(), snapshot.getUnchanged(),
+                    snapshot.getConflicts(), snapshot.getRowsPerSecond(), completedRanges.get() + skippedRanges, ranges, lastKey, maxKey);
+            if (listener != null) {
+                listener.onProgress(snapshot, finished);
+            }
+        }
+
+        private MigrationResult finish() {
+            report(true);
+            return snapshot(System.nanoTime());
+        }
+
+        private MigrationResult snapshot(long now) {
+            long elapsed = TimeUnit.NANOSECONDS.toMillis(now - start);
+            MigrationResult result = new MigrationResult();
+            result.setTable(table);
+            result.setRanges(ranges);
+            result.setSkippedRanges(skippedRanges);
+            result.setRows(rows.sum());
+            result.setUpdated(updated.sum());
+            result.setUnchanged(unchanged.sum());
+            result.setConflicts(conflicts.sum());
+            result.setLastKey(lastKey);
+            result.setMaxKey(maxKey);
+            result.setElapsedMillis(elapsed);
+            result.setRowsPerSecond(result.getRows() * 1000 / Math.max(1, elapsed));
+            return result;
+        }
+    }
+}
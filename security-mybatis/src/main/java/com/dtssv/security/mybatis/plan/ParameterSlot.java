@@ -0,0 +1,29 @@
+package com.dtssv.security.mybatis.plan;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * 改写后sql中的一个参数位置
+ * 描述该位置的值如何由原参数列表中的参数得到
+ * @author dtssv
+ * @date 2020/12/10 10:15
+ **/
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ParameterSlot {
+    /**
+     * 槽位类型
+     */
+    private ParameterSlotType type;
+    /**
+     * 对应原参数列表中的序号 从0开始
+     */
+    private int parameterIndex;
+    /**
+     * 对应的源字段 ORIGINAL类型为null
+     */
+    private String column;
+}
@@ -0,0 +1,21 @@
+package com.dtssv.security.mybatis.plan;
+
+/**
+ * 改写后参数槽位类型
+ * @author dtssv
+ * @date 2020/12/10 10:12
+ **/
+public enum ParameterSlotType {
+    /**
+     * 原参数 原样传递
+     */
+    ORIGINAL,
+    /**
+     * 原参数加密后的值 写入targetColumn
+     */
+    TARGET,
+    /**
+     * 原参数计算的索引值 写入或查询indexColumn
+     */
+    INDEX
+}
@@ -0,0 +1,87 @@
+package com.dtssv.security.mybatis.plan;
+
+import com.dtssv.security.mybatis.config.SecurityColumnConfig;
+import com.dtssv.security.mybatis.config.SecurityInterceptorConfig;
+import com.google.common.base.Strings;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import lombok.Data;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 构建时预先编译的改写计划 启动时加载到计划缓存 首次执行不再解析sql
+ * 计划按mappedStatement id和原sql命中 mapper中的sql修改后不会命中旧计划
+ * 改写结果还取决于加密列配置 改写选项和改写逻辑本身 用fingerprint校验 与运行时配置或版本不一致时整体忽略
+ * @author dtssv
+ * @date 2021/1/8 10:00
+ **/
+@Data
+public class PlanSnapshot {
+    /**
+     * 格式版本 计划的结构变化时增加 旧版本的快照不再加载
+     */
+    public static final int FORMAT_VERSION = 2;
+    /**
+     * 改写逻辑版本 BaseSqlProcessor等生成的sql或参数槽位变化时增加 旧的快照和本地计划文件不再使用
+     */
+    public static final int REWRITE_VERSION = 1;
+    /**
+     * jar的Implementation-Version 升级后旧的计划不再使用 从classes目录加载时为空
+     */
+    private static final String LIBRARY_VERSION = libraryVersion();
+    /**
+     * 格式版本
+     */
+    private int version = FORMAT_VERSION;
+    /**
+     * 生成时配置的指纹
+     */
+    private String fingerprint;
+    /**
+     * 生成时间
+     */
+    private long createdAt;
+    /**
+     * 改写计划 只包含可以缓存的计划
+     */
+    private List<SqlRewritePlan> plans = Collections.emptyList();
+
+    /**
+     * 计算配置的指纹 只包含影响改写结果的配置
+     * 加密列按表和源字段排序 顺序不影响结果 处理器不影响可以缓存的计划 不参与计算
+     * 包含改写逻辑版本和jar版本 升级后旧的快照和本地计划文件整体忽略
+     * @author dtssv
+     * @date 2021/1/8 10:10
+     * @param securityInterceptorConfig
+     * @return java.lang.String
+     **/
+    public static String fingerprint(SecurityInterceptorConfig securityInterceptorConfig) {
+        List<String> columns = new ArrayList<>();
+        for (SecurityColumnConfig column : securityInterceptorConfig.getSecurityColumnConfig()) {
+            columns.add(Strings.nullToEmpty(column.getTable()) + "|" + Strings.nullToEmpty(column.getSourceColumn())
+                    + "|" + Strings.nullToEmpty(column.getTargetColumn()) + "|" + Strings.nullToEmpty(column.getIndexColumn())
+                    + "|" + column.isDecryptCache());
+        }
+        Collections.sort(columns);
+        Hasher hasher = Hashing.sha256().newHasher()
+                .putInt(FORMAT_VERSION)
+                .putInt(REWRITE_VERSION)
+                .putString(LIBRARY_VERSION, StandardCharsets.UTF_8).putChar('\n')
+                .putBoolean(securityInterceptorConfig.isOverwriteSourceByTarget())
+                .putBoolean(securityInterceptorConfig.isWriteSource())
+                .putBoolean(securityInterceptorConfig.isBinaryMode());
+        for (String column : columns) {
+            hasher.putString(column, StandardCharsets.UTF_8).putChar('\n');
+        }
+        return hasher.hash().toString();
+    }
+
+    private static String libraryVersion() {
+        Package pkg = PlanSnapshot.class.getPackage();
+        return pkg == null ? "" : Strings.nullToEmpty(pkg.getImplementationVersion());
+    }
+}
@@ -0,0 +1,111 @@
+package com.dtssv.security.mybatis.plan;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * 改写计划快照的二进制编码 支持Smile和CBOR 读取时按文件头自动识别
+ * @author dtssv
+ * @date 2021/1/8 10:30
+ **/
+public final class PlanSnapshotCodec {
+    /**
+     * 默认的快照资源 maven插件默认输出到该位置 拦截器默认从classpath加载
+     */
+    public static final String DEFAULT_RESOURCE = "META-INF/security/rewrite-plans.bin";
+    /**
+     * smile
+     */
+    private static final ObjectMapper SMILE_MAPPER = newMapper(new ObjectMapper(new SmileFactory()));
+    /**
+     * cbor
+     */
+    private static final ObjectMapper CBOR_MAPPER = newMapper(new ObjectMapper(new CBORFactory()));
+
+    /**
+     * 编码格式
+     */
+    public enum Format {
+        /**
+         * smile 文件头为:)\n
+         */
+        SMILE,
+        /**
+         * cbor
+         */
+        CBOR
+    }
+
+    private PlanSnapshotCodec() {
+    }
+
+    /**
+     * 写入快照 不关闭输出流
+     * @author dtssv
+     * @date 2021/1/8 10:35
+     * @param snapshot
+     * @param out
+     * @param format
+     * @return void
+     **/
+    public static void write(PlanSnapshot snapshot, OutputStream out, Format format) throws IOException {
+        (format == Format.CBOR ? CBOR_MAPPER : SMILE_MAPPER).writeValue(out, snapshot);
+    }
+
+    /**
+     * 读取快照 按文件头识别格式 不关闭输入流
+     * @author dtssv
+     * @date 2021/1/8 10:40
+     * @param in
+     * @return com.dtssv.security.mybatis.plan.PlanSnapshot
+     **/
+    public static PlanSnapshot read(InputStream in) throws IOException {
+        InputStream input = in.markSupported() ? in : new BufferedInputStream(in);
+        input.mark(3);
+        byte[] header = new byte[3];
+        int length = 0;
+        while (length < header.length) {
+            int read = input.read(header, length, header.length - length);
+            if (read < 0) {
+                break;
+            }
+            length += read;
+        }
+        input.reset();
+        boolean smile = length == 3 && header[0] == ':' && header[1] == ')' && header[2] == '\n';
+        return (smile ? SMILE_MAPPER : CBOR_MAPPER).readValue(input, PlanSnapshot.class);
+    }
+
+    /**
+     * 单个计划编码为smile 本地计划文件使用
+     */
+    static byte[] writePlan(SqlRewritePlan plan) throws IOException {
+        return SMILE_MAPPER.writeValueAsBytes(plan);
+    }
+
+    /**
+     * 解码单个计划
+     */
+    static SqlRewritePlan readPlan(byte[] data) throws IOException {
+        return SMILE_MAPPER.readValue(data, SqlRewritePlan.class);
+    }
+
+    /**
+     * 新版本增加的字段在旧版本中忽略 读写时不关闭流
+     */
+    private static ObjectMapper newMapper(ObjectMapper mapper) {
+        mapper.configure(JsonParser.Feature.AUTO_CLOSE_SOURCE, false);
+        mapper.configure(JsonGenerator.Feature.AUTO_CLOSE_TARGET, false);
+        mapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+        return mapper;
+    }
+}
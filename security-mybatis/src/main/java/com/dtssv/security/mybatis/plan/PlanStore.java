@@ -0,0 +1,235 @@
+package com.dtssv.security.mybatis.plan;
+
+import com.google.common.hash.Hashing;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * 本地改写计划文件 保存运行中缓存的计划 重启后动态sql也不需要重新解析
+ * 格式: magic(4) version(4) fingerprint长度(2) fingerprint count(4) 索引 计划
+ * 索引每项为keyHash(8) offset(4) length(4) 按keyHash排序 keyHash由mappedStatement id和sql计算 计划为Smile编码
+ * 打开时只映射文件并校验头部 查找时在映射的索引中二分 命中后才解码计划 启动耗时与文件大小无关
+ * 配置指纹不一致时整个文件忽略 下次保存时覆盖
+ * @author dtssv
+ * @date 2021/1/11 10:00
+ **/
+@Slf4j
+public final class PlanStore {
+    /**
+     * SPLN
+     */
+    private static final int MAGIC = 0x53504C4E;
+    /**
+     * 文件格式版本 计划本身的格式版本包含在fingerprint中
+     */
+    private static final int VERSION = 1;
+    /**
+     * 每项索引的字节数
+     */
+    private static final int INDEX_ENTRY_LENGTH = 16;
+    /**
+     * 空文件
+     */
+    private static final PlanStore EMPTY = new PlanStore(null, 0, 0);
+    /**
+     * 映射的文件
+     */
+    private final ByteBuffer buffer;
+    /**
+     * 索引起始位置
+     */
+    private final int indexOffset;
+    /**
+     * 计划数量
+     */
+    private final int count;
+
+    private PlanStore(ByteBuffer buffer, int indexOffset, int count) {
+        this.buffer = buffer;
+        this.indexOffset = indexOffset;
+        this.count = count;
+    }
+
+    /**
+     * 映射文件 文件不存在 格式或配置指纹不一致时返回空的计划文件
+     * @author dtssv
+     * @date 2021/1/11 10:10
+     * @param file
+     * @param fingerprint 当前配置的指纹
+     * @return com.dtssv.security.mybatis.plan.PlanStore
+     **/
+    public static PlanStore open(Path file, String fingerprint) {
+        if (!Files.isRegularFile(file)) {
+            return EMPTY;
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.remaining() < 10 || buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                log.warn("security plan store {} format not supported,ignore", file);
+                return EMPTY;
+            }
+            byte[] storedFingerprint = new byte[buffer.getShort() & 0xFFFF];
+            if (buffer.remaining() < storedFingerprint.length + 4) {
+                log.warn("security plan store {} truncated,ignore", file);
+                return EMPTY;
+            }
+            buffer.get(storedFingerprint);
+            if (!fingerprint.equals(new String(storedFingerprint, StandardCharsets.UTF_8))) {
+                log.info("security plan store {} fingerprint not match current config,ignore", file);
+                return EMPTY;
+            }
+            int count = buffer.getInt();
+            if (count < 0 || (long) count * INDEX_ENTRY_LENGTH > buffer.remaining()) {
+                log.warn("security plan store {} truncated,ignore", file);
+                return EMPTY;
+            }
+            return new PlanStore(buffer, buffer.position(), count);
+        } catch (IOException e) {
+            log.warn("security open plan store {} error,ignore", file, e);
+            return EMPTY;
+        }
+    }
+
+    /**
+     * 保存计划 只保存可以缓存的计划 先写临时文件再原子替换 已映射的旧文件不受影响
+     * @author dtssv
+     * @date 2021/1/11 10:20
+     * @param file
+     * @param fingerprint 当前配置的指纹
+     * @param plans
+     * @return int 保存的数量
+     **/
+    public static synchronized int save(Path file, String fingerprint, Collection<SqlRewritePlan> plans) throws IOException {
+        List<Entry> entries = new ArrayList<>(plans.size());
+        for (SqlRewritePlan plan : plans) {
+            if (plan.isCacheable()) {
+                entries.add(new Entry(keyHash(plan.getStatementId(), plan.getOriginalSql()), PlanSnapshotCodec.writePlan(plan)));
+            }
+        }
+        entries.sort(Comparator.comparingLong(entry -> entry.keyHash));
+        byte[] fingerprintBytes = fingerprint.getBytes(StandardCharsets.UTF_8);
+        int offset = 14 + fingerprintBytes.length + entries.size() * INDEX_ENTRY_LENGTH;
+        if (file.getParent() != null) {
+            Files.createDirectories(file.getParent());
+        }
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (OutputStream out = Files.newOutputStream(temp); DataOutputStream data = new DataOutputStream(out)) {
+            data.writeInt(MAGIC);
+            data.writeInt(VERSION);
+            data.writeShort(fingerprintBytes.length);
+            data.write(fingerprintBytes);
+            data.writeInt(entries.size());
+            for (Entry entry : entries) {
+                data.writeLong(entry.keyHash);
+                data.writeInt(offset);
+                data.writeInt(entry.data.length);
+                offset += entry.data.length;
+            }
+            for (Entry entry : entries) {
+                data.write(entry.data);
+            }
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return entries.size();
+    }
+
+    /**
+     * 查找计划 不存在或无法解码时返回null
+     * @author dtssv
+     * @date 2021/1/11 10:30
+     * @param statementId
+     * @param sql
+     * @return com.dtssv.security.mybatis.plan.SqlRewritePlan
+     **/
+    public SqlRewritePlan get(String statementId, String sql) {
+        if (count == 0) {
+            return null;
+        }
+        long keyHash = keyHash(statementId, sql);
+        // 第一个keyHash不小于目标的位置 hash相同时依次比较
+        int low = 0;
+        int high = count;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (buffer.getLong(indexOffset + mid * INDEX_ENTRY_LENGTH) < keyHash) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        for (int i = low; i < count && buffer.getLong(indexOffset + i * INDEX_ENTRY_LENGTH) == keyHash; i++) {
+            SqlRewritePlan plan = read(indexOffset + i * INDEX_ENTRY_LENGTH);
+            if (plan != null && statementId.equals(plan.getStatementId()) && sql.equals(plan.getOriginalSql())) {
+                return plan;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 计划数量
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * 解码一项计划
+     */
+    private SqlRewritePlan read(int index) {
+        int offset = buffer.getInt(index + 8);
+        int length = buffer.getInt(index + 12);
+        if (offset < 0 || length < 0 || (long) offset + length > buffer.limit()) {
+            return null;
+        }
+        byte[] data = new byte[length];
+        ByteBuffer duplicate = buffer.duplicate();
+        duplicate.position(offset);
+        duplicate.get(data);
+        try {
+            return PlanSnapshotCodec.readPlan(data);
+        } catch (IOException e) {
+            log.warn("security read plan store entry error,ignore", e);
+            return null;
+        }
+    }
+
+    /**
+     * 计划的key
+     */
+    private static long keyHash(String statementId, String sql) {
+        return Hashing.murmur3_128().newHasher()
+                .putString(statementId, StandardCharsets.UTF_8)
+                .putByte((byte) 0)
+                .putString(sql, StandardCharsets.UTF_8)
+                .hash().asLong();
+    }
+
+    /**
+     * 待写入的一项
+     */
+    private static final class Entry {
+        private final long keyHash;
+        private final byte[] data;
+
+        private Entry(long keyHash, byte[] data) {
+            this.keyHash = keyHash;
+            this.data = data;
+        }
+    }
+}
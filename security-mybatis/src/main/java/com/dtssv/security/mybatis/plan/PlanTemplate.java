@@ -0,0 +1,187 @@
+package com.dtssv.security.mybatis.plan;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * 同一形状(SqlShape)的改写计划模板 由重复1次和2次的计划比较得到 可以生成任意重复次数的计划
+ * 改写后的sql为 前缀 + 重复部分 * (n - 1) + 后缀 参数槽位同理 每多重复一次 之后的参数序号增加每项的参数个数
+ * 生成后用重复3次的计划校验 不一致时不使用模板
+ * @author dtssv
+ * @date 2021/1/12 11:00
+ **/
+public final class PlanTemplate {
+    /**
+     * 重复1次的计划
+     */
+    private final SqlRewritePlan base;
+    /**
+     * 改写后sql中插入重复部分的位置
+     */
+    private final int sqlSplit;
+    /**
+     * 每多重复一次插入的sql
+     */
+    private final String sqlUnit;
+    /**
+     * 参数槽位中插入重复部分的位置
+     */
+    private final int slotSplit;
+    /**
+     * 每多重复一次插入的参数槽位 对应第2项
+     */
+    private final List<ParameterSlot> slotUnit;
+    /**
+     * 每项的参数个数
+     */
+    private final int parametersPerItem;
+
+    private PlanTemplate(SqlRewritePlan base, int sqlSplit, String sqlUnit, int slotSplit,
+                         List<ParameterSlot> slotUnit, int parametersPerItem) {
+        this.base = base;
+        this.sqlSplit = sqlSplit;
+        this.sqlUnit = sqlUnit;
+        this.slotSplit = slotSplit;
+        this.slotUnit = slotUnit;
+        this.parametersPerItem = parametersPerItem;
+    }
+
+    /**
+     * 比较重复1次和2次的计划生成模板
+     * @author dtssv
+     * @date 2021/1/12 11:10
+     * @param one 重复1次的计划
+     * @param two 重复2次的计划
+     * @param three 重复3次的计划 用于校验
+     * @param parametersBefore 重复部分之前的参数个数
+     * @param parametersPerItem 每项的参数个数
+     * @return com.dtssv.security.mybatis.plan.PlanTemplate 计划不可缓存或不满足重复规律时返回null
+     **/
+    public static PlanTemplate derive(SqlRewritePlan one, SqlRewritePlan two, SqlRewritePlan three,
+                                      int parametersBefore, int parametersPerItem) {
+        if (!one.isCacheable() || !sameAttributes(one, two) || !sameAttributes(one, three)) {
+            return null;
+        }
+        PlanTemplate template;
+        if (!one.isRewritten()) {
+            template = new PlanTemplate(one, 0, "", 0, new ArrayList<>(), parametersPerItem);
+        } else {
+            // sql: two = one[0, split) + unit + one[split, )
+            String sqlOne = one.getSql();
+            String sqlTwo = two.getSql();
+            int sqlSplit = commonPrefix(sqlOne, sqlTwo);
+            int sqlUnitLength = sqlTwo.length() - sqlOne.length();
+            if (sqlUnitLength <= 0 || !sqlTwo.endsWith(sqlOne.substring(sqlSplit))) {
+                return null;
+            }
+            // 参数槽位按原参数顺序排列 第1项之后插入重复部分 之后的槽位参数序号增加parametersPerItem
+            List<ParameterSlot> slotsOne = one.getParameterSlots();
+            List<ParameterSlot> slotsTwo = two.getParameterSlots();
+            int slotUnitLength = slotsTwo.size() - slotsOne.size();
+            if (slotUnitLength <= 0) {
+                return null;
+            }
+            int slotSplit = 0;
+            while (slotSplit < slotsOne.size()
+                    && slotsOne.get(slotSplit).getParameterIndex() < parametersBefore + parametersPerItem) {
+                if (!sameSlot(slotsOne.get(slotSplit), slotsTwo.get(slotSplit), 0)) {
+                    return null;
+                }
+                slotSplit++;
+            }
+            for (int i = slotSplit; i < slotsOne.size(); i++) {
+                if (!sameSlot(slotsOne.get(i), slotsTwo.get(i + slotUnitLength), parametersPerItem)) {
+                    return null;
+                }
+            }
+            template = new PlanTemplate(one, sqlSplit, sqlTwo.substring(sqlSplit, sqlSplit + sqlUnitLength), slotSplit,
+                    new ArrayList<>(slotsTwo.subList(slotSplit, slotSplit + slotUnitLength)), parametersPerItem);
+        }
+        SqlRewritePlan check = template.instantiate(three.getOriginalSql(), 3);
+        if (!check.getSql().equals(three.getSql()) || !check.getParameterSlots().equals(three.getParameterSlots())) {
+            return null;
+        }
+        return template;
+    }
+
+    /**
+     * 生成指定重复次数的计划
+     * @author dtssv
+     * @date 2021/1/12 11:20
+     * @param originalSql 原sql
+     * @param count 重复次数
+     * @return com.dtssv.security.mybatis.plan.SqlRewritePlan
+     **/
+    public SqlRewritePlan instantiate(String originalSql, int count) {
+        if (!base.isRewritten()) {
+            return SqlRewritePlan.noop(base.getStatementId(), originalSql);
+        }
+        String baseSql = base.getSql();
+        StringBuilder sql = new StringBuilder(baseSql.length() + (count - 1) * sqlUnit.length());
+        sql.append(baseSql, 0, sqlSplit);
+        for (int i = 1; i < count; i++) {
+            sql.append(sqlUnit);
+        }
+        sql.append(baseSql, sqlSplit, baseSql.length());
+        List<ParameterSlot> baseSlots = base.getParameterSlots();
+        List<ParameterSlot> slots = new ArrayList<>(baseSlots.size() + (count - 1) * slotUnit.size());
+        slots.addAll(baseSlots.subList(0, slotSplit));
+        for (int i = 1; i < count; i++) {
+            for (ParameterSlot slot : slotUnit) {
+                slots.add(shift(slot, (i - 1) * parametersPerItem));
+            }
+        }
+        for (ParameterSlot slot : baseSlots.subList(slotSplit, baseSlots.size())) {
+            slots.add(shift(slot, (count - 1) * parametersPerItem));
+        }
+        SqlRewritePlan plan = new SqlRewritePlan();
+        plan.setStatementId(base.getStatementId());
+        plan.setSqlCommandType(base.getSqlCommandType());
+        plan.setOriginalSql(originalSql);
+        plan.setSql(sql.toString());
+        plan.setRewritten(true);
+        plan.setCacheable(true);
+        plan.setParameterSlots(slots);
+        plan.setColumnPropertyMap(base.getColumnPropertyMap());
+        plan.setResultColumnLabels(base.getResultColumnLabels());
+        plan.setUncachedColumns(base.getUncachedColumns());
+        plan.setBinaryMode(base.isBinaryMode());
+        return plan;
+    }
+
+    /**
+     * 除sql和参数槽位之外 计划的其他属性与重复次数无关
+     */
+    private static boolean sameAttributes(SqlRewritePlan one, SqlRewritePlan other) {
+        return one.isRewritten() == other.isRewritten()
+                && one.isCacheable() == other.isCacheable()
+                && one.isBinaryMode() == other.isBinaryMode()
+                && one.getSqlCommandType() == other.getSqlCommandType()
+                && Objects.equals(one.getColumnPropertyMap(), other.getColumnPropertyMap())
+                && Objects.equals(one.getResultColumnLabels(), other.getResultColumnLabels())
+                && Objects.equals(one.getUncachedColumns(), other.getUncachedColumns());
+    }
+
+    /**
+     * 参数序号相差offset的相同槽位
+     */
+    private static boolean sameSlot(ParameterSlot slot, ParameterSlot other, int offset) {
+        return slot.getType() == other.getType()
+                && slot.getParameterIndex() + offset == other.getParameterIndex()
+                && Objects.equals(slot.getColumn(), other.getColumn());
+    }
+
+    private static ParameterSlot shift(ParameterSlot slot, int offset) {
+        return offset == 0 ? slot : new ParameterSlot(slot.getType(), slot.getParameterIndex() + offset, slot.getColumn());
+    }
+
+    private static int commonPrefix(String one, String other) {
+        int length = Math.min(one.length(), other.length());
+        int i = 0;
+        while (i < length && one.charAt(i) == other.charAt(i)) {
+            i++;
+        }
+        return i;
+    }
+}
@@ -0,0 +1,70 @@
+package com.dtssv.security.mybatis.plan;
+
+import com.dtssv.security.mybatis.cache.SecurityValueCache;
+import com.dtssv.security.mybatis.handler.BaseSecurityHandler;
+import com.dtssv.security.mybatis.metrics.SecurityMetrics;
+import com.dtssv.security.mybatis.reflection.StatementHandlerAccessor;
+import org.apache.ibatis.mapping.BoundSql;
+import org.apache.ibatis.mapping.SqlSource;
+import org.apache.ibatis.session.Configuration;
+
+/**
+ * 静态sql改写后的SqlSource 替换mappedStatement原来的RawSqlSource/StaticSqlSource
+ * 改写计划在替换时编译一次 getBoundSql只计算加密值和索引值
+ * 返回的boundSql中带有改写计划(SqlRewritePlan.PLAN_PARAMETER) 拦截器prepare时据此跳过改写 query时据此解密
+ * @author dtssv
+ * @date 2021/1/7 10:00
+ **/
+public class RewrittenSqlSource implements SqlSource {
+    /**
+     * 原sqlSource
+     */
+    private final SqlSource delegate;
+    /**
+     * 改写计划
+     */
+    private final SqlRewritePlan plan;
+    private final Configuration configuration;
+    private final BaseSecurityHandler securityHandler;
+    /**
+     * 查询索引缓存 未开启时为空
+     */
+    private final SecurityValueCache indexCache;
+    /**
+     * 写入的索引值是否预加载到缓存
+     */
+    private final boolean preloadIndex;
+    private final SecurityMetrics securityMetrics;
+
+    /**
+     *
+     */
+    public RewrittenSqlSource(SqlSource delegate, SqlRewritePlan plan, Configuration configuration,
+                              BaseSecurityHandler securityHandler, SecurityValueCache indexCache,
+                              boolean preloadIndex, SecurityMetrics securityMetrics) {
+        this.delegate = delegate;
+        this.plan = plan;
+        this.configuration = configuration;
+        this.securityHandler = securityHandler;
+        this.indexCache = indexCache;
+        this.preloadIndex = preloadIndex;
+        this.securityMetrics = securityMetrics;
+    }
+
+    @Override
+    public BoundSql getBoundSql(Object parameterObject) {
+        BoundSql boundSql = delegate.getBoundSql(parameterObject);
+        BoundSql newBoundSql = plan.apply(configuration, boundSql, StatementHandlerAccessor.getAdditionalParameters(boundSql),
+                securityHandler, indexCache, preloadIndex, securityMetrics);
+        newBoundSql.setAdditionalParameter(SqlRewritePlan.PLAN_PARAMETER, plan);
+        return newBoundSql;
+    }
+
+    public SqlSource getDelegate() {
+        return delegate;
+    }
+
+    public SqlRewritePlan getPlan() {
+        return plan;
+    }
+}
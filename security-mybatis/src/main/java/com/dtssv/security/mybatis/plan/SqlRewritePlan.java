@@ -0,0 +1,278 @@
+package com.dtssv.security.mybatis.plan;
+
+import com.dtssv.security.mybatis.cache.SecurityValueCache;
+import com.dtssv.security.mybatis.handler.BaseSecurityHandler;
+import com.dtssv.security.mybatis.handler.SecurityBytes;
+import com.dtssv.security.mybatis.jfr.SecurityEvents;
+import com.dtssv.security.mybatis.metrics.SecurityMetrics;
+import com.dtssv.security.mybatis.metrics.SecurityStage;
+import lombok.Data;
+import org.apache.ibatis.mapping.BoundSql;
+import org.apache.ibatis.mapping.ParameterMapping;
+import org.apache.ibatis.mapping.ParameterMode;
+import org.apache.ibatis.mapping.SqlCommandType;
+import org.apache.ibatis.reflection.MetaObject;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.type.JdbcType;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * sql改写计划
+ * 保存改写后的sql以及参数列表的变化 命中缓存时不再需要解析sql 只需要计算加密值和索引值
+ * @author dtssv
+ * @date 2020/12/10 10:20
+ **/
+@Data
+public class SqlRewritePlan {
+    /**
+     * 新增参数的属性名前缀
+     */
+    public static final String SLOT_PROPERTY_PREFIX = "__security_slot_";
+    /**
+     * 查询改写后 计划保存在新boundSql的附加参数中 query阶段从同一个StatementHandler的boundSql中取出 随StatementHandler一起释放
+     * RewrittenSqlSource返回的boundSql也带有该参数 表示已经改写
+     */
+    public static final String PLAN_PARAMETER = "__security_plan";
+    /**
+     * mappedStatement id
+     */
+    private String statementId;
+    /**
+     * 语句类型
+     */
+    private SqlCommandType sqlCommandType;
+    /**
+     * 原sql
+     */
+    private String originalSql;
+    /**
+     * 改写后的sql
+     */
+    private String sql;
+    /**
+     * 是否需要改写 false表示该sql不涉及加密表 直接执行即可
+     */
+    private boolean rewritten;
+    /**
+     * 是否可以缓存 sql中的常量被加密时不能缓存
+     */
+    private boolean cacheable = true;
+    /**
+     * 改写后的参数槽位
+     */
+    private List<ParameterSlot> parameterSlots = Collections.emptyList();
+    /**
+     * select语句 列名和属性的映射关系
+     */
+    private Map<String, String> columnPropertyMap = Collections.emptyMap();
+    /**
+     * 编译时解析sql的耗时 纳秒
+     */
+    private long parseNanos;
+    /**
+     * 编译时改写sql的耗时 纳秒
+     */
+    private long rewriteNanos;
+    /**
+     * 二进制模式 加密值和索引值以byte[]绑定为VARBINARY
+     */
+    private boolean binaryMode;
+    /**
+     * select语句 查询结果中加密列的列名(别名) 小写
+     */
+    private Set<String> resultColumnLabels = Collections.emptySet();
+    /**
+     * select语句 不使用解密缓存的列 与columnPropertyMap的key相同 按本条sql涉及的表的配置确定
+     */
+    private Set<String> uncachedColumns = Collections.emptySet();
+
+    /**
+     * 创建一个不需要改写的计划
+     * @author dtssv
+     * @date 2020/12/10 10:31
+     * @param statementId
+     * @param originalSql
+     * @return com.dtssv.security.mybatis.plan.SqlRewritePlan
+     **/
+    public static SqlRewritePlan noop(String statementId, String originalSql) {
+        SqlRewritePlan plan = new SqlRewritePlan();
+        plan.setStatementId(statementId);
+        plan.setOriginalSql(originalSql);
+        plan.setSql(originalSql);
+        plan.setRewritten(false);
+        return plan;
+    }
+
+    /**
+     * 根据计划生成新的boundSql 原boundSql不做修改
+     * @author dtssv
+     * @date 2020/12/10 10:40
+     * @param configuration
+     * @param boundSql 原boundSql
+     * @param additionalParameters 原boundSql的附加参数
+     * @param baseSecurityHandler
+     * @return org.apache.ibatis.mapping.BoundSql
+     **/
+    public BoundSql apply(Configuration configuration, BoundSql boundSql, Map<String, Object> additionalParameters,
+                          BaseSecurityHandler baseSecurityHandler) {
+        return apply(configuration, boundSql, additionalParameters, baseSecurityHandler, null, false, SecurityMetrics.DISABLED);
+    }
+
+    /**
+     * 根据计划生成新的boundSql 原boundSql不做修改
+     * 索引值优先从索引缓存中获取 写入加密列的同时写入的索引值可以预加载到缓存中 供后续的等值和in查询使用
+     * @author dtssv
+     * @date 2020/12/22 10:30
+     * @param configuration
+     * @param boundSql 原boundSql
+     * @param additionalParameters 原boundSql的附加参数
+     * @param baseSecurityHandler
+     * @param indexCache 索引缓存 为空表示不使用缓存
+     * @param preloadIndex 写入的索引值是否预加载到缓存
+     * @param securityMetrics 每次批量加密/计算索引的耗时
+     * @return org.apache.ibatis.mapping.BoundSql
+     **/
+    public BoundSql apply(Configuration configuration, BoundSql boundSql, Map<String, Object> additionalParameters,
+                          BaseSecurityHandler baseSecurityHandler, SecurityValueCache indexCache, boolean preloadIndex,
+                          SecurityMetrics securityMetrics) {
+        List<ParameterMapping> orginalParameterMappings = boundSql.getParameterMappings();
+        Object parameterObject = boundSql.getParameterObject();
+        List<ParameterMapping> newParameterMappings = new ArrayList<>(parameterSlots.size());
+        BoundSql newBoundSql = new BoundSql(configuration, sql, newParameterMappings, parameterObject);
+        for (Map.Entry<String, Object> entry : additionalParameters.entrySet()) {
+            newBoundSql.setAdditionalParameter(entry.getKey(), entry.getValue());
+        }
+        // 同一列同一类型的值合并为一次批量调用
+        Map<String, SlotBatch> batches = new LinkedHashMap<>();
+        MetaObject metaObject = null;
+        for (int i = 0; i < parameterSlots.size(); i++) {
+            ParameterSlot slot = parameterSlots.get(i);
+            ParameterMapping parameterMapping = orginalParameterMappings.get(slot.getParameterIndex());
+            if (slot.getType() == ParameterSlotType.ORIGINAL) {
+                newParameterMappings.add(parameterMapping);
+                continue;
+            }
+            Object value = null;
+            if (parameterMapping.getMode() != ParameterMode.OUT) {
+                String propertyName = parameterMapping.getProperty();
+                if (boundSql.hasAdditionalParameter(propertyName)) { // issue #448 ask first for additional params
+                    value = boundSql.getAdditionalParameter(propertyName);
+                } else if (parameterObject == null) {
+                    value = null;
+                } else if (configuration.getTypeHandlerRegistry().hasTypeHandler(parameterObject.getClass())) {
+                    value = parameterObject;
+                } else {
+                    if (metaObject == null) {
+                        metaObject = configuration.newMetaObject(parameterObject);
+                    }
+                    value = metaObject.getValue(propertyName);
+                }
+            }
+            String property = SLOT_PROPERTY_PREFIX + i;
+            newParameterMappings.add(binaryMode
+                    ? new ParameterMapping.Builder(configuration, property, byte[].class).jdbcType(JdbcType.VARBINARY).build()
+                    : new ParameterMapping.Builder(configuration, property, String.class).build());
+            String batchKey = slot.getType().name() + ":" + slot.getColumn();
+            SlotBatch batch = batches.get(batchKey);
+            if (batch == null) {
+                // 同一列有写入的加密值时 索引值也是写入的值
+                boolean write = slot.getType() == ParameterSlotType.INDEX
+                        && batches.containsKey(ParameterSlotType.TARGET.name() + ":" + slot.getColumn());
+                batch = new SlotBatch(slot.getType(), slot.getColumn(), write);
+                batches.put(batchKey, batch);
+            }
+            batch.properties.add(property);
+            batch.values.add(value);
+        }
+        for (SlotBatch batch : batches.values()) {
+            long start = securityMetrics.start();
+            Object event = SecurityEvents.beginCrypto();
+            List<?> slotValues;
+            if (batch.type == ParameterSlotType.TARGET) {
+                slotValues = binaryMode ? baseSecurityHandler.encryptAllBytes(batch.values) : baseSecurityHandler.encryptAll(batch.values);
+            } else {
+                slotValues = indexAll(batch.values, baseSecurityHandler, indexCache, preloadIndex && batch.write, binaryMode);
+            }
+            if (event != null) {
+                SecurityEvents.commitCrypto(event, batch.type == ParameterSlotType.TARGET ? SecurityEvents.ENCRYPT
+                        : SecurityEvents.INDEX, batch.column, batch.values.size());
+            }
+            securityMetrics.recordStage(statementId, sqlCommandType,
+                    batch.type == ParameterSlotType.TARGET ? SecurityStage.ENCRYPT : SecurityStage.INDEX, start);
+            for (int i = 0; i < batch.properties.size(); i++) {
+                newBoundSql.setAdditionalParameter(batch.properties.get(i), slotValues.get(i));
+            }
+        }
+        return newBoundSql;
+    }
+
+    /**
+     * 计算索引值 只缓存字符串参数 二进制模式下缓存中保存ISO-8859-1字符串 返回byte[]
+     */
+    private static List<?> indexAll(List<Object> values, BaseSecurityHandler baseSecurityHandler,
+                                    SecurityValueCache indexCache, boolean preload, boolean binaryMode) {
+        if (indexCache == null) {
+            return binaryMode ? baseSecurityHandler.indexAllBytes(values) : baseSecurityHandler.indexAll(values);
+        }
+        Set<String> keys = new LinkedHashSet<>();
+        for (Object value : values) {
+            if (!(value instanceof String)) {
+                return binaryMode ? baseSecurityHandler.indexAllBytes(values) : baseSecurityHandler.indexAll(values);
+            }
+            keys.add((String) value);
+        }
+        Map<String, String> indexes = indexCache.getAll(keys, binaryMode ? misses -> {
+            List<byte[]> bytes = baseSecurityHandler.indexAllBytes(misses);
+            List<String> result = new ArrayList<>(bytes.size());
+            for (byte[] index : bytes) {
+                result.add(SecurityBytes.toLatin1(index));
+            }
+            return result;
+        } : baseSecurityHandler::indexAll, preload);
+        List<Object> result = new ArrayList<>(values.size());
+        for (Object value : values) {
+            String index = indexes.get(value);
+            result.add(binaryMode ? SecurityBytes.fromLatin1(index) : index);
+        }
+        return result;
+    }
+
+    /**
+     * 同一列同一类型的待计算参数
+     */
+    private static final class SlotBatch {
+        /**
+         * 槽位类型
+         */
+        private final ParameterSlotType type;
+        /**
+         * 源字段
+         */
+        private final String column;
+        /**
+         * 是否是写入的索引值
+         */
+        private final boolean write;
+        /**
+         * 新增参数的属性名
+         */
+        private final List<String> properties = new ArrayList<>();
+        /**
+         * 原参数值
+         */
+        private final List<Object> values = new ArrayList<>();
+
+        private SlotBatch(ParameterSlotType type, String column, boolean write) {
+            this.type = type;
+            this.column = column;
+            this.write = write;
+        }
+    }
+}
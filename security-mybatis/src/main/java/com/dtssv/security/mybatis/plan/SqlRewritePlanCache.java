@@ -0,0 +1,131 @@
+package com.dtssv.security.mybatis.plan;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import lombok.AllArgsConstructor;
+import lombok.EqualsAndHashCode;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * 改写计划缓存 以mappedStatement id和原sql为key
+ * foreach生成的sql另外按mappedStatement id和形状(SqlShape)缓存模板 不同重复次数的sql共用一个模板
+ * @author dtssv
+ * @date 2020/12/10 11:30
+ **/
+public class SqlRewritePlanCache {
+    /**
+     * cache
+     */
+    private final Cache<PlanKey, SqlRewritePlan> cache;
+    /**
+     * 模板 无法生成模板的形状缓存为Optional.empty() 不再尝试
+     */
+    private final Cache<PlanKey, Optional<PlanTemplate>> templates;
+
+    /**
+     *
+     * @param maximumSize 最大缓存数量
+     */
+    public SqlRewritePlanCache(long maximumSize) {
+        this.cache = CacheBuilder.newBuilder()
+                .maximumSize(maximumSize)
+                .recordStats()
+                .build();
+        this.templates = CacheBuilder.newBuilder()
+                .maximumSize(maximumSize)
+                .build();
+    }
+
+    /**
+     * 获取缓存的改写计划
+     * @author dtssv
+     * @date 2020/12/10 11:35
+     * @param statementId
+     * @param sql
+     * @return com.dtssv.security.mybatis.plan.SqlRewritePlan 不存在时返回null
+     **/
+    public SqlRewritePlan get(String statementId, String sql) {
+        return cache.getIfPresent(new PlanKey(statementId, sql));
+    }
+
+    /**
+     * 缓存改写计划 不可缓存的计划直接忽略
+     * @author dtssv
+     * @date 2020/12/10 11:36
+     * @param plan
+     * @return void
+     **/
+    public void put(SqlRewritePlan plan) {
+        if (plan.isCacheable()) {
+            cache.put(new PlanKey(plan.getStatementId(), plan.getOriginalSql()), plan);
+        }
+    }
+
+    /**
+     * 获取形状对应的模板
+     * @author dtssv
+     * @date 2021/1/12 14:00
+     * @param statementId
+     * @param shapeKey SqlShape.getKey()
+     * @return java.util.Optional<com.dtssv.security.mybatis.plan.PlanTemplate> 未尝试生成时返回null
+     **/
+    public Optional<PlanTemplate> getTemplate(String statementId, String shapeKey) {
+        return templates.getIfPresent(new PlanKey(statementId, shapeKey));
+    }
+
+    /**
+     * 缓存模板 template为Optional.empty()表示该形状无法生成模板
+     */
+    public void putTemplate(String statementId, String shapeKey, Optional<PlanTemplate> template) {
+        templates.put(new PlanKey(statementId, shapeKey), template);
+    }
+
+    /**
+     * 当前缓存的所有计划 保存到本地计划文件时使用
+     */
+    public List<SqlRewritePlan> plans() {
+        return new ArrayList<>(cache.asMap().values());
+    }
+
+    /**
+     * 缓存数量
+     */
+    public long size() {
+        return cache.size();
+    }
+
+    /**
+     * 缓存统计
+     */
+    public CacheStats stats() {
+        return cache.stats();
+    }
+
+    /**
+     * 清空缓存
+     */
+    public void invalidateAll() {
+        cache.invalidateAll();
+        templates.invalidateAll();
+    }
+
+    /**
+     * 缓存key
+     */
+    @AllArgsConstructor
+    @EqualsAndHashCode
+    private static final class PlanKey {
+        /**
+         * mappedStatement id
+         */
+        private final String statementId;
+        /**
+         * 原sql
+         */
+        private final String sql;
+    }
+}
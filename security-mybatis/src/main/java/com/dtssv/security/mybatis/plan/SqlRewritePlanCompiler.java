@@ -0,0 +1,158 @@
+package com.dtssv.security.mybatis.plan;
+
+import com.dtssv.security.mybatis.cache.SecurityValueCache;
+import com.dtssv.security.mybatis.config.SecurityColumnConfig;
+import com.dtssv.security.mybatis.config.SecurityInterceptorConfig;
+import com.dtssv.security.mybatis.metrics.SecurityMetrics;
+import com.dtssv.security.mybatis.metrics.SecurityStage;
+import com.dtssv.security.mybatis.sqlprocessor.*;
+import com.google.common.collect.Maps;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.mapping.ParameterMapping;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 改写计划编译器 解析sql并生成改写计划
+ * @author dtssv
+ * @date 2020/12/10 11:02
+ **/
+@Slf4j
+public class SqlRewritePlanCompiler {
+    /**
+     * 表和字段的映射关系
+     */
+    private final Map<String, Map<String, SecurityColumnConfig>> tableColumnMap;
+    /**
+     * 加密拦截器配置
+     */
+    private final SecurityInterceptorConfig securityInterceptorConfig;
+    /**
+     * 表名预过滤器
+     */
+    private final TableNameMatcher tableNameMatcher;
+    /**
+     * 索引缓存 为空表示不使用缓存
+     */
+    private final SecurityValueCache indexCache;
+    /**
+     * 指标
+     */
+    private final SecurityMetrics securityMetrics;
+
+    /**
+     *
+     */
+    public SqlRewritePlanCompiler(Map<String, Map<String, SecurityColumnConfig>> tableColumnMap,
+                                  SecurityInterceptorConfig securityInterceptorConfig,
+                                  TableNameMatcher tableNameMatcher) {
+        this(tableColumnMap, securityInterceptorConfig, tableNameMatcher, null);
+    }
+
+    /**
+     *
+     */
+    public SqlRewritePlanCompiler(Map<String, Map<String, SecurityColumnConfig>> tableColumnMap,
+                                  SecurityInterceptorConfig securityInterceptorConfig,
+                                  TableNameMatcher tableNameMatcher, SecurityValueCache indexCache) {
+        this(tableColumnMap, securityInterceptorConfig, tableNameMatcher, indexCache, SecurityMetrics.DISABLED);
+    }
+
+    /**
+     *
+     */
+    public SqlRewritePlanCompiler(Map<String, Map<String, SecurityColumnConfig>> tableColumnMap,
+                                  SecurityInterceptorConfig securityInterceptorConfig,
+                                  TableNameMatcher tableNameMatcher, SecurityValueCache indexCache,
+                                  SecurityMetrics securityMetrics) {
+        this.tableColumnMap = tableColumnMap;
+        this.securityInterceptorConfig = securityInterceptorConfig;
+        this.tableNameMatcher = tableNameMatcher;
+        this.indexCache = indexCache;
+        this.securityMetrics = securityMetrics;
+    }
+
+    /**
+     * 编译改写计划 sql不涉及加密表或无法解析时返回不需要改写的计划
+     * @author dtssv
+     * @date 2020/12/10 11:10
+     * @param ms
+     * @param sql
+     * @param parameterMappings
+     * @return com.dtssv.security.mybatis.plan.SqlRewritePlan
+     **/
+    public SqlRewritePlan compile(MappedStatement ms, String sql, List<ParameterMapping> parameterMappings) {
+        // 字面上不包含任何加密表的sql无需解析
+        if (!tableNameMatcher.matches(sql)) {
+            return SqlRewritePlan.noop(ms.getId(), sql);
+        }
+        BaseSqlProcessor<?> baseSqlProcessor;
+        long parseStart = System.nanoTime();
+        switch (ms.getSqlCommandType()) {
+            case INSERT:
+                baseSqlProcessor = new InsertBaseSqlProcessor(sql, ms);
+                break;
+            case UPDATE:
+                baseSqlProcessor = new UpdateBaseSqlProcessor(sql, ms);
+                break;
+            case SELECT:
+                baseSqlProcessor = new SelectBaseSqlProcessor(sql, ms);
+                break;
+            case DELETE:
+                baseSqlProcessor = new DeleteBaseSqlProcessor(sql, ms);
+                break;
+            default:
+                return SqlRewritePlan.noop(ms.getId(), sql);
+        }
+        long parseNanos = System.nanoTime() - parseStart;
+        securityMetrics.recordDuration(ms.getId(), ms.getSqlCommandType(), SecurityStage.PARSE, parseNanos);
+        // 获取到本次sql涉及的表
+        List<String> tablesNames = baseSqlProcessor.getTablesNames();
+        if (tablesNames == null) {
+            return SqlRewritePlan.noop(ms.getId(), sql);
+        }
+        Map<String, SecurityColumnConfig> sourceTargetMap = Maps.newHashMap();
+        boolean needProcess = false;
+        for (String tablesName : tablesNames) {
+            Map<String, SecurityColumnConfig> columnConfigMap = tableColumnMap.get(tablesName);
+            if (columnConfigMap != null) {
+                needProcess = true;
+                sourceTargetMap.putAll(columnConfigMap);
+            }
+        }
+        if (!needProcess) {
+            return SqlRewritePlan.noop(ms.getId(), sql);
+        }
+        baseSqlProcessor.setBaseSecurityHandler(securityInterceptorConfig.getSecurityHandler());
+        baseSqlProcessor.setOverwriteSourceByTarget(securityInterceptorConfig.isOverwriteSourceByTarget());
+        baseSqlProcessor.setWriteSource(securityInterceptorConfig.isWriteSource());
+        baseSqlProcessor.setIndexCache(indexCache);
+        baseSqlProcessor.setPreloadIndex(securityInterceptorConfig.isIndexCachePreload());
+        baseSqlProcessor.setBinaryMode(securityInterceptorConfig.isBinaryMode());
+        long rewriteStart = System.nanoTime();
+        try {
+            SqlRewritePlan plan = baseSqlProcessor.process(parameterMappings, sourceTargetMap);
+            plan.setSqlCommandType(ms.getSqlCommandType());
+            plan.setParseNanos(parseNanos);
+            plan.setRewriteNanos(System.nanoTime() - rewriteStart);
+            plan.setBinaryMode(securityInterceptorConfig.isBinaryMode());
+            plan.setCacheable(baseSqlProcessor.isCacheable());
+            if (baseSqlProcessor instanceof SelectBaseSqlProcessor) {
+                plan.setColumnPropertyMap(((SelectBaseSqlProcessor) baseSqlProcessor).getColumnPropertyMap());
+                plan.setResultColumnLabels(((SelectBaseSqlProcessor) baseSqlProcessor).getResultColumnLabels());
+                plan.setUncachedColumns(((SelectBaseSqlProcessor) baseSqlProcessor).getUncachedColumns());
+            }
+            return plan;
+        } catch (Exception e) {
+            log.warn("security rewrite [{}] error,execute original sql", ms.getId(), e);
+            // 处理器加密常量等错误可能是临时的 失败的计划不缓存 下次执行重新改写
+            SqlRewritePlan plan = SqlRewritePlan.noop(ms.getId(), sql);
+            plan.setCacheable(false);
+            return plan;
+        } finally {
+            securityMetrics.recordStage(ms.getId(), ms.getSqlCommandType(), SecurityStage.REWRITE, rewriteStart);
+        }
+    }
+}
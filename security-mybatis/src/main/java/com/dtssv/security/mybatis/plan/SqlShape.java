@@ -0,0 +1,333 @@
+package com.dtssv.security.mybatis.plan;
+
+import org.apache.ibatis.mapping.ParameterMapping;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * sql中唯一一处重复结构 foreach生成的in (?, ?, ?)或多行values (...), (...)
+ * 重复次数不同的sql形状相同 形状key把重复部分折叠为一项 同一形状共用一个PlanTemplate
+ * 只识别一处重复 有多处候选或找不到时不做折叠
+ * @author dtssv
+ * @date 2021/1/12 10:00
+ **/
+public final class SqlShape {
+    /**
+     * 重复部分之前的sql
+     */
+    private final String prefix;
+    /**
+     * 重复的一项 in列表为? values为第一行
+     */
+    private final String item;
+    /**
+     * 重复部分之后的sql
+     */
+    private final String suffix;
+    /**
+     * 重复次数
+     */
+    private final int count;
+    /**
+     * 重复部分之前的参数个数
+     */
+    private final int parametersBefore;
+    /**
+     * 每项的参数个数
+     */
+    private final int parametersPerItem;
+    /**
+     * 重复部分之后的参数个数
+     */
+    private final int parametersAfter;
+
+    private SqlShape(String prefix, String item, String suffix, int count, int parametersBefore,
+                     int parametersPerItem, int parametersAfter) {
+        this.prefix = prefix;
+        this.item = item;
+        this.suffix = suffix;
+        this.count = count;
+        this.parametersBefore = parametersBefore;
+        this.parametersPerItem = parametersPerItem;
+        this.parametersAfter = parametersAfter;
+    }
+
+    /**
+     * 识别sql中的重复结构
+     * @author dtssv
+     * @date 2021/1/12 10:10
+     * @param sql
+     * @return com.dtssv.security.mybatis.plan.SqlShape 没有或有多处重复结构时返回null
+     **/
+    public static SqlShape of(String sql) {
+        SqlShape shape = null;
+        int length = sql.length();
+        int i = 0;
+        while (i < length) {
+            char c = sql.charAt(i);
+            if (c == '\'' || c == '"' || c == '`') {
+                i = skipQuoted(sql, i);
+                continue;
+            }
+            if (Character.isLetter(c) && (i == 0 || !isIdentifierPart(sql.charAt(i - 1)))) {
+                int end = i;
+                while (end < length && isIdentifierPart(sql.charAt(end))) {
+                    end++;
+                }
+                String word = sql.substring(i, end);
+                SqlShape candidate = null;
+                if ("in".equalsIgnoreCase(word)) {
+                    candidate = inList(sql, end);
+                } else if ("values".equalsIgnoreCase(word) || "value".equalsIgnoreCase(word)) {
+                    candidate = valuesRows(sql, end);
+                }
+                if (candidate != null) {
+                    if (shape != null) {
+                        return null;
+                    }
+                    shape = candidate;
+                }
+                i = end;
+                continue;
+            }
+            i++;
+        }
+        return shape;
+    }
+
+    /**
+     * 形状key 不包含重复次数
+     */
+    public String getKey() {
+        return prefix + '\u0001' + item + '\u0001' + suffix;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public int getParametersBefore() {
+        return parametersBefore;
+    }
+
+    public int getParametersPerItem() {
+        return parametersPerItem;
+    }
+
+    /**
+     * 参数个数与识别结果一致
+     */
+    public boolean matches(int parameterCount) {
+        return parameterCount == parametersBefore + count * parametersPerItem + parametersAfter;
+    }
+
+    /**
+     * 重复指定次数的sql
+     */
+    public String sql(int repeat) {
+        StringBuilder builder = new StringBuilder(prefix.length() + suffix.length() + repeat * (item.length() + 2));
+        builder.append(prefix);
+        for (int i = 0; i < repeat; i++) {
+            if (i > 0) {
+                builder.append(", ");
+            }
+            builder.append(item);
+        }
+        return builder.append(suffix).toString();
+    }
+
+    /**
+     * 重复指定次数的参数列表 超过原重复次数的项循环使用原有的参数
+     * 编译计划只使用参数的位置
+     */
+    public List<ParameterMapping> parameterMappings(List<ParameterMapping> parameterMappings, int repeat) {
+        List<ParameterMapping> result = new ArrayList<>(parametersBefore + repeat * parametersPerItem + parametersAfter);
+        result.addAll(parameterMappings.subList(0, parametersBefore));
+        for (int i = 0; i < repeat; i++) {
+            int start = parametersBefore + (i % count) * parametersPerItem;
+            result.addAll(parameterMappings.subList(start, start + parametersPerItem));
+        }
+        int after = parametersBefore + count * parametersPerItem;
+        result.addAll(parameterMappings.subList(after, after + parametersAfter));
+        return result;
+    }
+
+    /**
+     * in之后只包含?的列表
+     */
+    private static SqlShape inList(String sql, int from) {
+        int i = skipWhitespace(sql, from);
+        if (i >= sql.length() || sql.charAt(i) != '(') {
+            return null;
+        }
+        int open = i;
+        int count = 0;
+        i++;
+        while (true) {
+            i = skipWhitespace(sql, i);
+            if (i >= sql.length() || sql.charAt(i) != '?') {
+                return null;
+            }
+            count++;
+            i = skipWhitespace(sql, i + 1);
+            if (i >= sql.length()) {
+                return null;
+            }
+            if (sql.charAt(i) == ')') {
+                break;
+            }
+            if (sql.charAt(i) != ',') {
+                return null;
+            }
+            i++;
+        }
+        String prefix = sql.substring(0, open + 1);
+        String suffix = sql.substring(i);
+        return new SqlShape(prefix, "?", suffix, count, countParameters(prefix), 1, countParameters(suffix));
+    }
+
+    /**
+     * values之后逗号分隔的多行 每行去掉空白后相同
+     */
+    private static SqlShape valuesRows(String sql, int from) {
+        int start = skipWhitespace(sql, from);
+        int i = start;
+        String first = null;
+        String normalized = null;
+        int count = 0;
+        int end = start;
+        while (true) {
+            i = skipWhitespace(sql, i);
+            if (i >= sql.length() || sql.charAt(i) != '(') {
+                break;
+            }
+            int close = matchingParenthesis(sql, i);
+            if (close < 0) {
+                return null;
+            }
+            String row = sql.substring(i, close + 1);
+            String rowNormalized = removeWhitespace(row);
+            if (first == null) {
+                first = row;
+                normalized = rowNormalized;
+            } else if (!normalized.equals(rowNormalized)) {
+                return null;
+            }
+            count++;
+            end = close + 1;
+            i = skipWhitespace(sql, end);
+            if (i >= sql.length() || sql.charAt(i) != ',') {
+                break;
+            }
+            i++;
+        }
+        // on duplicate key update中的values(column)不是重复结构
+        if (first == null || countParameters(first) == 0) {
+            return null;
+        }
+        String prefix = sql.substring(0, start);
+        String suffix = sql.substring(end);
+        return new SqlShape(prefix, first, suffix, count, countParameters(prefix), countParameters(first),
+                countParameters(suffix));
+    }
+
+    /**
+     * 匹配的右括号 跳过引号中的内容 没有时返回-1
+     */
+    private static int matchingParenthesis(String sql, int open) {
+        int depth = 0;
+        int i = open;
+        while (i < sql.length()) {
+            char c = sql.charAt(i);
+            if (c == '\'' || c == '"' || c == '`') {
+                i = skipQuoted(sql, i);
+                continue;
+            }
+            if (c == '(') {
+                depth++;
+            } else if (c == ')' && --depth == 0) {
+                return i;
+            }
+            i++;
+        }
+        return -1;
+    }
+
+    /**
+     * 引号之外的?个数
+     */
+    private static int countParameters(String sql) {
+        int count = 0;
+        int i = 0;
+        while (i < sql.length()) {
+            char c = sql.charAt(i);
+            if (c == '\'' || c == '"' || c == '`') {
+                i = skipQuoted(sql, i);
+                continue;
+            }
+            if (c == '?') {
+                count++;
+            }
+            i++;
+        }
+        return count;
+    }
+
+    /**
+     * 去掉引号之外的空白
+     */
+    private static String removeWhitespace(String sql) {
+        StringBuilder builder = new StringBuilder(sql.length());
+        int i = 0;
+        while (i < sql.length()) {
+            char c = sql.charAt(i);
+            if (c == '\'' || c == '"' || c == '`') {
+                int end = skipQuoted(sql, i);
+                builder.append(sql, i, end);
+                i = end;
+                continue;
+            }
+            if (!Character.isWhitespace(c)) {
+                builder.append(c);
+            }
+            i++;
+        }
+        return builder.toString();
+    }
+
+    /**
+     * 引号结束后的位置 两个连续的引号或反斜杠为转义
+     */
+    private static int skipQuoted(String sql, int start) {
+        char quote = sql.charAt(start);
+        int i = start + 1;
+        while (i < sql.length()) {
+            if (sql.charAt(i) == '\\') {
+                i += 2;
+                continue;
+            }
+            if (sql.charAt(i) == quote) {
+                if (i + 1 < sql.length() && sql.charAt(i + 1) == quote) {
+                    i += 2;
+                    continue;
+                }
+                return i + 1;
+            }
+            i++;
+        }
+        return sql.length();
+    }
+
+    private static int skipWhitespace(String sql, int from) {
+        int i = from;
+        while (i < sql.length() && Character.isWhitespace(sql.charAt(i))) {
+            i++;
+        }
+        return i;
+    }
+
+    private static boolean isIdentifierPart(char c) {
+        return Character.isLetterOrDigit(c) || c == '_' || c == '$';
+    }
+}
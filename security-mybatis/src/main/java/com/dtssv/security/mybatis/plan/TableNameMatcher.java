@@ -0,0 +1,171 @@
+package com.dtssv.security.mybatis.plan;
+
+import com.dtssv.security.util.CommonConstance;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Queue;
+
+/**
+ * 表名预过滤器
+ * 使用配置的表名构建Aho-Corasick自动机 在解析sql之前判断sql是否可能涉及加密表
+ * 只做字面匹配(忽略大小写) 返回true不代表一定涉及加密表 返回false则一定不涉及
+ * @author dtssv
+ * @date 2020/12/11 14:20
+ **/
+public class TableNameMatcher {
+    /**
+     * 字母表大小 非ascii字符回到初始状态
+     */
+    private static final int ALPHABET = 128;
+    /**
+     * 状态转移表
+     */
+    private final int[][] transitions;
+    /**
+     * 是否为匹配状态
+     */
+    private final boolean[] accepts;
+    /**
+     * 表名中包含非ascii字符时无法过滤 全部放行
+     */
+    private final boolean matchAll;
+
+    /**
+     *
+     * @param tableNames 配置的表名
+     */
+    public TableNameMatcher(Collection<String> tableNames) {
+        List<String> patterns = new ArrayList<>();
+        boolean nonAscii = false;
+        for (String tableName : tableNames) {
+            String pattern = normalize(tableName);
+            if (pattern.isEmpty()) {
+                continue;
+            }
+            for (int i = 0; i < pattern.length(); i++) {
+                if (pattern.charAt(i) >= ALPHABET) {
+                    nonAscii = true;
+                }
+            }
+            patterns.add(pattern);
+        }
+        this.matchAll = nonAscii;
+        // 构建trie
+        List<int[]> gotoList = new ArrayList<>();
+        List<Boolean> acceptList = new ArrayList<>();
+        gotoList.add(newState());
+        acceptList.add(false);
+        if (!nonAscii) {
+            for (String pattern : patterns) {
+                int state = 0;
+                for (int i = 0; i < pattern.length(); i++) {
+                    char c = pattern.charAt(i);
+                    if (gotoList.get(state)[c] == -1) {
+                        gotoList.get(state)[c] = gotoList.size();
+                        gotoList.add(newState());
+                        acceptList.add(false);
+                    }
+                    state = gotoList.get(state)[c];
+                }
+                acceptList.set(state, true);
+            }
+        }
+        int[][] table = gotoList.toArray(new int[0][]);
+        boolean[] accept = new boolean[table.length];
+        for (int i = 0; i < accept.length; i++) {
+            accept[i] = acceptList.get(i);
+        }
+        // 按层计算失败转移 并展开为完整的状态转移表
+        int[] fail = new int[table.length];
+        Queue<Integer> queue = new ArrayDeque<>();
+        for (int c = 0; c < ALPHABET; c++) {
+            if (table[0][c] == -1) {
+                table[0][c] = 0;
+            } else {
+                fail[table[0][c]] = 0;
+                queue.add(table[0][c]);
+            }
+        }
+        while (!queue.isEmpty()) {
+            int state = queue.poll();
+            accept[state] |= accept[fail[state]];
+            for (int c = 0; c < ALPHABET; c++) {
+                int next = table[state][c];
+                if (next == -1) {
+                    table[state][c] = table[fail[state]][c];
+                } else {
+                    fail[next] = table[fail[state]][c];
+                    queue.add(next);
+                }
+            }
+        }
+        this.transitions = table;
+        this.accepts = accept;
+    }
+
+    /**
+     * sql是否可能涉及配置的表
+     * @author dtssv
+     * @date 2020/12/11 14:40
+     * @param sql
+     * @return boolean
+     **/
+    public boolean matches(String sql) {
+        if (matchAll) {
+            return true;
+        }
+        if (sql == null) {
+            return false;
+        }
+        int state = 0;
+        for (int i = 0, length = sql.length(); i < length; i++) {
+            char c = sql.charAt(i);
+            if (c >= 'A' && c <= 'Z') {
+                c = (char) (c + ('a' - 'A'));
+            } else if (c >= ALPHABET) {
+                state = 0;
+                continue;
+            }
+            state = transitions[state][c];
+            if (accepts[state]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 去掉引号和库名 转为小写
+     */
+    private static String normalize(String tableName) {
+        if (tableName == null) {
+            return "";
+        }
+        String name = tableName.trim();
+        int dot = name.lastIndexOf('.');
+        if (dot >= 0) {
+            name = name.substring(dot + 1);
+        }
+        StringBuilder builder = new StringBuilder(name.length());
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (c != CommonConstance.MYSQL_CHAR && c != '"') {
+                builder.append(Character.toLowerCase(c));
+            }
+        }
+        return builder.toString();
+    }
+
+    /**
+     *
+     */
+    private static int[] newState() {
+        int[] state = new int[ALPHABET];
+        Arrays.fill(state, -1);
+        return state;
+    }
+}
@@ -0,0 +1,102 @@
+package com.dtssv.security.mybatis.reflection;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+
+/**
+ * MethodHandle工具 字段访问只在初始化时反射一次
+ * @author dtssv
+ * @date 2020/12/15 09:40
+ **/
+public final class MethodHandleUtils {
+
+    private MethodHandleUtils() {
+    }
+
+    /**
+     * 查找字段 包括父类中声明的字段
+     * @author dtssv
+     * @date 2020/12/15 09:42
+     * @param type
+     * @param name
+     * @return java.lang.reflect.Field 不存在时返回null
+     **/
+    public static Field findField(Class<?> type, String name) {
+        for (Class<?> current = type; current != null && current != Object.class; current = current.getSuperclass()) {
+            for (Field field : current.getDeclaredFields()) {
+                if (field.getName().equals(name)) {
+                    return field;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 字段的getter 类型为(Object)Object
+     * @author dtssv
+     * @date 2020/12/15 09:45
+     * @param type
+     * @param name
+     * @return java.lang.invoke.MethodHandle 字段不存在或无法访问时返回null
+     **/
+    public static MethodHandle getter(Class<?> type, String name) {
+        Field field = findField(type, name);
+        if (field == null) {
+            return null;
+        }
+        try {
+            field.setAccessible(true);
+            return MethodHandles.lookup().unreflectGetter(field)
+                    .asType(MethodType.methodType(Object.class, Object.class));
+        } catch (RuntimeException | IllegalAccessException e) {
+            return null;
+        }
+    }
+
+    /**
+     * 字段的setter 类型为(Object,Object)void
+     * @author dtssv
+     * @date 2020/12/15 09:48
+     * @param type
+     * @param name
+     * @return java.lang.invoke.MethodHandle 字段不存在或无法访问时返回null
+     **/
+    public static MethodHandle setter(Class<?> type, String name) {
+        Field field = findField(type, name);
+        if (field == null) {
+            return null;
+        }
+        try {
+            field.setAccessible(true);
+            return MethodHandles.lookup().unreflectSetter(field)
+                    .asType(MethodType.methodType(void.class, Object.class, Object.class));
+        } catch (RuntimeException | IllegalAccessException e) {
+            return null;
+        }
+    }
+
+    /**
+     * 必须存在的getter 用于mybatis内部字段 不存在时直接失败
+     */
+    static MethodHandle requiredGetter(Class<?> type, String name) {
+        MethodHandle handle = getter(type, name);
+        if (handle == null) {
+            throw new IllegalStateException("can not access " + type.getName() + "." + name);
+        }
+        return handle;
+    }
+
+    /**
+     * 必须存在的setter 用于mybatis内部字段 不存在时直接失败
+     */
+    static MethodHandle requiredSetter(Class<?> type, String name) {
+        MethodHandle handle = setter(type, name);
+        if (handle == null) {
+            throw new IllegalStateException("can not access " + type.getName() + "." + name);
+        }
+        return handle;
+    }
+}
@@ -0,0 +1,140 @@
+package com.dtssv.security.mybatis.reflection;
+
+import org.springframework.util.ClassUtils;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Proxy;
+
+/**
+ * 代理对象的原始对象解析
+ * 支持jdk代理(mybatis的Plugin)和cglib代理 每个类的访问方式只解析一次
+ * @author dtssv
+ * @date 2020/12/15 10:02
+ **/
+public final class ProxyTargetResolver {
+    /**
+     * 最大解析层数 防止代理链成环
+     */
+    private static final int MAX_DEPTH = 16;
+    /**
+     * 类的代理类型
+     */
+    private static final ClassValue<ProxyKind> PROXY_KINDS = new ClassValue<ProxyKind>() {
+        @Override
+        protected ProxyKind computeValue(Class<?> type) {
+            if (Proxy.isProxyClass(type)) {
+                return ProxyKind.JDK;
+            }
+            if (type.getName().contains(ClassUtils.CGLIB_CLASS_SEPARATOR)) {
+                return ProxyKind.CGLIB;
+            }
+            return ProxyKind.NONE;
+        }
+    };
+    /**
+     * jdk代理InvocationHandler中的target字段
+     */
+    private static final ClassValue<FieldGetter> HANDLER_TARGET = fieldGetter("target");
+    /**
+     * cglib代理的第一个callback
+     */
+    private static final ClassValue<FieldGetter> CGLIB_CALLBACK = fieldGetter("CGLIB$CALLBACK_0");
+    /**
+     * cglib callback中的advised字段
+     */
+    private static final ClassValue<FieldGetter> CGLIB_ADVISED = fieldGetter("advised");
+
+    private ProxyTargetResolver() {
+    }
+
+    /**
+     * 获取代理对象最终代理的对象 不是代理对象时返回本身
+     * @author dtssv
+     * @date 2020/12/15 10:10
+     * @param target
+     * @return java.lang.Object
+     **/
+    public static Object resolve(Object target) {
+        Object current = target;
+        for (int depth = 0; current != null && depth < MAX_DEPTH; depth++) {
+            Object next = null;
+            switch (PROXY_KINDS.get(current.getClass())) {
+                case JDK:
+                    InvocationHandler invocationHandler = Proxy.getInvocationHandler(current);
+                    next = get(HANDLER_TARGET, invocationHandler);
+                    break;
+                case CGLIB:
+                    Object callback = get(CGLIB_CALLBACK, current);
+                    next = callback == null ? null : get(CGLIB_ADVISED, callback);
+                    break;
+                default:
+                    break;
+            }
+            if (next == null) {
+                return current;
+            }
+            current = next;
+        }
+        return current;
+    }
+
+    /**
+     * 读取字段 字段不存在时返回null
+     */
+    private static Object get(ClassValue<FieldGetter> getters, Object target) {
+        MethodHandle handle = getters.get(target.getClass()).handle;
+        if (handle == null) {
+            return null;
+        }
+        try {
+            return handle.invokeExact(target);
+        } catch (Throwable e) {
+            return null;
+        }
+    }
+
+    /**
+     *
+     */
+    private static ClassValue<FieldGetter> fieldGetter(final String name) {
+        return new ClassValue<FieldGetter>() {
+            @Override
+            protected FieldGetter computeValue(Class<?> type) {
+                return new FieldGetter(MethodHandleUtils.getter(type, name));
+            }
+        };
+    }
+
+    /**
+     * 代理类型
+     */
+    private enum ProxyKind {
+        /**
+         * 不是代理
+         */
+        NONE,
+        /**
+         * jdk动态代理
+         */
+        JDK,
+        /**
+         * cglib代理
+         */
+        CGLIB
+    }
+
+    /**
+     * 字段getter 字段不存在时handle为null
+     */
+    private static final class FieldGetter {
+        /**
+         * handle
+         */
+        private final MethodHandle handle;
+
+        private FieldGetter(MethodHandle handle) {
+            this.handle = handle;
+        }
+    }
+}
@@ -0,0 +1,189 @@
+package com.dtssv.security.mybatis.reflection;
+
+import org.apache.ibatis.executor.Executor;
+import org.apache.ibatis.executor.parameter.ParameterHandler;
+import org.apache.ibatis.executor.resultset.ResultSetHandler;
+import org.apache.ibatis.executor.statement.BaseStatementHandler;
+import org.apache.ibatis.executor.statement.RoutingStatementHandler;
+import org.apache.ibatis.executor.statement.StatementHandler;
+import org.apache.ibatis.mapping.BoundSql;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.mapping.ResultMapping;
+import org.apache.ibatis.mapping.SqlSource;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.ResultHandler;
+import org.apache.ibatis.session.RowBounds;
+import org.apache.ibatis.type.TypeHandler;
+
+import java.lang.invoke.MethodHandle;
+import java.util.Map;
+
+/**
+ * StatementHandler BoundSql MappedStatement及ResultMapping内部字段的访问器
+ * 字段对应的MethodHandle在类加载时解析一次 运行时不再反射
+ * @author dtssv
+ * @date 2020/12/15 10:30
+ **/
+public final class StatementHandlerAccessor {
+    /**
+     * RoutingStatementHandler.delegate
+     */
+    private static final MethodHandle DELEGATE_GETTER = MethodHandleUtils.requiredGetter(RoutingStatementHandler.class, "delegate");
+    /**
+     * BaseStatementHandler.mappedStatement
+     */
+    private static final MethodHandle MAPPED_STATEMENT_GETTER = MethodHandleUtils.requiredGetter(BaseStatementHandler.class, "mappedStatement");
+    /**
+     * BaseStatementHandler.configuration
+     */
+    private static final MethodHandle CONFIGURATION_GETTER = MethodHandleUtils.requiredGetter(BaseStatementHandler.class, "configuration");
+    /**
+     * BaseStatementHandler.boundSql
+     */
+    private static final MethodHandle BOUND_SQL_SETTER = MethodHandleUtils.requiredSetter(BaseStatementHandler.class, "boundSql");
+    /**
+     * BaseStatementHandler.parameterHandler
+     */
+    private static final MethodHandle PARAMETER_HANDLER_SETTER = MethodHandleUtils.requiredSetter(BaseStatementHandler.class, "parameterHandler");
+    /**
+     * BaseStatementHandler.parameterHandler
+     */
+    private static final MethodHandle PARAMETER_HANDLER_GETTER = MethodHandleUtils.requiredGetter(BaseStatementHandler.class, "parameterHandler");
+    /**
+     * BaseStatementHandler.executor
+     */
+    private static final MethodHandle EXECUTOR_GETTER = MethodHandleUtils.requiredGetter(BaseStatementHandler.class, "executor");
+    /**
+     * BaseStatementHandler.rowBounds
+     */
+    private static final MethodHandle ROW_BOUNDS_GETTER = MethodHandleUtils.requiredGetter(BaseStatementHandler.class, "rowBounds");
+    /**
+     * BaseStatementHandler.resultSetHandler
+     */
+    private static final MethodHandle RESULT_SET_HANDLER_SETTER = MethodHandleUtils.requiredSetter(BaseStatementHandler.class, "resultSetHandler");
+    /**
+     * BoundSql.additionalParameters
+     */
+    private static final MethodHandle ADDITIONAL_PARAMETERS_GETTER = MethodHandleUtils.requiredGetter(BoundSql.class, "additionalParameters");
+    /**
+     * MappedStatement.sqlSource
+     */
+    private static final MethodHandle SQL_SOURCE_SETTER = MethodHandleUtils.requiredSetter(MappedStatement.class, "sqlSource");
+    /**
+     * ResultMapping.typeHandler
+     */
+    private static final MethodHandle TYPE_HANDLER_SETTER = MethodHandleUtils.requiredSetter(ResultMapping.class, "typeHandler");
+
+    private StatementHandlerAccessor() {
+    }
+
+    /**
+     * 获取实际执行的BaseStatementHandler
+     * 先拦截到RoutingStatementHandler，里面有个StatementHandler类型的delegate变量，其实现类是BaseStatementHandler
+     * @author dtssv
+     * @date 2020/12/15 10:40
+     * @param statementHandler
+     * @return org.apache.ibatis.executor.statement.BaseStatementHandler 无法获取时返回null
+     **/
+    public static BaseStatementHandler getDelegate(StatementHandler statementHandler) {
+        Object delegate = statementHandler;
+        if (statementHandler instanceof RoutingStatementHandler) {
+            delegate = invoke(DELEGATE_GETTER, statementHandler);
+        }
+        return delegate instanceof BaseStatementHandler ? (BaseStatementHandler) delegate : null;
+    }
+
+    /**
+     * mappedStatement
+     */
+    public static MappedStatement getMappedStatement(BaseStatementHandler statementHandler) {
+        return (MappedStatement) invoke(MAPPED_STATEMENT_GETTER, statementHandler);
+    }
+
+    /**
+     * configuration
+     */
+    public static Configuration getConfiguration(BaseStatementHandler statementHandler) {
+        return (Configuration) invoke(CONFIGURATION_GETTER, statementHandler);
+    }
+
+    /**
+     * 替换boundSql
+     */
+    public static void setBoundSql(BaseStatementHandler statementHandler, BoundSql boundSql) {
+        invoke(BOUND_SQL_SETTER, statementHandler, boundSql);
+    }
+
+    /**
+     * 替换parameterHandler
+     */
+    public static void setParameterHandler(BaseStatementHandler statementHandler, ParameterHandler parameterHandler) {
+        invoke(PARAMETER_HANDLER_SETTER, statementHandler, parameterHandler);
+    }
+
+    /**
+     * 替换ResultHandler
+     * StatementHandler.query的ResultHandler参数不会被使用 实际使用的是创建resultSetHandler时传入的ResultHandler
+     * 所以按原参数重新创建resultSetHandler
+     * @author dtssv
+     * @date 2020/12/18 14:10
+     * @param statementHandler
+     * @param resultHandler
+     * @return void
+     **/
+    public static void setResultHandler(BaseStatementHandler statementHandler, ResultHandler<?> resultHandler) {
+        Configuration configuration = getConfiguration(statementHandler);
+        ResultSetHandler resultSetHandler = configuration.newResultSetHandler(
+                (Executor) invoke(EXECUTOR_GETTER, statementHandler),
+                getMappedStatement(statementHandler),
+                (RowBounds) invoke(ROW_BOUNDS_GETTER, statementHandler),
+                (ParameterHandler) invoke(PARAMETER_HANDLER_GETTER, statementHandler),
+                resultHandler,
+                statementHandler.getBoundSql());
+        invoke(RESULT_SET_HANDLER_SETTER, statementHandler, resultSetHandler);
+    }
+
+    /**
+     * boundSql的附加参数
+     */
+    @SuppressWarnings("unchecked")
+    public static Map<String, Object> getAdditionalParameters(BoundSql boundSql) {
+        return (Map<String, Object>) invoke(ADDITIONAL_PARAMETERS_GETTER, boundSql);
+    }
+
+    /**
+     * 替换mappedStatement的sqlSource
+     */
+    public static void setSqlSource(MappedStatement mappedStatement, SqlSource sqlSource) {
+        invoke(SQL_SOURCE_SETTER, mappedStatement, sqlSource);
+    }
+
+    /**
+     * 替换resultMapping的typeHandler
+     */
+    public static void setTypeHandler(ResultMapping resultMapping, TypeHandler<?> typeHandler) {
+        invoke(TYPE_HANDLER_SETTER, resultMapping, typeHandler);
+    }
+
+    /**
+     *
+     */
+    private static Object invoke(MethodHandle getter, Object target) {
+        try {
+            return getter.invokeExact(target);
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     *
+     */
+    private static void invoke(MethodHandle setter, Object target, Object value) {
+        try {
+            setter.invokeExact(target, value);
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package com.dtssv.security.mybatis.result;
+
+import com.dtssv.security.mybatis.handler.SecurityBytes;
+import org.apache.ibatis.type.BaseTypeHandler;
+import org.apache.ibatis.type.JdbcType;
+import org.apache.ibatis.type.TypeHandler;
+
+import java.sql.CallableStatement;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Set;
+
+/**
+ * 二进制模式下加密列的TypeHandler
+ * 结果中的加密列为VARBINARY 映射到String属性时StringTypeHandler会调用getString 各数据库返回的内容不一致
+ * 列名在columnLabels中时按getBytes读取 转为ISO-8859-1字符串 由ResultDecryptor还原为byte[]后解密 其他列交给原TypeHandler
+ * @author dtssv
+ * @date 2021/1/14 15:00
+ **/
+public final class BinaryColumnTypeHandler extends BaseTypeHandler<String> {
+    /**
+     * 原TypeHandler
+     */
+    private final TypeHandler<String> delegate;
+    /**
+     * 加密列的列名(别名) 小写 与BinaryResultColumns共享
+     */
+    private final Set<String> columnLabels;
+
+    /**
+     *
+     */
+    public BinaryColumnTypeHandler(TypeHandler<String> delegate, Set<String> columnLabels) {
+        this.delegate = delegate;
+        this.columnLabels = columnLabels;
+    }
+
+    @Override
+    public void setNonNullParameter(PreparedStatement ps, int i, String parameter, JdbcType jdbcType) throws SQLException {
+        delegate.setParameter(ps, i, parameter, jdbcType);
+    }
+
+    @Override
+    public String getResult(ResultSet rs, String columnName) throws SQLException {
+        if (columnName != null && columnLabels.contains(columnName.toLowerCase())) {
+            return SecurityBytes.toLatin1(rs.getBytes(columnName));
+        }
+        return delegate.getResult(rs, columnName);
+    }
+
+    @Override
+    public String getResult(ResultSet rs, int columnIndex) throws SQLException {
+        return delegate.getResult(rs, columnIndex);
+    }
+
+    @Override
+    public String getResult(CallableStatement cs, int columnIndex) throws SQLException {
+        return delegate.getResult(cs, columnIndex);
+    }
+
+    @Override
+    public String getNullableResult(ResultSet rs, String columnName) throws SQLException {
+        return getResult(rs, columnName);
+    }
+
+    @Override
+    public String getNullableResult(ResultSet rs, int columnIndex) throws SQLException {
+        return getResult(rs, columnIndex);
+    }
+
+    @Override
+    public String getNullableResult(CallableStatement cs, int columnIndex) throws SQLException {
+        return getResult(cs, columnIndex);
+    }
+}
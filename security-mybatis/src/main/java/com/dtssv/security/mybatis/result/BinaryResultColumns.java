@@ -0,0 +1,96 @@
+package com.dtssv.security.mybatis.result;
+
+import com.dtssv.security.mybatis.reflection.StatementHandlerAccessor;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.mapping.ResultMap;
+import org.apache.ibatis.mapping.ResultMapping;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.type.JdbcType;
+import org.apache.ibatis.type.TypeHandler;
+import org.apache.ibatis.type.TypeHandlerRegistry;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 二进制模式下查询结果中的加密列
+ * 改写计划中的加密列名加入columnLabels 只有这些列按getBytes读取 不再包装Statement和ResultSet
+ * 自动映射按TypeHandlerRegistry中String和二进制jdbcType的TypeHandler读取 每个configuration注册一次
+ * resultMap中的映射在解析时已经确定TypeHandler 每个resultMap中String类型的映射替换一次
+ * 与加密列同名的非加密二进制列映射到String属性时也会按getBytes读取
+ * @author dtssv
+ * @date 2021/1/14 15:10
+ **/
+public class BinaryResultColumns {
+    /**
+     * 结果中可能出现的二进制jdbcType
+     */
+    private static final JdbcType[] BINARY_TYPES = {JdbcType.BINARY, JdbcType.VARBINARY, JdbcType.LONGVARBINARY, JdbcType.BLOB};
+    /**
+     * 加密列的列名(别名) 小写
+     */
+    private final Set<String> columnLabels = ConcurrentHashMap.newKeySet();
+    /**
+     * 已经注册TypeHandler的configuration和已经替换过的resultMap
+     */
+    private final Set<Object> installed = ConcurrentHashMap.newKeySet();
+
+    /**
+     * 记录语句结果中的加密列 首次遇到configuration和resultMap时替换TypeHandler
+     * @author dtssv
+     * @date 2021/1/14 15:20
+     * @param configuration
+     * @param ms
+     * @param labels 改写计划中加密列的列名(别名) 小写
+     * @return void
+     **/
+    public void register(Configuration configuration, MappedStatement ms, Set<String> labels) {
+        columnLabels.addAll(labels);
+        if (!installed.contains(configuration)) {
+            install(configuration);
+        }
+        for (ResultMap resultMap : ms.getResultMaps()) {
+            if (!installed.contains(resultMap)) {
+                install(resultMap);
+            }
+        }
+    }
+
+    /**
+     * 重新配置后清空加密列 已经替换的TypeHandler全部交给原TypeHandler 直到新的计划再次记录
+     */
+    public void clear() {
+        columnLabels.clear();
+    }
+
+    @SuppressWarnings("unchecked")
+    private synchronized void install(Configuration configuration) {
+        if (installed.contains(configuration)) {
+            return;
+        }
+        TypeHandlerRegistry registry = configuration.getTypeHandlerRegistry();
+        for (JdbcType jdbcType : BINARY_TYPES) {
+            TypeHandler<String> delegate = registry.getTypeHandler(String.class, jdbcType);
+            if (!(delegate instanceof BinaryColumnTypeHandler)) {
+                registry.register(String.class, jdbcType, new BinaryColumnTypeHandler(delegate, columnLabels));
+            }
+        }
+        installed.add(configuration);
+    }
+
+    @SuppressWarnings("unchecked")
+    private synchronized void install(ResultMap resultMap) {
+        if (installed.contains(resultMap)) {
+            return;
+        }
+        for (ResultMapping resultMapping : resultMap.getResultMappings()) {
+            if (resultMapping.getJavaType() == String.class && resultMapping.getColumn() != null
+                    && resultMapping.getNestedResultMapId() == null && resultMapping.getNestedQueryId() == null
+                    && !(resultMapping.getTypeHandler() instanceof BinaryColumnTypeHandler)) {
+                StatementHandlerAccessor.setTypeHandler(resultMapping, new BinaryColumnTypeHandler(
+                        (TypeHandler<String>) resultMapping.getTypeHandler(), columnLabels));
+            }
+        }
+        installed.add(resultMap);
+    }
+}
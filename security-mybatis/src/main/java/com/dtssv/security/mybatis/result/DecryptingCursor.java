@@ -0,0 +1,109 @@
+package com.dtssv.security.mybatis.result;
+
+import org.apache.ibatis.cursor.Cursor;
+import com.dtssv.security.mybatis.metrics.SecurityMetrics;
+import com.dtssv.security.mybatis.metrics.SecurityStage;
+import org.apache.ibatis.mapping.SqlCommandType;
+import org.apache.ibatis.session.Configuration;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 逐行解密的Cursor
+ * 遍历时每取出一行解密一行 内存占用与结果总行数无关
+ * @author dtssv
+ * @date 2020/12/18 11:40
+ **/
+public class DecryptingCursor<T> implements Cursor<T> {
+    /**
+     * 原Cursor
+     */
+    private final Cursor<T> delegate;
+    /**
+     * 结果解密
+     */
+    private final ResultDecryptor resultDecryptor;
+    /**
+     * configuration
+     */
+    private final Configuration configuration;
+    /**
+     * 需要解密的列和属性
+     */
+    private final Map<String, String> columnPropertyMap;
+    /**
+     * 不使用解密缓存的列
+     */
+    private final Set<String> uncachedColumns;
+    /**
+     * mappedStatement id
+     */
+    private final String statementId;
+    /**
+     * 指标 记录每行的解密耗时
+     */
+    private final SecurityMetrics securityMetrics;
+
+    /**
+     *
+     */
+    public DecryptingCursor(Cursor<T> delegate, ResultDecryptor resultDecryptor,
+                            Configuration configuration, Map<String, String> columnPropertyMap,
+                            Set<String> uncachedColumns, String statementId, SecurityMetrics securityMetrics) {
+        this.delegate = delegate;
+        this.resultDecryptor = resultDecryptor;
+        this.configuration = configuration;
+        this.columnPropertyMap = columnPropertyMap;
+        this.uncachedColumns = uncachedColumns;
+        this.statementId = statementId;
+        this.securityMetrics = securityMetrics;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return delegate.isOpen();
+    }
+
+    @Override
+    public boolean isConsumed() {
+        return delegate.isConsumed();
+    }
+
+    @Override
+    public int getCurrentIndex() {
+        return delegate.getCurrentIndex();
+    }
+
+    @Override
+    public void close() throws IOException {
+        delegate.close();
+    }
+
+    @Override
+    public Iterator<T> iterator() {
+        final Iterator<T> iterator = delegate.iterator();
+        return new Iterator<T>() {
+            @Override
+            public boolean hasNext() {
+                return iterator.hasNext();
+            }
+
+            @Override
+            public T next() {
+                T row = iterator.next();
+                long start = securityMetrics.start();
+                resultDecryptor.decryptRow(configuration, row, columnPropertyMap, uncachedColumns);
+                securityMetrics.recordStage(statementId, SqlCommandType.SELECT, SecurityStage.DECRYPT, start);
+                return row;
+            }
+
+            @Override
+            public void remove() {
+                iterator.remove();
+            }
+        };
+    }
+}
@@ -0,0 +1,71 @@
+package com.dtssv.security.mybatis.result;
+
+import com.dtssv.security.mybatis.metrics.SecurityMetrics;
+import com.dtssv.security.mybatis.metrics.SecurityStage;
+import org.apache.ibatis.mapping.SqlCommandType;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.ResultContext;
+import org.apache.ibatis.session.ResultHandler;
+
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 逐行解密的ResultHandler
+ * 每行结果交给原ResultHandler之前先解密 结果不会在内存中堆积
+ * @author dtssv
+ * @date 2020/12/18 11:30
+ **/
+public class DecryptingResultHandler<T> implements ResultHandler<T> {
+    /**
+     * 原ResultHandler
+     */
+    private final ResultHandler<T> delegate;
+    /**
+     * 结果解密
+     */
+    private final ResultDecryptor resultDecryptor;
+    /**
+     * configuration
+     */
+    private final Configuration configuration;
+    /**
+     * 需要解密的列和属性
+     */
+    private final Map<String, String> columnPropertyMap;
+    /**
+     * 不使用解密缓存的列
+     */
+    private final Set<String> uncachedColumns;
+    /**
+     * mappedStatement id
+     */
+    private final String statementId;
+    /**
+     * 指标 记录每行的解密耗时
+     */
+    private final SecurityMetrics securityMetrics;
+
+    /**
+     *
+     */
+    public DecryptingResultHandler(ResultHandler<T> delegate, ResultDecryptor resultDecryptor,
+                                   Configuration configuration, Map<String, String> columnPropertyMap,
+                                   Set<String> uncachedColumns, String statementId, SecurityMetrics securityMetrics) {
+        this.delegate = delegate;
+        this.resultDecryptor = resultDecryptor;
+        this.configuration = configuration;
+        this.columnPropertyMap = columnPropertyMap;
+        this.uncachedColumns = uncachedColumns;
+        this.statementId = statementId;
+        this.securityMetrics = securityMetrics;
+    }
+
+    @Override
+    public void handleResult(ResultContext<? extends T> resultContext) {
+        long start = securityMetrics.start();
+        resultDecryptor.decryptRow(configuration, resultContext.getResultObject(), columnPropertyMap, uncachedColumns);
+        securityMetrics.recordStage(statementId, SqlCommandType.SELECT, SecurityStage.DECRYPT, start);
+        delegate.handleResult(resultContext);
+    }
+}
@@ -0,0 +1,349 @@
+package com.dtssv.security.mybatis.result;
+
+import org.apache.ibatis.reflection.MetaClass;
+import org.apache.ibatis.reflection.MetaObject;
+import org.apache.ibatis.reflection.invoker.Invoker;
+import org.apache.ibatis.session.Configuration;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 结果解密计划
+ * 按结果类型和需要解密的属性编译一次 保存解析后的属性名和读写方法 解密时不再需要MetaObject查找属性
+ * @author dtssv
+ * @date 2020/12/17 14:10
+ **/
+public class ResultDecryptPlan {
+    /**
+     * 结果类型
+     */
+    private final Class<?> resultType;
+    /**
+     * 需要解密的属性 结果类型中不存在的属性已被忽略
+     */
+    private final List<PropertyAccessor> accessors;
+    /**
+     * 与accessors一一对应 是否可以使用解密缓存
+     */
+    private final boolean[] cacheable;
+    /**
+     * 与accessors一一对应 属性名
+     */
+    private final String[] properties;
+
+    /**
+     *
+     */
+    private ResultDecryptPlan(Class<?> resultType, List<PropertyAccessor> accessors, List<Boolean> cacheable,
+                              List<String> properties) {
+        this.resultType = resultType;
+        this.accessors = accessors;
+        this.properties = properties.toArray(new String[0]);
+        this.cacheable = new boolean[cacheable.size()];
+        for (int i = 0; i < this.cacheable.length; i++) {
+            this.cacheable[i] = cacheable.get(i);
+        }
+    }
+
+    /**
+     * 编译解密计划
+     * @author dtssv
+     * @date 2020/12/17 14:20
+     * @param configuration
+     * @param resultType 结果类型
+     * @param properties 需要解密的属性
+     * @return com.dtssv.security.mybatis.result.ResultDecryptPlan
+     **/
+    public static ResultDecryptPlan compile(Configuration configuration, Class<?> resultType, Collection<String> properties) {
+        return compile(configuration, resultType, properties, Collections.emptySet());
+    }
+
+    /**
+     * 编译解密计划
+     * @author dtssv
+     * @date 2020/12/21 11:20
+     * @param configuration
+     * @param resultType 结果类型
+     * @param properties 需要解密的属性
+     * @param uncachedProperties 不使用解密缓存的属性
+     * @return com.dtssv.security.mybatis.result.ResultDecryptPlan
+     **/
+    public static ResultDecryptPlan compile(Configuration configuration, Class<?> resultType, Collection<String> properties,
+                                            Set<String> uncachedProperties) {
+        List<PropertyAccessor> accessors = new ArrayList<>(properties.size());
+        List<Boolean> cacheable = new ArrayList<>(properties.size());
+        List<String> accessorProperties = new ArrayList<>(properties.size());
+        boolean useCamelCaseMapping = configuration.isMapUnderscoreToCamelCase();
+        if (Map.class.isAssignableFrom(resultType)) {
+            for (String property : properties) {
+                if (property.indexOf('.') < 0 && property.indexOf('[') < 0) {
+                    accessors.add(new MapAccessor(property));
+                } else {
+                    accessors.add(new MetaObjectAccessor(configuration, property, useCamelCaseMapping));
+                }
+                cacheable.add(!uncachedProperties.contains(property));
+                accessorProperties.add(property);
+            }
+            return new ResultDecryptPlan(resultType, accessors, cacheable, accessorProperties);
+        }
+        MetaClass metaClass = MetaClass.forClass(resultType, configuration.getReflectorFactory());
+        for (String pro : properties) {
+            String property = metaClass.findProperty(pro, useCamelCaseMapping);
+            if (property == null || !metaClass.hasGetter(property) || !metaClass.hasSetter(property)) {
+                continue;
+            }
+            cacheable.add(!uncachedProperties.contains(pro));
+            accessorProperties.add(property);
+            if (property.indexOf('.') >= 0) {
+                // 嵌套属性仍然通过MetaObject访问
+                accessors.add(new MetaObjectAccessor(configuration, property, false));
+                continue;
+            }
+            MethodHandle getter = findGetter(resultType, property);
+            MethodHandle setter = findSetter(resultType, property, metaClass.getSetterType(property));
+            if (getter != null && setter != null) {
+                accessors.add(new MethodHandleAccessor(getter, setter));
+            } else {
+                accessors.add(new InvokerAccessor(metaClass.getGetInvoker(property), metaClass.getSetInvoker(property)));
+            }
+        }
+        return new ResultDecryptPlan(resultType, accessors, cacheable, accessorProperties);
+    }
+
+    /**
+     * 结果类型
+     */
+    public Class<?> getResultType() {
+        return resultType;
+    }
+
+    /**
+     * 需要解密的属性
+     */
+    public List<PropertyAccessor> getAccessors() {
+        return Collections.unmodifiableList(accessors);
+    }
+
+    /**
+     * 第index个属性是否可以使用解密缓存
+     */
+    public boolean isCacheable(int index) {
+        return cacheable[index];
+    }
+
+    /**
+     * 第index个属性的属性名
+     */
+    public String getProperty(int index) {
+        return properties[index];
+    }
+
+    /**
+     * 查找public的getter
+     */
+    private static MethodHandle findGetter(Class<?> type, String property) {
+        String suffix = Character.toUpperCase(property.charAt(0)) + property.substring(1);
+        for (String name : new String[]{"get" + suffix, "is" + suffix}) {
+            try {
+                Method method = type.getMethod(name);
+                if (Modifier.isStatic(method.getModifiers())) {
+                    continue;
+                }
+                return MethodHandles.publicLookup().unreflect(method)
+                        .asType(MethodType.methodType(Object.class, Object.class));
+            } catch (NoSuchMethodException | IllegalAccessException e) {
+                // 尝试下一种命名
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 查找public的setter
+     */
+    private static MethodHandle findSetter(Class<?> type, String property, Class<?> setterType) {
+        String name = "set" + Character.toUpperCase(property.charAt(0)) + property.substring(1);
+        try {
+            Method method = type.getMethod(name, setterType);
+            if (Modifier.isStatic(method.getModifiers())) {
+                return null;
+            }
+            return MethodHandles.publicLookup().unreflect(method)
+                    .asType(MethodType.methodType(void.class, Object.class, Object.class));
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            return null;
+        }
+    }
+
+    /**
+     * 属性读写
+     */
+    public interface PropertyAccessor {
+        /**
+         * 读取属性
+         * @param row
+         * @return java.lang.Object
+         */
+        Object get(Object row);
+
+        /**
+         * 写入属性
+         * @param row
+         * @param value
+         */
+        void set(Object row, Object value);
+    }
+
+    /**
+     * 通过getter/setter的MethodHandle读写
+     */
+    private static final class MethodHandleAccessor implements PropertyAccessor {
+        /**
+         * getter
+         */
+        private final MethodHandle getter;
+        /**
+         * setter
+         */
+        private final MethodHandle setter;
+
+        private MethodHandleAccessor(MethodHandle getter, MethodHandle setter) {
+            this.getter = getter;
+            this.setter = setter;
+        }
+
+        @Override
+        public Object get(Object row) {
+            try {
+                return getter.invokeExact(row);
+            } catch (RuntimeException | Error e) {
+                throw e;
+            } catch (Throwable e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        @Override
+        public void set(Object row, Object value) {
+            try {
+                setter.invokeExact(row, value);
+            } catch (RuntimeException | Error e) {
+                throw e;
+            } catch (Throwable e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    /**
+     * 通过mybatis的Invoker读写 用于没有public getter/setter的属性
+     */
+    private static final class InvokerAccessor implements PropertyAccessor {
+        /**
+         * getter
+         */
+        private final Invoker getter;
+        /**
+         * setter
+         */
+        private final Invoker setter;
+
+        private InvokerAccessor(Invoker getter, Invoker setter) {
+            this.getter = getter;
+            this.setter = setter;
+        }
+
+        @Override
+        public Object get(Object row) {
+            try {
+                return getter.invoke(row, null);
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        @Override
+        public void set(Object row, Object value) {
+            try {
+                setter.invoke(row, new Object[]{value});
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    /**
+     * map类型的结果
+     */
+    private static final class MapAccessor implements PropertyAccessor {
+        /**
+         * key
+         */
+        private final String key;
+
+        private MapAccessor(String key) {
+            this.key = key;
+        }
+
+        @Override
+        public Object get(Object row) {
+            return ((Map<?, ?>) row).get(key);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public void set(Object row, Object value) {
+            ((Map<String, Object>) row).put(key, value);
+        }
+    }
+
+    /**
+     * 通过MetaObject读写 用于嵌套属性
+     */
+    private static final class MetaObjectAccessor implements PropertyAccessor {
+        /**
+         * configuration
+         */
+        private final Configuration configuration;
+        /**
+         * 属性
+         */
+        private final String property;
+        /**
+         * 是否需要按驼峰查找属性
+         */
+        private final boolean useCamelCaseMapping;
+
+        private MetaObjectAccessor(Configuration configuration, String property, boolean useCamelCaseMapping) {
+            this.configuration = configuration;
+            this.property = property;
+            this.useCamelCaseMapping = useCamelCaseMapping;
+        }
+
+        @Override
+        public Object get(Object row) {
+            MetaObject metaObject = configuration.newMetaObject(row);
+            return metaObject.getValue(metaObject.findProperty(property, useCamelCaseMapping));
+        }
+
+        @Override
+        public void set(Object row, Object value) {
+            MetaObject metaObject = configuration.newMetaObject(row);
+            metaObject.setValue(metaObject.findProperty(property, useCamelCaseMapping), value);
+        }
+    }
+}
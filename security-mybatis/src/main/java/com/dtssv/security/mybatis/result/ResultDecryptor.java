@@ -0,0 +1,414 @@
+package com.dtssv.security.mybatis.result;
+
+import com.dtssv.security.mybatis.cache.SecurityValueCache;
+import com.dtssv.security.mybatis.handler.BaseSecurityHandler;
+import com.dtssv.security.mybatis.handler.SecurityBytes;
+import com.dtssv.security.mybatis.jfr.SecurityEvents;
+import com.google.common.collect.Maps;
+import lombok.AllArgsConstructor;
+import lombok.EqualsAndHashCode;
+import org.apache.ibatis.session.Configuration;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 查询结果解密
+ * 按结果类型缓存解密计划 每个属性收集所有行的值后批量解密
+ * 结果行数达到parallelThreshold时 按行拆分后在独立的线程池中并行解密 调用线程也参与解密
+ * 同一批结果中重复的密文只解密一次 配置了解密缓存时先从缓存中获取 改写计划中记录的uncachedColumns不使用缓存
+ * 二进制模式下密文以ISO-8859-1字符串参与去重和缓存 解密时还原为byte[]
+ * @author dtssv
+ * @date 2020/12/17 15:02
+ **/
+public class ResultDecryptor {
+    /**
+     * 解密计划缓存
+     */
+    private final Map<PlanKey, ResultDecryptPlan> plans = new ConcurrentHashMap<>();
+    /**
+     * 加密处理器
+     */
+    private final BaseSecurityHandler baseSecurityHandler;
+    /**
+     * 并行解密的行数阈值 小于等于0表示不开启
+     */
+    private final int parallelThreshold;
+    /**
+     * 并行度
+     */
+    private final int parallelism;
+    /**
+     * 并行解密使用的线程池
+     */
+    private volatile ExecutorService executor;
+    /**
+     * executor是否为按需创建的ForkJoinPool 只有这种情况由shutdown关闭
+     */
+    private boolean ownsExecutor;
+    /**
+     * 是否已经关闭 关闭后不再并行解密
+     */
+    private volatile boolean shutdown;
+    /**
+     * 解密缓存 为空表示不使用缓存
+     */
+    private final SecurityValueCache decryptCache;
+    /**
+     * 二进制模式 密文为byte[]或ISO-8859-1字符串 使用decryptBytes解密
+     */
+    private final boolean binaryMode;
+
+    /**
+     *
+     */
+    public ResultDecryptor(BaseSecurityHandler baseSecurityHandler) {
+        this(baseSecurityHandler, 0, 1, null);
+    }
+
+    /**
+     *
+     */
+    public ResultDecryptor(BaseSecurityHandler baseSecurityHandler, int parallelThreshold, int parallelism,
+                           ExecutorService executor) {
+        this(baseSecurityHandler, parallelThreshold, parallelism, executor, null);
+    }
+
+    /**
+     *
+     * @param baseSecurityHandler
+     * @param parallelThreshold 并行解密的行数阈值 小于等于0表示不开启
+     * @param parallelism 并行度
+     * @param executor 线程池 为空时按需创建独立的ForkJoinPool
+     * @param decryptCache 解密缓存 为空表示不使用缓存
+     */
+    public ResultDecryptor(BaseSecurityHandler baseSecurityHandler, int parallelThreshold, int parallelism,
+                           ExecutorService executor, SecurityValueCache decryptCache) {
+        this(baseSecurityHandler, parallelThreshold, parallelism, executor, decryptCache, false);
+    }
+
+    /**
+     *
+     * @param baseSecurityHandler
+     * @param parallelThreshold 并行解密的行数阈值 小于等于0表示不开启
+     * @param parallelism 并行度
+     * @param executor 线程池 为空时按需创建独立的ForkJoinPool
+     * @param decryptCache 解密缓存 为空表示不使用缓存
+     * @param binaryMode 二进制模式
+     */
+    public ResultDecryptor(BaseSecurityHandler baseSecurityHandler, int parallelThreshold, int parallelism,
+                           ExecutorService executor, SecurityValueCache decryptCache, boolean binaryMode) {
+        this.binaryMode = binaryMode;
+        this.baseSecurityHandler = baseSecurityHandler;
+        this.parallelThreshold = parallelThreshold;
+        this.parallelism = Math.max(1, parallelism);
+        this.executor = executor;
+        this.decryptCache = decryptCache;
+    }
+
+    /**
+     * 解密查询结果
+     * @author dtssv
+     * @date 2020/12/17 15:10
+     * @param configuration
+     * @param rows 查询结果
+     * @param columnPropertyMap 需要解密的列和属性
+     * @return void
+     **/
+    public void decrypt(Configuration configuration, List<?> rows, Map<String, String> columnPropertyMap) {
+        decrypt(configuration, rows, columnPropertyMap, Collections.emptySet());
+    }
+
+    /**
+     * 解密查询结果
+     * @param configuration
+     * @param rows 查询结果
+     * @param columnPropertyMap 需要解密的列和属性
+     * @param uncachedColumns 不使用解密缓存的列 与columnPropertyMap的key相同
+     */
+    public void decrypt(Configuration configuration, List<?> rows, Map<String, String> columnPropertyMap,
+                        Set<String> uncachedColumns) {
+        if (rows.isEmpty() || columnPropertyMap.isEmpty()) {
+            return;
+        }
+        // 结果中一般只有一种类型 类型不同时按类型分组
+        ResultDecryptPlan plan = null;
+        List<Object> sameTypeRows = new ArrayList<>(rows.size());
+        for (Object row : rows) {
+            if (row == null) {
+                continue;
+            }
+            if (plan != null && plan.getResultType() != row.getClass()) {
+                decrypt(plan, sameTypeRows);
+                sameTypeRows.clear();
+                plan = null;
+            }
+            if (plan == null) {
+                plan = getPlan(configuration, row.getClass(), columnPropertyMap, uncachedColumns);
+            }
+            sameTypeRows.add(row);
+        }
+        if (plan != null) {
+            decrypt(plan, sameTypeRows);
+        }
+    }
+
+    /**
+     * 解密单行结果 用于ResultHandler和Cursor逐行返回结果的场景
+     * @author dtssv
+     * @date 2020/12/18 11:20
+     * @param configuration
+     * @param row
+     * @param columnPropertyMap 需要解密的列和属性
+     * @return void
+     **/
+    public void decryptRow(Configuration configuration, Object row, Map<String, String> columnPropertyMap) {
+        decryptRow(configuration, row, columnPropertyMap, Collections.emptySet());
+    }
+
+    /**
+     * 解密单行结果
+     * @param configuration
+     * @param row
+     * @param columnPropertyMap 需要解密的列和属性
+     * @param uncachedColumns 不使用解密缓存的列 与columnPropertyMap的key相同
+     */
+    public void decryptRow(Configuration configuration, Object row, Map<String, String> columnPropertyMap,
+                           Set<String> uncachedColumns) {
+        if (row == null || columnPropertyMap.isEmpty()) {
+            return;
+        }
+        ResultDecryptPlan plan = getPlan(configuration, row.getClass(), columnPropertyMap, uncachedColumns);
+        List<ResultDecryptPlan.PropertyAccessor> accessors = plan.getAccessors();
+        for (int i = 0; i < accessors.size(); i++) {
+            ResultDecryptPlan.PropertyAccessor accessor = accessors.get(i);
+            Object value = accessor.get(row);
+            if (value == null) {
+                continue;
+            }
+            String cipher = SecurityBytes.cipherKey(value);
+            if (decryptCache == null || !plan.isCacheable(i)) {
+                accessor.set(row, decryptOne(cipher));
+                continue;
+            }
+            String decrypt = decryptCache.getIfPresent(cipher);
+            if (decrypt == null) {
+                decrypt = decryptOne(cipher);
+                decryptCache.put(cipher, decrypt);
+            }
+            accessor.set(row, decrypt);
+        }
+    }
+
+    /**
+     * 获取解密计划
+     */
+    public ResultDecryptPlan getPlan(Configuration configuration, Class<?> resultType, Map<String, String> columnPropertyMap,
+                                     Set<String> uncachedColumns) {
+        PlanKey key = new PlanKey(configuration, resultType, columnPropertyMap, uncachedColumns);
+        ResultDecryptPlan plan = plans.get(key);
+        if (plan == null) {
+            Set<String> uncachedProperties = new HashSet<>();
+            for (Map.Entry<String, String> entry : columnPropertyMap.entrySet()) {
+                if (uncachedColumns.contains(entry.getKey())) {
+                    uncachedProperties.add(entry.getValue());
+                }
+            }
+            plan = ResultDecryptPlan.compile(configuration, resultType, columnPropertyMap.values(), uncachedProperties);
+            plans.put(key, plan);
+        }
+        return plan;
+    }
+
+    /**
+     * 解密缓存 未开启时返回null
+     */
+    public SecurityValueCache getDecryptCache() {
+        return decryptCache;
+    }
+
+    /**
+     * 关闭按需创建的ForkJoinPool 重新配置替换ResultDecryptor时调用
+     * 配置的decryptExecutor由调用方管理 不关闭 关闭后仍在使用的查询由调用线程解密
+     * @author dtssv
+     * @date 2021/1/14 16:00
+     * @return void
+     **/
+    public synchronized void shutdown() {
+        shutdown = true;
+        if (ownsExecutor) {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * 按计划解密同一类型的结果 行数较多时并行
+     */
+    private void decrypt(ResultDecryptPlan plan, List<Object> rows) {
+        if (parallelThreshold <= 0 || parallelism <= 1 || rows.size() < parallelThreshold || shutdown) {
+            decryptRows(plan, rows);
+            return;
+        }
+        int chunks = Math.min(parallelism, rows.size());
+        int chunkSize = (rows.size() + chunks - 1) / chunks;
+        ExecutorService executorService = getExecutor();
+        if (executorService == null) {
+            decryptRows(plan, rows);
+            return;
+        }
+        List<Future<?>> futures = new ArrayList<>(chunks - 1);
+        for (int start = chunkSize; start < rows.size(); start += chunkSize) {
+            final List<Object> chunk = rows.subList(start, Math.min(start + chunkSize, rows.size()));
+            try {
+                futures.add(executorService.submit(() -> decryptRows(plan, chunk)));
+            } catch (RejectedExecutionException e) {
+                // 重新配置后线程池已经关闭
+                decryptRows(plan, chunk);
+            }
+        }
+        // 第一段由调用线程处理
+        decryptRows(plan, rows.subList(0, Math.min(chunkSize, rows.size())));
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("security decrypt interrupted", e);
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                }
+                throw new IllegalStateException("security decrypt error", cause);
+            }
+        }
+    }
+
+    /**
+     * 获取并行解密的线程池 未配置时创建独立的ForkJoinPool 关闭后不再创建 返回null
+     */
+    private ExecutorService getExecutor() {
+        ExecutorService executorService = executor;
+        if (executorService == null) {
+            synchronized (this) {
+                executorService = executor;
+                if (executorService == null && !shutdown) {
+                    final AtomicInteger threadNumber = new AtomicInteger();
+                    executorService = new ForkJoinPool(parallelism, pool -> {
+                        ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+                        thread.setName("security-decrypt-" + threadNumber.incrementAndGet());
+                        return thread;
+                    }, null, false);
+                    executor = executorService;
+                    ownsExecutor = true;
+                }
+            }
+        }
+        return executorService;
+    }
+
+    /**
+     * 按计划解密同一类型的结果
+     */
+    private void decryptRows(ResultDecryptPlan plan, List<Object> rows) {
+        List<ResultDecryptPlan.PropertyAccessor> accessors = plan.getAccessors();
+        for (int a = 0; a < accessors.size(); a++) {
+            ResultDecryptPlan.PropertyAccessor accessor = accessors.get(a);
+            List<Object> decryptRows = new ArrayList<>(rows.size());
+            List<String> values = new ArrayList<>(rows.size());
+            for (Object row : rows) {
+                Object value = accessor.get(row);
+                if (value != null) {
+                    decryptRows.add(row);
+                    values.add(SecurityBytes.cipherKey(value));
+                }
+            }
+            if (values.isEmpty()) {
+                continue;
+            }
+            Object event = SecurityEvents.beginCrypto();
+            Map<String, String> decrypts = decryptDistinct(values, plan.isCacheable(a));
+            if (event != null) {
+                SecurityEvents.commitCrypto(event, SecurityEvents.DECRYPT, plan.getProperty(a), values.size());
+            }
+            for (int i = 0; i < decryptRows.size(); i++) {
+                accessor.set(decryptRows.get(i), decrypts.get(values.get(i)));
+            }
+        }
+    }
+
+    /**
+     * 去重后批量解密 可以使用缓存时先从缓存中获取
+     */
+    private Map<String, String> decryptDistinct(List<String> values, boolean cacheable) {
+        Set<String> distinctValues = new LinkedHashSet<>(values);
+        if (decryptCache != null && cacheable) {
+            return decryptCache.getAll(distinctValues, this::decryptBatch);
+        }
+        List<String> ciphers = new ArrayList<>(distinctValues);
+        List<String> decrypts = decryptBatch(ciphers);
+        Map<String, String> result = Maps.newHashMapWithExpectedSize(ciphers.size());
+        for (int i = 0; i < ciphers.size(); i++) {
+            result.put(ciphers.get(i), decrypts.get(i));
+        }
+        return result;
+    }
+
+    /**
+     * 解密一个值
+     */
+    private String decryptOne(String cipher) {
+        return binaryMode ? baseSecurityHandler.decryptBytes(SecurityBytes.fromLatin1(cipher)) : baseSecurityHandler.decrypt(cipher);
+    }
+
+    /**
+     * 批量解密
+     */
+    private List<String> decryptBatch(List<String> ciphers) {
+        if (!binaryMode) {
+            return baseSecurityHandler.decryptAll(ciphers);
+        }
+        List<byte[]> bytes = new ArrayList<>(ciphers.size());
+        for (String cipher : ciphers) {
+            bytes.add(SecurityBytes.fromLatin1(cipher));
+        }
+        return baseSecurityHandler.decryptAllBytes(bytes);
+    }
+
+    /**
+     * 解密计划缓存key
+     */
+    @AllArgsConstructor
+    @EqualsAndHashCode
+    private static final class PlanKey {
+        /**
+         * configuration 按实例区分
+         */
+        private final Configuration configuration;
+        /**
+         * 结果类型
+         */
+        private final Class<?> resultType;
+        /**
+         * 需要解密的列和属性
+         */
+        private final Map<String, String> columnPropertyMap;
+        /**
+         * 不使用解密缓存的列
+         */
+        private final Set<String> uncachedColumns;
+    }
+}
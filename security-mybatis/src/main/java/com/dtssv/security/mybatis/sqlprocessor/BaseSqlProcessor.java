@@ -1,7 +1,13 @@
 package com.dtssv.security.mybatis.sqlprocessor;
 
+import com.dtssv.security.mybatis.cache.SecurityValueCache;
 import com.dtssv.security.mybatis.config.SecurityColumnConfig;
 import com.dtssv.security.mybatis.handler.BaseSecurityHandler;
+import com.dtssv.security.mybatis.handler.SecurityBytes;
+import com.dtssv.security.mybatis.jfr.SecurityEvents;
+import com.dtssv.security.mybatis.plan.ParameterSlot;
+import com.dtssv.security.mybatis.plan.ParameterSlotType;
+import com.dtssv.security.mybatis.plan.SqlRewritePlan;
 import com.dtssv.security.util.CommonConstance;
 import com.google.common.collect.Lists;
 import lombok.Data;
@@ -18,15 +24,11 @@ import net.sf.jsqlparser.statement.insert.Insert;
 import net.sf.jsqlparser.statement.select.Select;
 import net.sf.jsqlparser.statement.update.Update;
 import net.sf.jsqlparser.util.TablesNamesFinder;
-import org.apache.ibatis.mapping.BoundSql;
 import org.apache.ibatis.mapping.MappedStatement;
 import org.apache.ibatis.mapping.ParameterMapping;
-import org.apache.ibatis.mapping.ParameterMode;
-import org.apache.ibatis.reflection.MetaObject;
 import org.apache.ibatis.session.Configuration;
 import org.springframework.util.CollectionUtils;
 
-import java.lang.reflect.Field;
 import java.util.*;
 
 /**
@@ -47,10 +49,6 @@ public abstract class BaseSqlProcessor<T extends Statement> {
      */
     private boolean writeSource = false;
 
-    /**
-     * boundSql 
-     */
-    protected BoundSql boundSql = null;
     /**
      * configuration 
      */
@@ -59,22 +57,42 @@ public abstract class BaseSqlProcessor<T extends Statement> {
      * mappedStatement 
      */
     protected MappedStatement mappedStatement;
-    /**
-     * parameterObject 
-     */
-    private Object parameterObject;
     /**
      * orginalParameterMappings 
      */
     private List<ParameterMapping> orginalParameterMappings = Lists.newArrayList();
+    /**
+     * 原参数序号和改写后参数槽位的对应关系 不在其中的参数原样传递
+     */
+    private Map<Integer, List<ParameterSlot>> parameterRewrites = new TreeMap<>();
+    /**
+     * 改写结果是否可以缓存 sql中的常量被加密时改写结果依赖具体的值 不能缓存
+     */
+    private boolean cacheable = true;
     /**
      * baseSecurityHandler 
      */
     protected BaseSecurityHandler baseSecurityHandler;
+    /**
+     * 索引缓存 为空表示不使用缓存
+     */
+    protected SecurityValueCache indexCache;
+    /**
+     * 写入的索引值是否预加载到索引缓存
+     */
+    private boolean preloadIndex = true;
+    /**
+     * 二进制模式 sql中的常量改写为十六进制常量
+     */
+    private boolean binaryMode = false;
     /**
      * sourceTargetMap 
      */
     protected Map<String, SecurityColumnConfig> sourceTargetMap;
+    /**
+     * 原sql
+     */
+    private String sql;
     /**
      * stmt 
      */
@@ -95,6 +113,7 @@ public abstract class BaseSqlProcessor<T extends Statement> {
      */
     public BaseSqlProcessor(String sql, MappedStatement mappedStatement) {
 
+        this.sql = sql;
         this.mappedStatement = mappedStatement;
         this.configuration = mappedStatement.getConfiguration();
 
@@ -130,34 +149,56 @@ public abstract class BaseSqlProcessor<T extends Statement> {
     }
 
     /**
-     * 处理信息
-     * @param boundSql
+     * 处理信息 生成改写计划
+     * @param parameterMappings 原参数列表
      * @param sourceTargetMap
+     * @return com.dtssv.security.mybatis.plan.SqlRewritePlan
      */
-    public void process(BoundSql boundSql, Map<String, SecurityColumnConfig> sourceTargetMap) {
+    public SqlRewritePlan process(List<ParameterMapping> parameterMappings, Map<String, SecurityColumnConfig> sourceTargetMap) {
+        Object event = SecurityEvents.beginRewrite();
         this.sourceTargetMap = sourceTargetMap;
-        this.boundSql = boundSql;
-        orginalParameterMappings.addAll(boundSql.getParameterMappings());
-        parameterObject = boundSql.getParameterObject();
-        log.debug("orignal:{}", stmt.toString());
+        orginalParameterMappings.addAll(parameterMappings);
         doProcess((T)stmt);
-        log.debug("process:{}", stmt.toString());
-        try {
-            Field field = boundSql.getClass().getDeclaredField("sql");
-            field.setAccessible(true);
-            field.set(boundSql, stmt.toString());
-        } catch (NoSuchFieldException  e) {
-            e.printStackTrace();
-        } catch (IllegalAccessException e) {
-            e.printStackTrace();
+        List<ParameterSlot> parameterSlots = new ArrayList<>(orginalParameterMappings.size() + parameterRewrites.size());
+        for (int i = 0; i < orginalParameterMappings.size(); i++) {
+            List<ParameterSlot> slots = parameterRewrites.get(i);
+            if (slots == null) {
+                parameterSlots.add(new ParameterSlot(ParameterSlotType.ORIGINAL, i, null));
+            } else {
+                parameterSlots.addAll(slots);
+            }
         }
-
+        SqlRewritePlan plan = new SqlRewritePlan();
+        plan.setStatementId(mappedStatement.getId());
+        plan.setOriginalSql(sql);
+        plan.setSql(stmt.toString());
+        plan.setRewritten(true);
+        plan.setParameterSlots(parameterSlots);
+        if (event != null) {
+            SecurityEvents.commitRewrite(event, mappedStatement.getId(), tablesNames, rewrittenColumns(parameterSlots).size());
+        }
+        return plan;
     }
     /**
      * 
      */
     protected abstract void doProcess(T stmt);
 
+    /**
+     * 本次改写涉及的加密列
+     * @param parameterSlots 改写后的参数槽位
+     * @return java.util.Set<java.lang.String>
+     */
+    protected Set<String> rewrittenColumns(List<ParameterSlot> parameterSlots) {
+        Set<String> columns = new HashSet<>();
+        for (ParameterSlot parameterSlot : parameterSlots) {
+            if (parameterSlot.getColumn() != null) {
+                columns.add(parameterSlot.getColumn());
+            }
+        }
+        return columns;
+    }
+
     /**
      * 处理where表达式
      * @param expression
@@ -173,7 +214,7 @@ public abstract class BaseSqlProcessor<T extends Statement> {
             processWhereExpression(parenthesis.getExpression());
         } else if (expression instanceof BinaryExpression) { // 如果表达式时二分表达式 即分成了左右值
             BinaryExpression binaryExpression = (BinaryExpression) expression;
-            processWhereExpression(binaryExpression.getLeftExpression(), binaryExpression.getRightExpression());
+            processWhereExpression(binaryExpression, binaryExpression.getLeftExpression(), binaryExpression.getRightExpression());
         } else if (expression instanceof Column) { // 如果 表达式是一个列
             Column column = (Column) expression;
             if (isNeedProcessColumn(Lists.newArrayList(),column)) {
@@ -185,17 +226,14 @@ public abstract class BaseSqlProcessor<T extends Statement> {
             if(leftExpression instanceof Column){
                 Column column = (Column) leftExpression;
                 if (isNeedProcessColumn(Lists.newArrayList(),column)) {
+                    String sourceColumn = columnExtract(column.getColumnName());
                     processWhereExpression(column);
                     ItemsList rightItemsList = ((InExpression) expression).getRightItemsList();
                     if (rightItemsList instanceof ExpressionList) {
                         List<Expression> expressions = ((ExpressionList) rightItemsList).getExpressions();
                         for (Expression item : expressions) {
                             if (item instanceof JdbcParameter) {
-                                JdbcParameter jdbcParameter = (JdbcParameter) item;
-                                Integer index = jdbcParameter.getIndex();
-                                ParameterMapping parameterMapping = orginalParameterMappings.get(index - 1);
-                                String indexValue = baseSecurityHandler.index(getValueOfParameterMapping(parameterMapping));
-                                replaceParams(UUID.randomUUID().toString(), indexValue, parameterMapping.getProperty());
+                                indexParams(((JdbcParameter) item).getIndex() - 1, sourceColumn);
                             }
                         }
                     }
@@ -207,10 +245,7 @@ public abstract class BaseSqlProcessor<T extends Statement> {
             for (Expression functionExpression : expressions) {
                 if(expression instanceof JdbcParameter){
                     JdbcParameter jdbcParameter = (JdbcParameter) functionExpression;
-                    Integer index = jdbcParameter.getIndex();
-                    ParameterMapping parameterMapping = orginalParameterMappings.get(index - 1);
-                    String indexValue = baseSecurityHandler.index(getValueOfParameterMapping(parameterMapping));
-                    replaceParams(UUID.randomUUID().toString(),indexValue,parameterMapping.getProperty());
+                    indexParams(jdbcParameter.getIndex() - 1, null);
                 }
             }
         }
@@ -219,23 +254,28 @@ public abstract class BaseSqlProcessor<T extends Statement> {
 
     /**
      * 处理where表达式  左右类型
+     * @param binaryExpression
      * @param leftExpression
      * @param rightExpression
      */
-    private void processWhereExpression(Expression leftExpression, Expression rightExpression) {
+    private void processWhereExpression(BinaryExpression binaryExpression, Expression leftExpression, Expression rightExpression) {
         if (leftExpression instanceof Column) {
             Column column = (Column) leftExpression;
             if (isOverwriteSourceByTarget() && isNeedProcessColumn(Lists.newArrayList(),column) ) {
+                String sourceColumn = columnExtract(column.getColumnName());
                 processWhereExpression(column);
                 if (rightExpression instanceof JdbcParameter) {
                     JdbcParameter jdbcParameter = (JdbcParameter) rightExpression;
-                    Integer index = jdbcParameter.getIndex();
-                    ParameterMapping parameterMapping = orginalParameterMappings.get(index - 1);
-                    String indexValue = baseSecurityHandler.index(getValueOfParameterMapping(parameterMapping));
-                    replaceParams(UUID.randomUUID().toString(),indexValue,parameterMapping.getProperty());
+                    indexParams(jdbcParameter.getIndex() - 1, sourceColumn);
                 } else if (rightExpression instanceof StringValue) {
                     StringValue stringValue = (StringValue) rightExpression;
-                    stringValue.setValue(baseSecurityHandler.index(stringValue));
+                    String index = index(stringValue, stringValue.toString(), false);
+                    if (binaryMode) {
+                        binaryExpression.setRightExpression(new HexValue(SecurityBytes.hexLiteral(SecurityBytes.fromLatin1(index))));
+                    } else {
+                        stringValue.setValue(index);
+                    }
+                    cacheable = false;
                 } else if(rightExpression instanceof InExpression){
                     processWhereExpression(rightExpression);
                 } else if(rightExpression instanceof Function){
@@ -244,10 +284,7 @@ public abstract class BaseSqlProcessor<T extends Statement> {
                     for (Expression expression : expressions) {
                         if(expression instanceof JdbcParameter){
                             JdbcParameter jdbcParameter = (JdbcParameter) expression;
-                            Integer index = jdbcParameter.getIndex();
-                            ParameterMapping parameterMapping = orginalParameterMappings.get(index - 1);
-                            String indexValue = baseSecurityHandler.index(getValueOfParameterMapping(parameterMapping));
-                            replaceParams(UUID.randomUUID().toString(),indexValue,parameterMapping.getProperty());
+                            indexParams(jdbcParameter.getIndex() - 1, sourceColumn);
                         }
                     }
                 }
@@ -295,141 +332,33 @@ public abstract class BaseSqlProcessor<T extends Statement> {
     }
 
     /**
-     * 添加参数
-     * @param property
-     * @param value
-     */
-    protected void addParams(String property,Object value) {
-        boundSql.getParameterMappings().add(new ParameterMapping.Builder(mappedStatement.getConfiguration(), property, String.class).build());
-        boundSql.setAdditionalParameter(property,value);
-    }
-
-    /**
-     * 替换参数
-     * @param property 新的属性
-     * @param value 新的值
-     * @param oldOroperty 老的属性
-     */
-    protected void replaceParams(String property,Object value,String oldOroperty) {
-        if(value!=null){
-            int indexOfProperty = -1;
-            for (int i = 0; i < boundSql.getParameterMappings().size(); i++) {
-                ParameterMapping parameterMapping = boundSql.getParameterMappings().get(i);
-                if(!parameterMapping.getProperty().equals(oldOroperty)){
-                    continue;
-                }
-                indexOfProperty = i;
-                break;
-            }
-            if(indexOfProperty != -1){
-                boundSql.getParameterMappings().set(indexOfProperty,new ParameterMapping.Builder(mappedStatement.getConfiguration(), property, String.class).build());
-            }
-            boundSql.setAdditionalParameter(property,value);
-        }
-    }
-
-    /**
-     * 添加参数
-     * @param property 属性
-     * @param value 值
-     * @param afterProperty 在该属性后添加
+     * 将参数替换为索引值
+     * @param index 原参数序号 从0开始
+     * @param column 源字段
      */
-    protected void addParams(String property,Object value,String afterProperty,Integer addIndex) {
-        int indexOfProperty = -1;
-        for (int i = 0; i < boundSql.getParameterMappings().size(); i++) {
-            ParameterMapping parameterMapping = boundSql.getParameterMappings().get(i);
-            if(!parameterMapping.getProperty().equals(afterProperty)){
-                continue;
-            }
-            indexOfProperty = i;
-            break;
-        }
-        if(indexOfProperty != -1){
-            boundSql.getParameterMappings().add(indexOfProperty + addIndex + 1,
-                    new ParameterMapping.Builder(mappedStatement.getConfiguration(), property, String.class).build());
-        }
-        boundSql.setAdditionalParameter(property,value);
-
-    }
-
-    /**
-     *
-     * @author dtssv
-     * @date 2020/12/2 18:35
-     * @return void
-     **/
-    protected void removeParams(String  property){
-        int indexOfProperty = -1;
-        for (int i = 0; i < boundSql.getParameterMappings().size(); i++) {
-            ParameterMapping parameterMapping = boundSql.getParameterMappings().get(i);
-            if(!parameterMapping.getProperty().equals(property)){
-                continue;
-            }
-            indexOfProperty = i;
-            break;
-        }
-        if(indexOfProperty != -1){
-            boundSql.getParameterMappings().remove(indexOfProperty);
-        }
-    }
-    /**
-     * 通过序号获取ParameterMapping
-     * @param index
-     * @return
-     */
-    protected ParameterMapping getParameterMappingFromBoundSql(int index){
-        if(orginalParameterMappings == null){
-            return null;
-        }
-        if(index < 0 || index>=orginalParameterMappings.size()){
-            return null;
+    protected void indexParams(int index, String column) {
+        if (index < 0 || index >= orginalParameterMappings.size()) {
+            return;
         }
-        return orginalParameterMappings.get(index);
+        parameterRewrites.put(index, Lists.newArrayList(new ParameterSlot(ParameterSlotType.INDEX, index, column)));
     }
 
     /**
-     * 获取parameterMapping对应的值
-     * @param parameterMapping
-     * @return
+     * 将参数替换为加密值和索引值 写入源字段时保留原参数
+     * @param index 原参数序号 从0开始
+     * @param column 源字段
      */
-    protected Object getValueOfParameterMapping(ParameterMapping parameterMapping){
-        if (parameterMapping.getMode() != ParameterMode.OUT) {
-            Object value;
-            String propertyName = parameterMapping.getProperty();
-            if (boundSql.hasAdditionalParameter(propertyName)) { // issue #448 ask first for additional params
-                value = boundSql.getAdditionalParameter(propertyName);
-            } else if (parameterObject == null) {
-                value = null;
-            } else if (configuration.getTypeHandlerRegistry().hasTypeHandler(parameterObject.getClass())) {
-                value = parameterObject;
-            } else {
-                MetaObject metaObject = configuration.newMetaObject(parameterObject);
-                value = metaObject.getValue(propertyName);
-            }
-            return value;
+    protected void encryptParams(int index, String column) {
+        if (index < 0 || index >= orginalParameterMappings.size()) {
+            return;
         }
-        return  null;
-    }
-
-    /**
-     * 修改parameterMapping对应的值
-     * @param parameterMapping
-     * @param value
-     */
-    protected void setValueOfParameterMapping(ParameterMapping parameterMapping, Object value){
-        if (parameterMapping.getMode() != ParameterMode.OUT) {
-            String propertyName = parameterMapping.getProperty();
-            if (boundSql.hasAdditionalParameter(propertyName)) { // issue #448 ask first for additional params
-                boundSql.setAdditionalParameter(propertyName,value);
-            } else if (parameterObject == null) {
-
-            } else if (configuration.getTypeHandlerRegistry().hasTypeHandler(parameterObject.getClass())) {
-
-            } else {
-                MetaObject metaObject = configuration.newMetaObject(parameterObject);
-                 metaObject.setValue(propertyName,value);
-            }
+        List<ParameterSlot> slots = Lists.newArrayList();
+        if (isWriteSource()) {
+            slots.add(new ParameterSlot(ParameterSlotType.ORIGINAL, index, null));
         }
+        slots.add(new ParameterSlot(ParameterSlotType.TARGET, index, column));
+        slots.add(new ParameterSlot(ParameterSlotType.INDEX, index, column));
+        parameterRewrites.put(index, slots);
     }
 
     /**
@@ -482,39 +411,29 @@ public abstract class BaseSqlProcessor<T extends Statement> {
     protected void processExpression(List<Expression> expressions,List<Map.Entry<Column,Integer>> columnIndices){
         List<Map.Entry<Expression,Integer>> expressionIndices = Lists.newArrayList();
         List<Integer> processColumnIndex = Lists.newArrayList();
-        List<String> processColumnProperty = Lists.newArrayList();
         for (Map.Entry<Column, Integer> column : columnIndices) {
             processColumnIndex.add(column.getValue());
             Expression expression = expressions.get(column.getValue());
-            if (expression instanceof JdbcParameter) {
-                JdbcParameter jdbcParameter = (JdbcParameter) expression;
-                jdbcParameter.getIndex();
-            }
-            String property = null;
             Expression targetExpression =  null;
             Expression indexExpression =  null;
             if (expression instanceof JdbcParameter) {
                 // 创建新的表达式部分
                 targetExpression = new JdbcParameter();
                 indexExpression = new JdbcParameter();
-                ParameterMapping parameterMapping = getParameterMappingFromBoundSql(((JdbcParameter) expression).getIndex() - 1);
-                property = parameterMapping.getProperty();
-                processColumnProperty.add(property);
-                // 增加参数映射 及 参数值
-                Object valueOfColumn = getValueOfParameterMapping(parameterMapping);
-                String encryptValue = baseSecurityHandler.encrypt(valueOfColumn);
-                String indexValue = baseSecurityHandler.index(valueOfColumn);
-                // 增加加密列参数
-                addParams(UUID.randomUUID().toString(), encryptValue, property,0);
-                // 增加索引列参数
-                addParams(UUID.randomUUID().toString(), indexValue, property,1);
+                // 增加加密列参数及索引列参数
+                encryptParams(((JdbcParameter) expression).getIndex() - 1, columnExtract(column.getKey().getColumnName()));
             } else if (expression instanceof StringValue) {
                 String sourceValue = ((StringValue) expression).getValue();
-                String targetValue = baseSecurityHandler.encrypt(sourceValue);
-                String indexValue = baseSecurityHandler.index(sourceValue);
+                String indexValue = index(sourceValue, sourceValue, preloadIndex);
                 // 创建新的表达式部分
-                targetExpression = new StringValue(targetValue);
-                indexExpression = new StringValue(indexValue);
+                if (binaryMode) {
+                    targetExpression = new HexValue(SecurityBytes.hexLiteral(baseSecurityHandler.encryptBytes(sourceValue)));
+                    indexExpression = new HexValue(SecurityBytes.hexLiteral(SecurityBytes.fromLatin1(indexValue)));
+                } else {
+                    targetExpression = new StringValue(baseSecurityHandler.encrypt(sourceValue));
+                    indexExpression = new StringValue(indexValue);
+                }
+                cacheable = false;
             }
             Map.Entry entry1 = new AbstractMap.SimpleEntry<>(targetExpression,column.getValue() + 1 + expressionIndices.size());
             expressionIndices.add(entry1);
@@ -532,12 +451,37 @@ public abstract class BaseSqlProcessor<T extends Statement> {
 //            for (int columnIndex : processColumnIndex) {
 //                expressions.remove(columnIndex );
 //            }
-            if(!CollectionUtils.isEmpty(processColumnProperty)){
-                for (String property : processColumnProperty) {
-                    removeParams(property);
-                }
+        }
+    }
+
+    /**
+     * 计算sql中常量的索引值 开启索引缓存时优先从缓存中获取 二进制模式下返回ISO-8859-1字符串
+     * @param value 传给加密处理器的值
+     * @param key 缓存key
+     * @param preload 是否不经过访问频率判断直接放入缓存
+     * @return java.lang.String
+     */
+    private String index(Object value, String key, boolean preload) {
+        if (indexCache == null || key == null) {
+            return computeIndex(value);
+        }
+        String index = indexCache.getIfPresent(key);
+        if (index == null) {
+            index = computeIndex(value);
+            if (preload) {
+                indexCache.preload(key, index);
+            } else {
+                indexCache.put(key, index);
             }
         }
+        return index;
+    }
+
+    /**
+     * 调用加密处理器计算索引值
+     */
+    private String computeIndex(Object value) {
+        return binaryMode ? SecurityBytes.toLatin1(baseSecurityHandler.indexBytes(value)) : baseSecurityHandler.index(value);
     }
 
     /**
@@ -1,7 +1,9 @@
 package com.dtssv.security.mybatis.sqlprocessor;
 
+import com.dtssv.security.mybatis.plan.ParameterSlot;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 import lombok.Data;
 import net.sf.jsqlparser.expression.Alias;
 import net.sf.jsqlparser.expression.Expression;
@@ -14,6 +16,7 @@ import org.springframework.util.CollectionUtils;
 
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * selectSQL处理器
@@ -26,6 +29,14 @@ public class SelectBaseSqlProcessor extends BaseSqlProcessor<Select> {
      * columnPropertyMap
      */
     protected Map<String, String> columnPropertyMap = Maps.newHashMap();
+    /**
+     * 查询结果中加密列的列名(别名) 小写
+     */
+    protected Set<String> resultColumnLabels = Sets.newHashSet();
+    /**
+     * 不使用解密缓存的列 与columnPropertyMap的key相同
+     */
+    protected Set<String> uncachedColumns = Sets.newHashSet();
     /**
      *
      */
@@ -136,6 +147,11 @@ public class SelectBaseSqlProcessor extends BaseSqlProcessor<Select> {
                         if(columnPropertyMap.get(columnName) == null){
                             columnPropertyMap.put(columnName,aliasName);
                         }
+                        resultColumnLabels.add(aliasName.toLowerCase());
+                        // 列名去掉引号后按本条sql涉及的表的配置判断
+                        if(!sourceTargetMap.get(columnExtract(columnName)).isDecryptCache()){
+                            uncachedColumns.add(columnName);
+                        }
                         // 修改查询列为target列
                         column.setColumnName(getTargetName(column));
                     }
@@ -192,4 +208,14 @@ public class SelectBaseSqlProcessor extends BaseSqlProcessor<Select> {
             }
         }
     }
+
+    /**
+     * 查询列和条件中的加密列
+     */
+    @Override
+    protected Set<String> rewrittenColumns(List<ParameterSlot> parameterSlots) {
+        Set<String> columns = super.rewrittenColumns(parameterSlots);
+        columns.addAll(columnPropertyMap.keySet());
+        return columns;
+    }
 }
@@ -0,0 +1,98 @@
+package com.dtssv.security.mybatis.trace;
+
+import com.dtssv.security.mybatis.plan.SqlRewritePlan;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+
+/**
+ * 一次改写记录 只保存改写计划的引用和耗时 读取时才格式化
+ * @author dtssv
+ * @date 2020/12/29 14:10
+ **/
+public final class RewriteTrace {
+    /**
+     * 序号 由RewriteTraceBuffer设置
+     */
+    long sequence;
+    /**
+     * 执行时间 毫秒
+     */
+    private final long timestamp;
+    /**
+     * 改写计划 包括statementId 原sql和改写后的sql
+     */
+    private final SqlRewritePlan plan;
+    /**
+     * 是否命中改写计划缓存
+     */
+    private final boolean planCacheHit;
+    /**
+     * 本次计算加密值和索引值的耗时 纳秒
+     */
+    private final long applyNanos;
+
+    /**
+     *
+     */
+    public RewriteTrace(long timestamp, SqlRewritePlan plan, boolean planCacheHit, long applyNanos) {
+        this.timestamp = timestamp;
+        this.plan = plan;
+        this.planCacheHit = planCacheHit;
+        this.applyNanos = applyNanos;
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public String getStatementId() {
+        return plan.getStatementId();
+    }
+
+    public String getOriginalSql() {
+        return plan.getOriginalSql();
+    }
+
+    public String getRewrittenSql() {
+        return plan.getSql();
+    }
+
+    public boolean isPlanCacheHit() {
+        return planCacheHit;
+    }
+
+    /**
+     * 解析sql的耗时 纳秒 为编译改写计划时的耗时
+     */
+    public long getParseNanos() {
+        return plan.getParseNanos();
+    }
+
+    /**
+     * 改写sql的耗时 纳秒 为编译改写计划时的耗时
+     */
+    public long getRewriteNanos() {
+        return plan.getRewriteNanos();
+    }
+
+    public long getApplyNanos() {
+        return applyNanos;
+    }
+
+    /**
+     * 格式化
+     */
+    @Override
+    public String toString() {
+        return String.format(Locale.ROOT, "#%d %s %s planCacheHit=%s parseUs=%.1f rewriteUs=%.1f applyUs=%.1f%n  original: %s%n  rewritten: %s",
+                sequence, new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS").format(new Date(timestamp)), getStatementId(),
+                planCacheHit, getParseNanos() / 1000D, getRewriteNanos() / 1000D, applyNanos / 1000D,
+                getOriginalSql(), getRewrittenSql());
+    }
+}
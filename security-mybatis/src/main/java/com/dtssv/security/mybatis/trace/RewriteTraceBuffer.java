@@ -0,0 +1,122 @@
+package com.dtssv.security.mybatis.trace;
+
+import com.dtssv.security.mybatis.metrics.SecurityMBeans;
+
+import javax.management.ObjectName;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * 最近改写记录的环形缓冲区 容量为2的幂
+ * 写入只有一次getAndIncrement和一次lazySet 不加锁 满了覆盖最旧的记录
+ * 读取时复制快照后按序号排序 并发写入时快照中可能缺少正在被覆盖的个别记录
+ * 原sql中的常量(包括加密列的明文)会原样保存并通过jmx暴露 默认不开启 只在排查问题时设置traceBufferSize
+ * @author dtssv
+ * @date 2020/12/29 14:30
+ **/
+public class RewriteTraceBuffer implements RewriteTraceBufferMXBean {
+    /**
+     * 记录
+     */
+    private final AtomicReferenceArray<RewriteTrace> traces;
+    /**
+     * 下标掩码
+     */
+    private final int mask;
+    /**
+     * 下一个序号
+     */
+    private final AtomicLong sequence = new AtomicLong();
+    /**
+     * 注册的jmx名称
+     */
+    private volatile ObjectName objectName;
+
+    /**
+     * @param capacity 容量 向上取整为2的幂
+     */
+    public RewriteTraceBuffer(int capacity) {
+        int size = capacity <= 1 ? 1 : Integer.highestOneBit(capacity - 1) << 1;
+        this.traces = new AtomicReferenceArray<>(size);
+        this.mask = size - 1;
+    }
+
+    /**
+     * 记录一次改写
+     */
+    public void record(RewriteTrace trace) {
+        long next = sequence.getAndIncrement();
+        trace.sequence = next;
+        traces.lazySet((int) (next & mask), trace);
+    }
+
+    /**
+     * 当前保存的记录 从旧到新
+     */
+    public List<RewriteTrace> snapshot() {
+        List<RewriteTrace> result = new ArrayList<>(traces.length());
+        for (int i = 0; i < traces.length(); i++) {
+            RewriteTrace trace = traces.get(i);
+            if (trace != null) {
+                result.add(trace);
+            }
+        }
+        result.sort(Comparator.comparingLong(RewriteTrace::getSequence));
+        return result;
+    }
+
+    @Override
+    public int getCapacity() {
+        return traces.length();
+    }
+
+    @Override
+    public long getRecorded() {
+        return sequence.get();
+    }
+
+    @Override
+    public List<String> recent(int limit) {
+        List<RewriteTrace> snapshot = snapshot();
+        List<String> result = new ArrayList<>(Math.min(Math.max(limit, 0), snapshot.size()));
+        for (int i = Math.max(0, snapshot.size() - limit); i < snapshot.size(); i++) {
+            result.add(snapshot.get(i).toString());
+        }
+        return result;
+    }
+
+    @Override
+    public String dump() {
+        StringBuilder builder = new StringBuilder();
+        for (RewriteTrace trace : snapshot()) {
+            builder.append(trace).append(System.lineSeparator());
+        }
+        return builder.toString();
+    }
+
+    @Override
+    public void clear() {
+        for (int i = 0; i < traces.length(); i++) {
+            traces.set(i, null);
+        }
+    }
+
+    /**
+     * 注册到platform MBeanServer 名称为com.dtssv.security:type=RewriteTrace,name=${name}
+     */
+    public synchronized void registerMBean(String name) {
+        unregisterMBean();
+        objectName = SecurityMBeans.register("RewriteTrace", name, this);
+    }
+
+    /**
+     * 从MBeanServer注销
+     */
+    public synchronized void unregisterMBean() {
+        SecurityMBeans.unregister(objectName);
+        objectName = null;
+    }
+}
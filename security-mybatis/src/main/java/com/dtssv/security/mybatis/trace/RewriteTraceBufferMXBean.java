@@ -0,0 +1,37 @@
+package com.dtssv.security.mybatis.trace;
+
+import java.util.List;
+
+/**
+ * 改写记录的jmx接口
+ * @author dtssv
+ * @date 2020/12/29 14:20
+ **/
+public interface RewriteTraceBufferMXBean {
+
+    /**
+     * 最多保存的记录数
+     */
+    int getCapacity();
+
+    /**
+     * 累计记录数
+     */
+    long getRecorded();
+
+    /**
+     * 最近的记录 从旧到新
+     * @param limit 最多返回的条数
+     */
+    List<String> recent(int limit);
+
+    /**
+     * 全部记录 从旧到新
+     */
+    String dump();
+
+    /**
+     * 清空
+     */
+    void clear();
+}
@@ -15,6 +15,11 @@ public interface CommonConstance {
      */
     String PREPARE = "prepare";
 
+    /**
+     * queryCursor
+     */
+    String QUERY_CURSOR = "queryCursor";
+
     /**
      * MYSQL_CHAR
      */